@@ -0,0 +1,273 @@
+/*-
+ * #%L
+ * schema2proto-lib
+ * %%
+ * Copyright (C) 2019 - 2020 Entur
+ * %%
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl5
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * #L%
+ */
+
+package no.entur.schema2proto.compatibility;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.Range;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.squareup.wire.schema.Reserved;
+
+/**
+ * Machine readable summary of a backwards compatibility check against proto.lock: per file and per message or enum, the fields or constants that were added,
+ * removed, renumbered or reserved, with the time spent checking each of them. Written as JSON with {@link #write(File)}.
+ *
+ * <p>
+ * Empty lists are left out, so that unchanged types only show their name and timing.
+ */
+public class CompatibilityReport {
+
+	/** Name of the report file when written to the output directory. */
+	public static final String DEFAULT_FILENAME = "compatibility-report.json";
+
+	private int files;
+	private int added;
+	private int removed;
+	private int renumbered;
+	private int reserved;
+	private double durationMillis;
+	private final List<FileReport> fileReports = new ArrayList<>();
+
+	synchronized void add(FileReport fileReport) {
+		files++;
+		added += fileReport.added;
+		removed += fileReport.removed;
+		renumbered += fileReport.renumbered;
+		reserved += fileReport.reserved;
+		durationMillis += fileReport.durationMillis;
+		fileReports.add(fileReport);
+	}
+
+	public synchronized List<FileReport> getFileReports() {
+		return new ArrayList<>(fileReports);
+	}
+
+	public void write(File reportFile) throws IOException {
+		if (reportFile.getAbsoluteFile().getParentFile() != null) {
+			Files.createDirectories(reportFile.getAbsoluteFile().getParentFile().toPath());
+		}
+		try (Writer writer = Files.newBufferedWriter(reportFile.toPath(), StandardCharsets.UTF_8)) {
+			write(writer);
+		}
+	}
+
+	public synchronized void write(Writer writer) {
+		Gson gson = new GsonBuilder().setPrettyPrinting().create();
+		gson.toJson(this, writer);
+	}
+
+	public static class FileReport {
+		private final String path;
+		private final boolean inProtoLock;
+		private int added;
+		private int removed;
+		private int renumbered;
+		private int reserved;
+		private double durationMillis;
+		private final List<TypeReport> types = new ArrayList<>();
+
+		FileReport(String path, boolean inProtoLock) {
+			this.path = path;
+			this.inProtoLock = inProtoLock;
+		}
+
+		void setDuration(long nanos) {
+			durationMillis = toMillis(nanos);
+		}
+
+		void addType(String kind, String name, Map<String, Integer> locked, Map<String, Integer> before, Map<String, Integer> after,
+				List<Reserved> addedReservations, long nanos) {
+			TypeReport typeReport = new TypeReport(kind, name, toMillis(nanos));
+			after.forEach((entryName, id) -> {
+				if (!locked.containsKey(entryName)) {
+					typeReport.added = add(typeReport.added, new Entry(entryName, id));
+				}
+				Integer previousId = before.get(entryName);
+				if (previousId != null && !previousId.equals(id)) {
+					typeReport.renumbered = add(typeReport.renumbered, new Renumbering(entryName, previousId, id));
+				}
+			});
+			locked.forEach((entryName, id) -> {
+				if (!after.containsKey(entryName)) {
+					typeReport.removed = add(typeReport.removed, new Entry(entryName, id));
+				}
+			});
+
+			TreeSet<Integer> reservedIds = new TreeSet<>();
+			TreeSet<String> reservedNames = new TreeSet<>();
+			for (Reserved reservation : addedReservations) {
+				for (Object value : reservation.getValues()) {
+					if (value instanceof Integer) {
+						reservedIds.add((Integer) value);
+					} else if (value instanceof Range) {
+						@SuppressWarnings("unchecked")
+						Range<Integer> range = (Range<Integer>) value;
+						for (int id = range.lowerEndpoint(); id <= range.upperEndpoint(); id++) {
+							reservedIds.add(id);
+						}
+					} else if (value instanceof String) {
+						reservedNames.add((String) value);
+					}
+				}
+			}
+			if (!reservedIds.isEmpty()) {
+				typeReport.reservedIds = new ArrayList<>(reservedIds);
+			}
+			if (!reservedNames.isEmpty()) {
+				typeReport.reservedNames = new ArrayList<>(reservedNames);
+			}
+
+			if (typeReport.added != null) {
+				typeReport.added.sort(Comparator.comparingInt((Entry entry) -> entry.id).thenComparing(entry -> entry.name));
+				added += typeReport.added.size();
+			}
+			if (typeReport.removed != null) {
+				typeReport.removed.sort(Comparator.comparingInt((Entry entry) -> entry.id).thenComparing(entry -> entry.name));
+				removed += typeReport.removed.size();
+			}
+			if (typeReport.renumbered != null) {
+				typeReport.renumbered.sort(Comparator.comparing(renumbering -> renumbering.name));
+				renumbered += typeReport.renumbered.size();
+			}
+			reserved += reservedIds.size() + reservedNames.size();
+			types.add(typeReport);
+		}
+
+		public String getPath() {
+			return path;
+		}
+
+		public List<TypeReport> getTypes() {
+			return types;
+		}
+
+		private static <T> List<T> add(List<T> list, T value) {
+			List<T> result = list != null ? list : new ArrayList<>();
+			result.add(value);
+			return result;
+		}
+	}
+
+	public static class TypeReport {
+		private final String kind;
+		private final String name;
+		private final double durationMillis;
+		private List<Entry> added;
+		private List<Entry> removed;
+		private List<Renumbering> renumbered;
+		private List<Integer> reservedIds;
+		private List<String> reservedNames;
+
+		TypeReport(String kind, String name, double durationMillis) {
+			this.kind = kind;
+			this.name = name;
+			this.durationMillis = durationMillis;
+		}
+
+		public String getKind() {
+			return kind;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public List<Entry> getAdded() {
+			return added;
+		}
+
+		public List<Entry> getRemoved() {
+			return removed;
+		}
+
+		public List<Renumbering> getRenumbered() {
+			return renumbered;
+		}
+
+		public List<Integer> getReservedIds() {
+			return reservedIds;
+		}
+
+		public List<String> getReservedNames() {
+			return reservedNames;
+		}
+	}
+
+	public static class Entry {
+		private final String name;
+		private final int id;
+
+		Entry(String name, int id) {
+			this.name = name;
+			this.id = id;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public int getId() {
+			return id;
+		}
+	}
+
+	public static class Renumbering {
+		private final String name;
+		private final int from;
+		private final int to;
+
+		Renumbering(String name, int from, int to) {
+			this.name = name;
+			this.from = from;
+			this.to = to;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public int getFrom() {
+			return from;
+		}
+
+		public int getTo() {
+			return to;
+		}
+	}
+
+	private static double toMillis(long nanos) {
+		return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+	}
+}
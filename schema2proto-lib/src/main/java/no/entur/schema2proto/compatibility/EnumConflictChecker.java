@@ -52,7 +52,11 @@ import no.entur.schema2proto.compatibility.protolock.ProtolockEnumConstant;
 public class EnumConflictChecker {
 
 	private final static Logger LOGGER = LoggerFactory.getLogger(EnumConflictChecker.class);
-	private boolean failIfRemovedFieldsTriggered;
+	private final DeferredWarnings warnings;
+
+	EnumConflictChecker(DeferredWarnings warnings) {
+		this.warnings = warnings;
+	}
 
 	public boolean tryResolveEnumConflicts(ProtoFile file, EnumType enumType, ProtolockEnum protolockEnum) {
 		SortedSet<ProtolockEnumConstant> lockEnumConstants = Collections.unmodifiableSortedSet(new TreeSet<>(Arrays.asList(protolockEnum.getEnumFields()))); // from
@@ -67,6 +71,7 @@ public class EnumConflictChecker {
 		Set<ProtolockEnumConstant> surplusLockEnumConstants = new TreeSet<>(lockEnumConstants); // from proto.lock
 		surplusLockEnumConstants.removeAll(xsdEnumConstants);
 
+		boolean failIfRemovedFieldsTriggered = false;
 		if (newEnumConstantsInXsd.isEmpty() && surplusLockEnumConstants.isEmpty()) {
 			// No mismatch, only minor details
 			if (LOGGER.isDebugEnabled()) {
@@ -75,6 +80,7 @@ public class EnumConflictChecker {
 		} else if (newEnumConstantsInXsd.isEmpty() && !surplusLockEnumConstants.isEmpty()) {
 			// Find constants that are removed (make reserved)
 			surplusLockEnumConstants.stream().forEach(newField -> reserveEnumConstant(file, enumType, newField));
+			failIfRemovedFieldsTriggered = true;
 
 		} else if (!newEnumConstantsInXsd.isEmpty() && surplusLockEnumConstants.isEmpty()) {
 			// Only new enum constants from xsd
@@ -136,7 +142,7 @@ public class EnumConflictChecker {
 						updateEnumConstantId(nextAvailableConstantId, originalFieldIdForNewName, intrudingConstant, existingConstant, idFromLockFile);
 					}
 				}
-				tryResolveEnumConflicts(file, enumType, protolockEnum);
+				failIfRemovedFieldsTriggered = tryResolveEnumConflicts(file, enumType, protolockEnum);
 
 			} else {
 				// If neither overlapping constants names nor ids, no problem. Add reserved keyword for removed constants
@@ -144,6 +150,7 @@ public class EnumConflictChecker {
 					reserveEnumConstant(file, enumType, newConstant);
 					LOGGER.debug("Removed constant in proto {}: {}, adding reserved section", file.name(), newConstant);
 				});
+				failIfRemovedFieldsTriggered = true;
 			}
 
 		}
@@ -177,10 +184,9 @@ public class EnumConflictChecker {
 		e.addReserved(reservationDoc, loc, newEnumConstant.getName());
 		e.addReserved(reservationDoc, loc, newEnumConstant.getId());
 
-		LOGGER.warn(
+		warnings.warn(LOGGER,
 				"Possible backwards incompatibility detected, must be checked manually! Removed enum constant in proto {}, message {}, field {}, blocking enum name and id for future use by adding 'reserved' statement",
 				file.name(), e.name(), newEnumConstant);
-		failIfRemovedFieldsTriggered = true;
 	}
 
 	@NotNull
@@ -27,16 +27,16 @@ import static no.entur.schema2proto.compatibility.ConflictResolverHelper.createB
 
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.SortedMap;
 import java.util.SortedSet;
+import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
-import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -52,7 +52,11 @@ import no.entur.schema2proto.compatibility.protolock.ProtolockMessage;
 public class FieldConflictChecker {
 
 	private final Logger LOGGER = LoggerFactory.getLogger(FieldConflictChecker.class);
-	private boolean failIfRemovedFieldsTriggered;
+	private final DeferredWarnings warnings;
+
+	FieldConflictChecker(DeferredWarnings warnings) {
+		this.warnings = warnings;
+	}
 
 	public boolean tryResolveFieldConflicts(ProtoFile file, MessageType protoMessage, ProtolockMessage protolockMessage) {
 
@@ -61,43 +65,40 @@ public class FieldConflictChecker {
 		BiMap<String, Integer> lockFieldsInLockMapNameToId = createBiMap(lockFileFields);
 		Map<Integer, String> lockFieldsInLockMapIdToName = lockFieldsInLockMapNameToId.inverse();
 
-		boolean allConflictsResolved = false;
-		while (!allConflictsResolved) {
-			SortedSet<ProtolockField> protoMessageFieldAsLockFields = Collections.unmodifiableSortedSet(
-					new TreeSet<>(protoMessage.fieldsAndOneOfFields().stream().map(f -> new ProtolockField(f.tag(), f.name())).collect(Collectors.toSet()))); // from
-
-			allConflictsResolved = true;
-			for (ProtolockField protoMessageFieldAsLockField : protoMessageFieldAsLockFields) {
-				LOGGER.debug("Checking proto message field {}", protoMessageFieldAsLockField);
-
-				// Is the ID the same as before?
-
-				if (!lockFileFields.contains(protoMessageFieldAsLockField)) {
-					LOGGER.debug("Lock file does not contain proto message field {}", protoMessageFieldAsLockField);
-
-					// Check if field is used by another field in lockfile
-					if (lockFieldsInLockMapIdToName.containsKey(protoMessageFieldAsLockField.getId())
-							|| lockFieldsInLockMapNameToId.containsKey(protoMessageFieldAsLockField.getName())
-							|| isReserved(protolockMessage, protoMessageFieldAsLockField)) {
-
-						Integer originalIdForField = lockFieldsInLockMapNameToId.get(protoMessageFieldAsLockField.getName());
-						if (originalIdForField == null) {
-							originalIdForField = findNextAvailableFieldNum(protoMessage, protoMessageFieldAsLockFields, lockFileFields).get();
-						}
-						Optional<Field> intrudingField = getField(protoMessage, protoMessageFieldAsLockField.getName());
-						intrudingField.get().updateTag(originalIdForField);
-
-						//
-						allConflictsResolved = false;
-						break;
-					}
-					// if yes assign a new number
-					// if no all ok
-					// tryResolveFieldConflicts(file, protoMessage, protolockMessage);
-				} else {
-					LOGGER.debug("Lock file contains proto message field {}", protoMessageFieldAsLockField);
+		// A field that does not match the lock file keeps conflicting until it is reassigned, and a reassigned field never conflicts again. All reassignments
+		// can therefore be computed in a single pass, visiting conflicting fields in (id, name) order. New ids are allocated above the highest id currently in
+		// use, so field numbers in use are tracked as a multiset.
+		SortedMap<ProtolockField, Field> protoMessageFields = new TreeMap<>();
+		TreeMap<Integer, Integer> fieldNumsInUse = new TreeMap<>();
+		for (Field field : protoMessage.fieldsAndOneOfFields()) {
+			protoMessageFields.put(new ProtolockField(field.tag(), field.name()), field);
+			fieldNumsInUse.merge(field.tag(), 1, Integer::sum);
+		}
+
+		for (Map.Entry<ProtolockField, Field> entry : protoMessageFields.entrySet()) {
+			ProtolockField protoMessageFieldAsLockField = entry.getKey();
+			LOGGER.debug("Checking proto message field {}", protoMessageFieldAsLockField);
+
+			if (lockFileFields.contains(protoMessageFieldAsLockField)) {
+				LOGGER.debug("Lock file contains proto message field {}", protoMessageFieldAsLockField);
+				continue;
+			}
+
+			LOGGER.debug("Lock file does not contain proto message field {}", protoMessageFieldAsLockField);
+
+			// Check if field is used by another field in lockfile
+			if (lockFieldsInLockMapIdToName.containsKey(protoMessageFieldAsLockField.getId())
+					|| lockFieldsInLockMapNameToId.containsKey(protoMessageFieldAsLockField.getName())
+					|| isReserved(protolockMessage, protoMessageFieldAsLockField)) {
+
+				Integer originalIdForField = lockFieldsInLockMapNameToId.get(protoMessageFieldAsLockField.getName());
+				if (originalIdForField == null) {
+					originalIdForField = findNextAvailableFieldNum(protoMessage, fieldNumsInUse.lastKey() + 1, lockFieldsInLockMapIdToName.keySet());
 				}
-				// allConflictsResolved = true;
+				entry.getValue().updateTag(originalIdForField);
+
+				fieldNumsInUse.computeIfPresent(protoMessageFieldAsLockField.getId(), (fieldNum, count) -> count == 1 ? null : count - 1);
+				fieldNumsInUse.merge(originalIdForField, 1, Integer::sum);
 			}
 		}
 
@@ -111,6 +112,7 @@ public class FieldConflictChecker {
 		Set<ProtolockField> surplusLockFields = new TreeSet<>(lockFileFields); // from proto.lock
 		surplusLockFields.removeAll(xsdFields);
 
+		boolean failIfRemovedFieldsTriggered = false;
 		if (!surplusLockFields.isEmpty()) {
 			surplusLockFields.stream().forEach(newField -> reserveField(file, protoMessage, newField));
 			failIfRemovedFieldsTriggered = true;
@@ -177,17 +179,16 @@ public class FieldConflictChecker {
 		existingField.ifPresent(x -> x.updateTag(overlappingId));
 	}
 
-	@NotNull
-	private AtomicInteger findNextAvailableFieldNum(MessageType e, SortedSet<ProtolockField> xsdFields, SortedSet<ProtolockField> lockFields) {
-		AtomicInteger nextAvailableFieldNum = new AtomicInteger(
-				xsdFields.stream().max(Comparator.comparing(ProtolockField::getId)).orElse(new ProtolockField(0, null)).getId() + 1);
-
+	private int findNextAvailableFieldNum(MessageType e, int candidate, Set<Integer> lockFieldIds) {
 		// Check that it is not reserved
-		while (e.getReserveds().stream().anyMatch(s -> s.matchesTag(nextAvailableFieldNum.get()))
-				|| lockFields.stream().anyMatch(s -> s.getId() == nextAvailableFieldNum.get())) {
-			nextAvailableFieldNum.incrementAndGet();
+		while (lockFieldIds.contains(candidate) || isReservedInMessage(e, candidate)) {
+			candidate++;
 		}
-		return nextAvailableFieldNum;
+		return candidate;
+	}
+
+	private boolean isReservedInMessage(MessageType e, int fieldNum) {
+		return e.getReserveds().stream().anyMatch(s -> s.matchesTag(fieldNum));
 	}
 
 	private boolean isReserved(ProtolockMessage protolockMessage, ProtolockField field) {
@@ -224,7 +225,7 @@ public class FieldConflictChecker {
 		e.addReserved(reservationDoc, loc, newField.getName());
 		e.addReserved(reservationDoc, loc, newField.getId());
 
-		LOGGER.warn(
+		warnings.warn(LOGGER,
 				"Possible backwards incompatibility detected, must be checked manually! Removed field in proto {}, message {}, field {}, blocking field name and id for future use by adding 'reserved' statement",
 				file.name(), e.getName(), newField);
 	}
@@ -23,34 +23,36 @@
 
 package no.entur.schema2proto.compatibility;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
+import java.io.IOException;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.gson.Gson;
 import com.squareup.wire.schema.EnumType;
 import com.squareup.wire.schema.Location;
 import com.squareup.wire.schema.MessageType;
 import com.squareup.wire.schema.ProtoFile;
 
-import no.entur.schema2proto.compatibility.protolock.ProtolockDefinition;
+import no.entur.schema2proto.compatibility.protolock.AbstractNameIDPair;
 import no.entur.schema2proto.compatibility.protolock.ProtolockDefinitions;
 import no.entur.schema2proto.compatibility.protolock.ProtolockEnum;
 import no.entur.schema2proto.compatibility.protolock.ProtolockFile;
 import no.entur.schema2proto.compatibility.protolock.ProtolockMessage;
 
-public class ProtolockBackwardsCompatibilityChecker {
+public class ProtolockBackwardsCompatibilityChecker implements Closeable {
 
 	private ProtolockDefinitions definitions = null;
-
-	private EnumConflictChecker enumConflictChecker = new EnumConflictChecker();
-
-	private FieldConflictChecker fieldConflictChecker = new FieldConflictChecker();
+	private final CompatibilityReport report = new CompatibilityReport();
 
 	private final String reservationDoc = "Reservation added by schema2proto";
 	private final Location reservationLocation = new Location("", "", 0, 0);
@@ -58,72 +60,128 @@ public class ProtolockBackwardsCompatibilityChecker {
 	private static final Logger LOGGER = LoggerFactory.getLogger(ProtolockBackwardsCompatibilityChecker.class);
 
 	public void init(File protoLockFile) throws FileNotFoundException {
-		Gson gson = new Gson();
-		definitions = gson.fromJson(new FileReader(protoLockFile), ProtolockDefinitions.class);
+		try {
+			definitions = ProtolockDefinitions.open(protoLockFile);
+		} catch (FileNotFoundException e) {
+			throw e;
+		} catch (IOException e) {
+			throw new BackwardsCompatibilityCheckException("Could not read proto.lock file " + protoLockFile, e);
+		}
+	}
+
+	/**
+	 * Release the proto.lock file opened by {@link #init(File)}. Lookups made after closing reopen the file.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (definitions != null) {
+			definitions.close();
+		}
 	}
 
 	public ProtolockDefinitions getDefinitions() {
 		return definitions;
 	}
 
+	/**
+	 * Findings of all files resolved so far, in the order they were resolved.
+	 */
+	public CompatibilityReport getReport() {
+		return report;
+	}
+
 	private void copyReservations(ProtolockMessage protolockMessage, MessageType protoMessage) {
 		if (protolockMessage.getReservedIds() != null && protolockMessage.getReservedIds().length > 0) {
-			Arrays.stream(protolockMessage.getReservedIds()).forEach(reservedId -> protoMessage.addReserved(reservationDoc, reservationLocation, reservedId));
+			protoMessage.addReservedTags(reservationDoc, reservationLocation, Arrays.asList(protolockMessage.getReservedIds()));
 		}
 		if (protolockMessage.getReservedNames() != null && protolockMessage.getReservedNames().length > 0) {
-			Arrays.stream(protolockMessage.getReservedNames())
-					.forEach(reservedName -> protoMessage.addReserved(reservationDoc, reservationLocation, reservedName));
+			protoMessage.addReservedNames(reservationDoc, reservationLocation, Arrays.asList(protolockMessage.getReservedNames()));
 		}
 
-		protoMessage.nestedTypes().stream().filter(z -> z instanceof MessageType).map(k -> (MessageType) k).forEach(nestedType -> {
-			if (protolockMessage.getMessages() != null) {
-				Arrays.stream(protolockMessage.getMessages()).forEach(nestedProtolockMessage -> {
-					if (nestedProtolockMessage.getName().equals(nestedType.getName())) {
-						copyReservations(nestedProtolockMessage, nestedType);
-					}
-				});
-			}
-		});
+		protoMessage.nestedTypes()
+				.stream()
+				.filter(z -> z instanceof MessageType)
+				.map(k -> (MessageType) k)
+				.forEach(nestedType -> protolockMessage.getMessage(nestedType.getName())
+						.ifPresent(nestedProtolockMessage -> copyReservations(nestedProtolockMessage, nestedType)));
 
 	}
 
 	private void copyReservations(ProtolockEnum protolockEnum, EnumType protoEnum) {
 		LOGGER.debug("Copying reservations for message {} and enum {}", protolockEnum, protoEnum);
 		if (protolockEnum.getReservedIds() != null && protolockEnum.getReservedIds().length > 0) {
-			Arrays.stream(protolockEnum.getReservedIds()).forEach(reservedId -> protoEnum.addReserved(reservationDoc, reservationLocation, reservedId));
+			protoEnum.addReservedTags(reservationDoc, reservationLocation, Arrays.asList(protolockEnum.getReservedIds()));
 		}
 		if (protolockEnum.getReservedNames() != null && protolockEnum.getReservedNames().length > 0) {
-			Arrays.stream(protolockEnum.getReservedNames()).forEach(reservedName -> protoEnum.addReserved(reservationDoc, reservationLocation, reservedName));
+			protoEnum.addReservedNames(reservationDoc, reservationLocation, Arrays.asList(protolockEnum.getReservedNames()));
 		}
 	}
 
 	public boolean resolveBackwardIncompatibilities(ProtoFile protoFile) {
+		DeferredWarnings warnings = new DeferredWarnings();
+		ProtolockFile protolockFile = getProtolockFile(protoFile);
+		CompatibilityReport.FileReport fileReport = new CompatibilityReport.FileReport(protolockPath(protoFile), protolockFile != null);
+		boolean failIfRemovedFieldsTriggered = resolveBackwardIncompatibilities(protoFile, protolockFile, warnings, fileReport);
+		warnings.log();
+		report.add(fileReport);
+		return failIfRemovedFieldsTriggered;
+	}
+
+	/**
+	 * Resolve backward incompatibilities in several files in parallel. Resolving a file only modifies the types in that file. Warnings are logged per file in
+	 * the order the files are given.
+	 *
+	 * @return true if any of the files may have backwards incompatible changes
+	 */
+	public boolean resolveBackwardIncompatibilities(List<ProtoFile> protoFiles) {
+		// Look up files in the given order, so that proto.lock is read front to back
+		List<ProtolockFile> protolockFiles = protoFiles.stream().map(this::getProtolockFile).collect(Collectors.toList());
+		List<DeferredWarnings> warnings = protoFiles.stream().map(protoFile -> new DeferredWarnings()).collect(Collectors.toList());
+		List<CompatibilityReport.FileReport> fileReports = IntStream.range(0, protoFiles.size())
+				.mapToObj(i -> new CompatibilityReport.FileReport(protolockPath(protoFiles.get(i)), protolockFiles.get(i) != null))
+				.collect(Collectors.toList());
+
+		List<Boolean> results = IntStream.range(0, protoFiles.size())
+				.parallel()
+				.mapToObj(i -> resolveBackwardIncompatibilities(protoFiles.get(i), protolockFiles.get(i), warnings.get(i), fileReports.get(i)))
+				.collect(Collectors.toList());
+
+		boolean failIfRemovedFieldsTriggered = false;
+		for (int i = 0; i < protoFiles.size(); i++) {
+			warnings.get(i).log();
+			report.add(fileReports.get(i));
+			failIfRemovedFieldsTriggered |= results.get(i);
+		}
+		return failIfRemovedFieldsTriggered;
+	}
+
+	private boolean resolveBackwardIncompatibilities(ProtoFile protoFile, ProtolockFile protolockFile, DeferredWarnings warnings,
+			CompatibilityReport.FileReport fileReport) {
 		LOGGER.debug("Trying to resolve backward incompabilities in file {}", protoFile);
+		long start = System.nanoTime();
 
 		AtomicBoolean failIfRemovedFieldsTriggered = new AtomicBoolean(false);
 
-		ProtolockFile protolockFile = getProtolockFile(protoFile);
+		// Checkers are created per file so that files can be resolved in parallel
+		EnumConflictChecker enumConflictChecker = new EnumConflictChecker(warnings);
+		FieldConflictChecker fieldConflictChecker = new FieldConflictChecker(warnings);
 
 		if (protolockFile != null) {
 
 			// For each enum on file level (global enums)
 			protoFile.types().stream().filter(type -> type instanceof EnumType).map(enumType -> (EnumType) enumType).forEach(enumType -> {
-				if (protolockFile.getEnums() != null) {
-					Arrays.stream(protolockFile.getEnums()).filter(pe -> pe.getName().equals(enumType.name())).findFirst().ifPresent(protolockEnum -> {
-						copyReservations(protolockEnum, enumType);
-
-						if (enumConflictChecker.tryResolveEnumConflicts(protoFile, enumType, protolockEnum)) {
-							failIfRemovedFieldsTriggered.set(true);
-						}
-					});
-				}
+				protolockFile.getEnum(enumType.name()).ifPresent(protolockEnum -> {
+					if (resolveEnumConflicts(protoFile, enumType, protolockEnum, enumConflictChecker, fileReport)) {
+						failIfRemovedFieldsTriggered.set(true);
+					}
+				});
 			});
 
 			protoFile.types().stream().filter(z -> z instanceof MessageType).map(ke -> (MessageType) ke).forEach(e -> {
 				// For each root level message in file
 				ProtolockMessage protolockMessage = getProtolockMessage(protolockFile, e);
 				if (protolockMessage != null) {
-					if (resolveBackwardIncompatibilities(protoFile, protolockMessage, e)) {
+					if (resolveBackwardIncompatibilities(protoFile, protolockMessage, e, fieldConflictChecker, enumConflictChecker, fileReport)) {
 						failIfRemovedFieldsTriggered.set(true);
 					}
 
@@ -131,28 +189,36 @@ public class ProtolockBackwardsCompatibilityChecker {
 			});
 		}
 
+		fileReport.setDuration(System.nanoTime() - start);
 		return failIfRemovedFieldsTriggered.get();
 	}
 
-	private boolean resolveBackwardIncompatibilities(ProtoFile protoFile, ProtolockMessage protolockMessage, MessageType protoMessage) {
+	private boolean resolveBackwardIncompatibilities(ProtoFile protoFile, ProtolockMessage protolockMessage, MessageType protoMessage,
+			FieldConflictChecker fieldConflictChecker, EnumConflictChecker enumConflictChecker, CompatibilityReport.FileReport fileReport) {
 		LOGGER.debug("Resolving backward compabilities in file {}, message {}", protoFile.name(), protoMessage);
 
 		AtomicBoolean failIfRemovedFieldsTriggered = new AtomicBoolean(false);
 		// Copy previous reservations since the schema generator has no info about them
 		copyReservations(protolockMessage, protoMessage);
 
+		long start = System.nanoTime();
+		Map<String, Integer> fieldsBefore = fieldNumbers(protoMessage);
+		int reservationsBefore = protoMessage.getReserveds().size();
 		if (fieldConflictChecker.tryResolveFieldConflicts(protoFile, protoMessage, protolockMessage)) {
 			failIfRemovedFieldsTriggered.set(true);
 		}
+		fileReport.addType("message", protoMessage.type().toString(), lockedNumbers(protolockMessage.getFields()), fieldsBefore, fieldNumbers(protoMessage),
+				protoMessage.getReserveds().subList(reservationsBefore, protoMessage.getReserveds().size()), System.nanoTime() - start);
 
-		if (tryResolveEnumConflicts(protoFile, protoMessage, protolockMessage)) {
+		if (tryResolveEnumConflicts(protoFile, protoMessage, protolockMessage, enumConflictChecker, fileReport)) {
 			failIfRemovedFieldsTriggered.set(true);
 		}
 
 		protoMessage.nestedTypes().stream().filter(type -> type instanceof MessageType).map(r -> (MessageType) r).forEach(nestedProtoMessage -> {
 			ProtolockMessage nestedProtolockMessage = getNestedProtolockMessage(protolockMessage, nestedProtoMessage);
 			if (nestedProtolockMessage != null) {
-				if (resolveBackwardIncompatibilities(protoFile, nestedProtolockMessage, nestedProtoMessage)) {
+				if (resolveBackwardIncompatibilities(protoFile, nestedProtolockMessage, nestedProtoMessage, fieldConflictChecker, enumConflictChecker,
+						fileReport)) {
 					failIfRemovedFieldsTriggered.set(true);
 				}
 			}
@@ -162,58 +228,88 @@ public class ProtolockBackwardsCompatibilityChecker {
 
 	}
 
-	private boolean tryResolveEnumConflicts(ProtoFile protoFile, MessageType protoMessage, ProtolockMessage protolockMessage) {
+	private boolean tryResolveEnumConflicts(ProtoFile protoFile, MessageType protoMessage, ProtolockMessage protolockMessage,
+			EnumConflictChecker enumConflictChecker, CompatibilityReport.FileReport fileReport) {
 		LOGGER.debug("Trying to resolve enum conflicts in file {}, message {}", protoFile.name(), protoMessage);
 		AtomicBoolean failIfRemovedFieldsTriggered = new AtomicBoolean(false);
 		// For each enum in proto, try to find mismatching enum values and resolve
 		protoMessage.nestedTypes().stream().filter(type -> type instanceof EnumType).map(type -> (EnumType) type).forEach(enumType -> {
 			// Find matching in protolockmessage
-			if (protolockMessage.getEnums() != null) {
-				Arrays.stream(protolockMessage.getEnums()).filter(e -> e.getName().equals(enumType.name())).findFirst().ifPresent(protolockEnum -> {
-					copyReservations(protolockEnum, enumType);
-					if (enumConflictChecker.tryResolveEnumConflicts(protoFile, enumType, protolockEnum)) {
-						failIfRemovedFieldsTriggered.set(true);
-					}
-				});
-			}
+			protolockMessage.getEnum(enumType.name()).ifPresent(protolockEnum -> {
+				if (resolveEnumConflicts(protoFile, enumType, protolockEnum, enumConflictChecker, fileReport)) {
+					failIfRemovedFieldsTriggered.set(true);
+				}
+			});
 		});
 		return failIfRemovedFieldsTriggered.get();
 	}
 
+	private boolean resolveEnumConflicts(ProtoFile protoFile, EnumType enumType, ProtolockEnum protolockEnum, EnumConflictChecker enumConflictChecker,
+			CompatibilityReport.FileReport fileReport) {
+		copyReservations(protolockEnum, enumType);
+
+		long start = System.nanoTime();
+		Map<String, Integer> constantsBefore = constantNumbers(enumType);
+		int reservationsBefore = enumType.reserveds().size();
+		boolean failIfRemovedFieldsTriggered = enumConflictChecker.tryResolveEnumConflicts(protoFile, enumType, protolockEnum);
+		fileReport.addType("enum", enumType.type().toString(), lockedNumbers(protolockEnum.getEnumFields()), constantsBefore, constantNumbers(enumType),
+				enumType.reserveds().subList(reservationsBefore, enumType.reserveds().size()), System.nanoTime() - start);
+		return failIfRemovedFieldsTriggered;
+	}
+
+	private static Map<String, Integer> fieldNumbers(MessageType messageType) {
+		Map<String, Integer> fieldNumbers = new LinkedHashMap<>();
+		messageType.fieldsAndOneOfFields().forEach(field -> fieldNumbers.putIfAbsent(field.name(), field.tag()));
+		return fieldNumbers;
+	}
+
+	private static Map<String, Integer> constantNumbers(EnumType enumType) {
+		Map<String, Integer> constantNumbers = new LinkedHashMap<>();
+		enumType.constants().forEach(constant -> constantNumbers.putIfAbsent(constant.getName(), constant.getTag()));
+		return constantNumbers;
+	}
+
+	private static Map<String, Integer> lockedNumbers(AbstractNameIDPair[] entries) {
+		Map<String, Integer> lockedNumbers = new LinkedHashMap<>();
+		if (entries != null) {
+			Arrays.stream(entries).forEach(entry -> lockedNumbers.putIfAbsent(entry.getName(), entry.getId()));
+		}
+		return lockedNumbers;
+	}
+
 	private ProtolockMessage getProtolockMessage(ProtolockFile protolockFile, MessageType protoMessage) {
-		if (protolockFile != null && protolockFile.getMessages() != null) {
-			return Arrays.stream(protolockFile.getMessages()).filter(message -> message.getName().equals(protoMessage.getName())).findFirst().orElse(null);
+		if (protolockFile != null) {
+			return protolockFile.getMessage(protoMessage.getName()).orElse(null);
 		}
 
 		return null;
 	}
 
 	private ProtolockMessage getNestedProtolockMessage(ProtolockMessage protolockMessage, MessageType nestedProtoMessage) {
-		if (protolockMessage != null && protolockMessage.getMessages() != null) {
-			return Arrays.stream(protolockMessage.getMessages())
-					.filter(subMessage -> subMessage.getName().equals(nestedProtoMessage.getName()))
-					.findFirst()
-					.orElse(null);
+		if (protolockMessage != null) {
+			return protolockMessage.getMessage(nestedProtoMessage.getName()).orElse(null);
 		} else {
 			return null;
 		}
 	}
 
 	private ProtolockFile getProtolockFile(ProtoFile protoFile) {
+		ProtolockFile protolockFile = definitions.getFile(protolockPath(protoFile));
+		if (protolockFile != null) {
+			return protolockFile;
+		}
+
+		LOGGER.warn("Could not find a matching entry in proto.lock for {}", protoFile.name());
+		return null;
+	}
+
+	static String protolockPath(ProtoFile protoFile) {
 		String fullPath = protoFile.toString();
 		if (!fullPath.contains("/")) {
 			// Assume no package in filename yet
 			fullPath = protoFile.packageName().replace(".", "/") + "/" + protoFile.toString();
 		}
-
-		for (ProtolockDefinition def : definitions.getDefinitions()) {
-			if (def.getProtopath().replace(":/:", "/").equals(fullPath)) {
-				return def.getFile();
-			}
-		}
-
-		LOGGER.warn("Could not find a matching entry in proto.lock for {}", protoFile.name());
-		return null;
+		return fullPath;
 	}
 
 }
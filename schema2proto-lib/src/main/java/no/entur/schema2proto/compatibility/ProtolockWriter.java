@@ -0,0 +1,375 @@
+/*-
+ * #%L
+ * schema2proto-lib
+ * %%
+ * Copyright (C) 2019 - 2020 Entur
+ * %%
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl5
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * #L%
+ */
+package no.entur.schema2proto.compatibility;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Range;
+import com.google.gson.stream.JsonWriter;
+import com.squareup.wire.schema.EnumConstant;
+import com.squareup.wire.schema.EnumType;
+import com.squareup.wire.schema.Field;
+import com.squareup.wire.schema.MessageType;
+import com.squareup.wire.schema.OneOf;
+import com.squareup.wire.schema.Options;
+import com.squareup.wire.schema.ProtoFile;
+import com.squareup.wire.schema.ProtoType;
+import com.squareup.wire.schema.Reserved;
+import com.squareup.wire.schema.Rpc;
+import com.squareup.wire.schema.Service;
+import com.squareup.wire.schema.Type;
+import com.squareup.wire.schema.internal.parser.OptionElement;
+
+import no.entur.schema2proto.compatibility.protolock.ProtolockSnapshot;
+
+/**
+ * Writes a proto.lock file in the format used by protolock (https://github.com/nilslice/protolock) from proto files in memory, as an alternative to running
+ * "protolock commit" on the generated files. Definitions are sorted by path, and empty values are left out like protolock does.
+ *
+ * <p>
+ * Options are written with their value as a string. Options with message, map or list values are left out. Reserved ranges ending at max cannot be listed and
+ * fail the write, leaving any existing lock file unchanged.
+ */
+public class ProtolockWriter {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ProtolockWriter.class);
+
+	private static final String PATH_SEPARATOR = ":/:";
+	private static final int MAX_TAG_VALUE = (1 << 29) - 1;
+
+	private final Map<String, ProtoFile> protoFilesByPath = new TreeMap<>();
+
+	/**
+	 * Add a proto file to the lock file.
+	 *
+	 * @param path path of the proto file relative to the proto root, ie no/entur/file.proto
+	 */
+	public ProtolockWriter add(String path, ProtoFile protoFile) {
+		protoFilesByPath.put(path.replace(File.separatorChar, '/'), protoFile);
+		return this;
+	}
+
+	/**
+	 * Write the lock file, replacing any existing file once the new one is complete. An existing binary snapshot (see {@link ProtolockSnapshot}) is replaced by
+	 * a new snapshot.
+	 */
+	public void write(File protoLockFile) throws IOException {
+		Path target = protoLockFile.getAbsoluteFile().toPath();
+		Files.createDirectories(target.getParent());
+		boolean snapshot = protoLockFile.exists() && ProtolockSnapshot.isSnapshot(protoLockFile);
+		Path temp = Files.createTempFile(target.getParent(), protoLockFile.getName(), ".tmp");
+		Path snapshotTemp = null;
+		try {
+			try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+				write(writer);
+			}
+			if (snapshot) {
+				snapshotTemp = Files.createTempFile(target.getParent(), protoLockFile.getName(), ".tmp");
+				ProtolockSnapshot.toSnapshot(temp.toFile(), snapshotTemp.toFile());
+				Files.move(snapshotTemp, target, StandardCopyOption.REPLACE_EXISTING);
+			} else {
+				Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(temp);
+			if (snapshotTemp != null) {
+				Files.deleteIfExists(snapshotTemp);
+			}
+		}
+		LOGGER.info("Wrote proto.lock file {} with {} definitions", protoLockFile.getPath(), protoFilesByPath.size());
+	}
+
+	public void write(Writer writer) throws IOException {
+		JsonWriter json = new JsonWriter(writer);
+		json.setIndent("  ");
+		json.beginObject();
+		json.name("definitions").beginArray();
+		for (Map.Entry<String, ProtoFile> entry : protoFilesByPath.entrySet()) {
+			json.beginObject();
+			json.name("protopath").value(entry.getKey().replace("/", PATH_SEPARATOR));
+			json.name("def");
+			writeFile(json, entry.getValue());
+			json.endObject();
+		}
+		json.endArray();
+		json.endObject();
+		json.flush();
+	}
+
+	private void writeFile(JsonWriter json, ProtoFile protoFile) throws IOException {
+		json.beginObject();
+
+		List<EnumType> enums = new ArrayList<>();
+		List<MessageType> messages = new ArrayList<>();
+		splitTypes(protoFile.types(), enums, messages);
+
+		writeEnums(json, enums);
+		writeMessages(json, messages);
+
+		if (!protoFile.services().isEmpty()) {
+			json.name("services").beginArray();
+			for (Service service : protoFile.services()) {
+				writeService(json, service);
+			}
+			json.endArray();
+		}
+
+		if (!protoFile.imports().isEmpty()) {
+			json.name("imports").beginArray();
+			for (String importPath : protoFile.imports()) {
+				json.beginObject();
+				json.name("path").value(importPath);
+				json.endObject();
+			}
+			json.endArray();
+		}
+
+		if (protoFile.packageName() != null) {
+			json.name("package").beginObject();
+			json.name("name").value(protoFile.packageName());
+			json.endObject();
+		}
+
+		writeOptions(json, protoFile.options());
+		json.endObject();
+	}
+
+	private void writeMessages(JsonWriter json, List<MessageType> messages) throws IOException {
+		if (messages.isEmpty()) {
+			return;
+		}
+		json.name("messages").beginArray();
+		for (MessageType message : messages) {
+			writeMessage(json, message);
+		}
+		json.endArray();
+	}
+
+	private void writeMessage(JsonWriter json, MessageType message) throws IOException {
+		json.beginObject();
+		json.name("name").value(message.getName());
+
+		List<Field> fields = new ArrayList<>();
+		List<Field> maps = new ArrayList<>();
+		List<Field> allFields = new ArrayList<>(message.fields());
+		for (OneOf oneOf : message.oneOfs()) {
+			allFields.addAll(oneOf.fields());
+		}
+		for (Field field : allFields) {
+			if (ProtoType.get(field.getElementType()).isMap()) {
+				maps.add(field);
+			} else {
+				fields.add(field);
+			}
+		}
+
+		if (!fields.isEmpty()) {
+			json.name("fields").beginArray();
+			for (Field field : fields) {
+				writeField(json, field, field.getElementType());
+			}
+			json.endArray();
+		}
+
+		if (!maps.isEmpty()) {
+			json.name("maps").beginArray();
+			for (Field field : maps) {
+				ProtoType mapType = ProtoType.get(field.getElementType());
+				json.beginObject();
+				json.name("key_type").value(mapType.keyType().toString());
+				json.name("field");
+				writeField(json, field, mapType.valueType().toString());
+				json.endObject();
+			}
+			json.endArray();
+		}
+
+		writeReserveds(json, message.type().toString(), message.getReserveds());
+
+		List<EnumType> enums = new ArrayList<>();
+		List<MessageType> messages = new ArrayList<>();
+		splitTypes(message.nestedTypes(), enums, messages);
+		writeMessages(json, messages);
+		writeOptions(json, message.options());
+		writeEnums(json, enums);
+
+		json.endObject();
+	}
+
+	private void writeField(JsonWriter json, Field field, String type) throws IOException {
+		json.beginObject();
+		json.name("id").value(field.tag());
+		json.name("name").value(field.name());
+		json.name("type").value(type);
+		if (field.isRepeated()) {
+			json.name("is_repeated").value(true);
+		}
+		writeOptions(json, field.options());
+		json.endObject();
+	}
+
+	private void writeEnums(JsonWriter json, List<EnumType> enums) throws IOException {
+		if (enums.isEmpty()) {
+			return;
+		}
+		json.name("enums").beginArray();
+		for (EnumType enumType : enums) {
+			json.beginObject();
+			json.name("name").value(enumType.name());
+			if (!enumType.constants().isEmpty()) {
+				json.name("enum_fields").beginArray();
+				for (EnumConstant constant : enumType.constants()) {
+					json.beginObject();
+					json.name("name").value(constant.getName());
+					if (constant.getTag() != 0) {
+						json.name("integer").value(constant.getTag());
+					}
+					writeOptions(json, constant.getOptions());
+					json.endObject();
+				}
+				json.endArray();
+			}
+			writeReserveds(json, enumType.type().toString(), enumType.reserveds());
+			if (enumType.allowAlias()) {
+				json.name("allow_alias").value(true);
+			}
+			writeOptions(json, enumType.options());
+			json.endObject();
+		}
+		json.endArray();
+	}
+
+	private void writeService(JsonWriter json, Service service) throws IOException {
+		json.beginObject();
+		json.name("name").value(service.name());
+		if (!service.rpcs().isEmpty()) {
+			json.name("rpcs").beginArray();
+			for (Rpc rpc : service.rpcs()) {
+				json.beginObject();
+				json.name("name").value(rpc.name());
+				json.name("in_type").value(rpc.requestTypeElement());
+				json.name("out_type").value(rpc.responseTypeElement());
+				if (rpc.requestStreaming()) {
+					json.name("in_streamed").value(true);
+				}
+				if (rpc.responseStreaming()) {
+					json.name("out_streamed").value(true);
+				}
+				writeOptions(json, rpc.options());
+				json.endObject();
+			}
+			json.endArray();
+		}
+		json.endObject();
+	}
+
+	@SuppressWarnings("unchecked")
+	private void writeReserveds(JsonWriter json, String typeName, List<Reserved> reserveds) throws IOException {
+		List<Integer> reservedIds = new ArrayList<>();
+		List<String> reservedNames = new ArrayList<>();
+		for (Reserved reserved : reserveds) {
+			for (Object value : reserved.getValues()) {
+				if (value instanceof Integer) {
+					reservedIds.add((Integer) value);
+				} else if (value instanceof String) {
+					reservedNames.add((String) value);
+				} else if (value instanceof Range) {
+					Range<Integer> range = (Range<Integer>) value;
+					if (range.upperEndpoint() >= MAX_TAG_VALUE) {
+						// protolock lists each reserved id; leaving out an open ended range would let a later schema reuse its ids unnoticed
+						throw new BackwardsCompatibilityCheckException("Reserved range " + range.lowerEndpoint() + " to max in " + typeName
+								+ " cannot be written to proto.lock, which lists each reserved id. Reserve up to a fixed tag instead");
+					}
+					for (int id = range.lowerEndpoint(); id <= range.upperEndpoint(); id++) {
+						reservedIds.add(id);
+					}
+				}
+			}
+		}
+
+		if (!reservedIds.isEmpty()) {
+			json.name("reserved_ids").beginArray();
+			for (Integer id : reservedIds) {
+				json.value(id);
+			}
+			json.endArray();
+		}
+		if (!reservedNames.isEmpty()) {
+			json.name("reserved_names").beginArray();
+			for (String name : reservedNames) {
+				json.value(name);
+			}
+			json.endArray();
+		}
+	}
+
+	private void writeOptions(JsonWriter json, Options options) throws IOException {
+		List<OptionElement> scalarOptions = new ArrayList<>();
+		for (OptionElement option : options.getOptionElements()) {
+			switch (option.getKind()) {
+			case STRING:
+			case BOOLEAN:
+			case NUMBER:
+			case ENUM:
+				scalarOptions.add(option);
+				break;
+			default:
+				LOGGER.debug("Option {} is not written to proto.lock", option.getFormattedName());
+			}
+		}
+
+		if (!scalarOptions.isEmpty()) {
+			json.name("options").beginArray();
+			for (OptionElement option : scalarOptions) {
+				json.beginObject();
+				json.name("name").value(option.getFormattedName());
+				json.name("value").value(String.valueOf(option.getValue()));
+				json.endObject();
+			}
+			json.endArray();
+		}
+	}
+
+	private void splitTypes(List<Type> types, List<EnumType> enums, List<MessageType> messages) {
+		for (Type type : types) {
+			if (type instanceof EnumType) {
+				enums.add((EnumType) type);
+			} else if (type instanceof MessageType) {
+				messages.add((MessageType) type);
+			}
+		}
+	}
+}
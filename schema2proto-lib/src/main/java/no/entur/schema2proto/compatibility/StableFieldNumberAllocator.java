@@ -0,0 +1,132 @@
+/*-
+ * #%L
+ * schema2proto-lib
+ * %%
+ * Copyright (C) 2019 - 2020 Entur
+ * %%
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl5
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * #L%
+ */
+
+package no.entur.schema2proto.compatibility;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import com.squareup.wire.schema.Field;
+import com.squareup.wire.schema.MessageType;
+import com.squareup.wire.schema.ProtoFile;
+import com.squareup.wire.schema.Reserved;
+import com.squareup.wire.schema.Type;
+
+import no.entur.schema2proto.compatibility.protolock.ProtolockDefinitions;
+import no.entur.schema2proto.compatibility.protolock.ProtolockField;
+import no.entur.schema2proto.compatibility.protolock.ProtolockFile;
+import no.entur.schema2proto.compatibility.protolock.ProtolockMessage;
+
+/**
+ * Assigns field numbers derived from the message and field name instead of the field order, so that a field inserted in the middle of an xsd sequence does not
+ * shift the numbers of the fields after it.
+ *
+ * <p>
+ * Fields already present in proto.lock keep their locked number. Other fields get a number hashed from the qualified message name and the field name, probing
+ * upwards past numbers in use, reserved in the message or in proto.lock, and the range reserved by protobuf itself.
+ */
+public class StableFieldNumberAllocator {
+
+	/** Hashed numbers stay below 2048, where the field key still fits in two bytes on the wire. */
+	static final int HASH_RANGE = 2047;
+
+	private static final int FIRST_PROTOBUF_RESERVED_NUMBER = 19000;
+	private static final int LAST_PROTOBUF_RESERVED_NUMBER = 19999;
+
+	private final ProtolockDefinitions definitions;
+
+	/**
+	 * @param definitions proto.lock to seed the allocation from, or null
+	 */
+	public StableFieldNumberAllocator(ProtolockDefinitions definitions) {
+		this.definitions = definitions;
+	}
+
+	public void allocate(ProtoFile protoFile) {
+		ProtolockFile protolockFile = definitions != null ? definitions.getFile(ProtolockBackwardsCompatibilityChecker.protolockPath(protoFile)) : null;
+		for (Type type : protoFile.types()) {
+			if (type instanceof MessageType) {
+				MessageType messageType = (MessageType) type;
+				allocate(messageType, protolockFile != null ? protolockFile.getMessage(messageType.getName()).orElse(null) : null);
+			}
+		}
+	}
+
+	private void allocate(MessageType messageType, ProtolockMessage protolockMessage) {
+		Map<String, Integer> lockedNumbers = new HashMap<>();
+		Set<Integer> unavailable = new HashSet<>();
+		if (protolockMessage != null) {
+			if (protolockMessage.getFields() != null) {
+				for (ProtolockField field : protolockMessage.getFields()) {
+					lockedNumbers.putIfAbsent(field.getName(), field.getId());
+					unavailable.add(field.getId());
+				}
+			}
+			if (protolockMessage.getReservedIds() != null) {
+				unavailable.addAll(Arrays.asList(protolockMessage.getReservedIds()));
+			}
+		}
+		Reserved.Index reservedIndex = new Reserved.Index(messageType.getReserveds());
+
+		Set<Integer> used = new HashSet<>();
+		List<Field> unallocated = new ArrayList<>();
+		for (Field field : messageType.fieldsAndOneOfFields()) {
+			Integer lockedNumber = lockedNumbers.get(field.name());
+			if (lockedNumber != null && used.add(lockedNumber)) {
+				field.updateTag(lockedNumber);
+			} else {
+				unallocated.add(field);
+			}
+		}
+
+		for (Field field : unallocated) {
+			int fieldNumber = hashFieldNumber(messageType.type().toString(), field.name());
+			while (used.contains(fieldNumber) || unavailable.contains(fieldNumber) || !reservedIndex.matchingTag(fieldNumber).isEmpty()
+					|| (fieldNumber >= FIRST_PROTOBUF_RESERVED_NUMBER && fieldNumber <= LAST_PROTOBUF_RESERVED_NUMBER)) {
+				fieldNumber++;
+			}
+			used.add(fieldNumber);
+			field.updateTag(fieldNumber);
+		}
+
+		for (Type nestedType : messageType.nestedTypes()) {
+			if (nestedType instanceof MessageType) {
+				MessageType nestedMessageType = (MessageType) nestedType;
+				allocate(nestedMessageType, protolockMessage != null ? protolockMessage.getMessage(nestedMessageType.getName()).orElse(null) : null);
+			}
+		}
+	}
+
+	static int hashFieldNumber(String messageName, String fieldName) {
+		CRC32 crc = new CRC32();
+		crc.update((messageName + "." + fieldName).getBytes(StandardCharsets.UTF_8));
+		return 1 + (int) (crc.getValue() % HASH_RANGE);
+	}
+}
@@ -22,10 +22,99 @@
  */
 package no.entur.schema2proto.compatibility.protolock;
 
-public class ProtolockDefinitions {
-	public ProtolockDefinition[] getDefinitions() {
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.Map;
+
+public class ProtolockDefinitions implements Closeable {
+
+	/**
+	 * Open a proto.lock file for lookups without reading it into memory. Only the protopaths are read up front; file definitions are read when they are looked
+	 * up with {@link #getFile(String)}. Close the returned instance to release the underlying file.
+	 *
+	 * <p>
+	 * Both protolock JSON files and {@link ProtolockSnapshot binary snapshots} are accepted; the format is detected from the content.
+	 */
+	public static ProtolockDefinitions open(File protoLockFile) throws IOException {
+		ProtolockDefinitions protolockDefinitions = new ProtolockDefinitions();
+		if (ProtolockSnapshot.isSnapshot(protoLockFile)) {
+			protolockDefinitions.reader = new ProtolockSnapshotReader(protoLockFile);
+		} else {
+			protolockDefinitions.reader = new ProtolockDefinitionsReader(protoLockFile);
+		}
+		return protolockDefinitions;
+	}
+
+	public ProtolockDefinitions() {
+	}
+
+	ProtolockDefinitions(ProtolockDefinition[] definitions) {
+		this.definitions = definitions;
+	}
+
+	/**
+	 * Get all definitions. If opened with {@link #open(File)}, this reads the whole lock file.
+	 */
+	public synchronized ProtolockDefinition[] getDefinitions() {
+		if (definitions == null && reader != null) {
+			try {
+				definitions = reader.readAll();
+				reader.close();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			reader = null;
+			index();
+		}
 		return definitions;
 	}
 
 	private ProtolockDefinition[] definitions;
+
+	private transient Map<String, ProtolockFile> filesByPath;
+
+	private transient ProtolockSource reader;
+
+	/**
+	 * Get the file definition for a proto file path, ie no/entur/file.proto, or null if there is none.
+	 */
+	public synchronized ProtolockFile getFile(String path) {
+		if (reader != null) {
+			return reader.getFile(path);
+		}
+		if (filesByPath == null) {
+			index();
+		}
+		return filesByPath.get(path);
+	}
+
+	/**
+	 * Index file definitions by path, and their messages and enums by name.
+	 */
+	public synchronized void index() {
+		Map<String, ProtolockFile> index = new HashMap<>();
+		if (definitions != null) {
+			for (ProtolockDefinition definition : definitions) {
+				// First entry wins, as with a linear search
+				if (index.putIfAbsent(normalizeProtopath(definition.getProtopath()), definition.getFile()) == null && definition.getFile() != null) {
+					definition.getFile().index();
+				}
+			}
+		}
+		filesByPath = index;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (reader != null) {
+			reader.close();
+		}
+	}
+
+	static String normalizeProtopath(String protopath) {
+		return protopath.replace(":/:", "/");
+	}
 }
@@ -0,0 +1,176 @@
+/*-
+ * #%L
+ * schema2proto-lib
+ * %%
+ * Copyright (C) 2019 - 2020 Entur
+ * %%
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl5
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * #L%
+ */
+package no.entur.schema2proto.compatibility.protolock;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
+
+/**
+ * Reads a proto.lock file incrementally. The constructor streams through the file once and records the position of each definition by protopath, skipping the
+ * definitions themselves. A {@link ProtolockFile} is only deserialized when it is first looked up.
+ *
+ * <p>
+ * Lookups continue reading from where the previous one stopped, so looking up files in the order they appear in the lock file reads the file once. Looking up
+ * an earlier definition reopens the file.
+ */
+class ProtolockDefinitionsReader implements ProtolockSource {
+
+	private static final String DEFINITIONS = "definitions";
+	private static final String PROTOPATH = "protopath";
+	private static final String DEF = "def";
+
+	private final File protoLockFile;
+	private final Gson gson = new Gson();
+
+	private final Map<String, Integer> ordinalsByPath;
+	private final Map<Integer, ProtolockFile> filesByOrdinal = new HashMap<>();
+
+	private JsonReader cursor;
+	private int cursorOrdinal;
+
+	ProtolockDefinitionsReader(File protoLockFile) throws IOException {
+		this.protoLockFile = protoLockFile;
+		this.ordinalsByPath = indexProtopaths();
+	}
+
+	private Map<String, Integer> indexProtopaths() throws IOException {
+		Map<String, Integer> index = new HashMap<>();
+		try (JsonReader reader = openDefinitions()) {
+			if (reader == null) {
+				return index;
+			}
+			for (int ordinal = 0; reader.hasNext(); ordinal++) {
+				String protopath = null;
+				reader.beginObject();
+				while (reader.hasNext()) {
+					if (PROTOPATH.equals(reader.nextName())) {
+						protopath = reader.nextString();
+					} else {
+						reader.skipValue();
+					}
+				}
+				reader.endObject();
+
+				if (protopath != null) {
+					// First entry wins, as with a linear search
+					index.putIfAbsent(ProtolockDefinitions.normalizeProtopath(protopath), ordinal);
+				}
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * Open the lock file and position the reader at the first element of the definitions array, or return null if there is no such array.
+	 */
+	private JsonReader openDefinitions() throws IOException {
+		JsonReader reader = new JsonReader(new FileReader(protoLockFile));
+		try {
+			reader.beginObject();
+			while (reader.hasNext()) {
+				if (DEFINITIONS.equals(reader.nextName())) {
+					reader.beginArray();
+					return reader;
+				}
+				reader.skipValue();
+			}
+		} catch (IOException | RuntimeException e) {
+			reader.close();
+			throw e;
+		}
+		reader.close();
+		return null;
+	}
+
+	@Override
+	public synchronized ProtolockFile getFile(String path) {
+		Integer ordinal = ordinalsByPath.get(path);
+		if (ordinal == null) {
+			return null;
+		}
+		if (!filesByOrdinal.containsKey(ordinal)) {
+			try {
+				filesByOrdinal.put(ordinal, readFile(ordinal));
+			} catch (IOException e) {
+				throw new UncheckedIOException("Could not read definition of " + path + " from " + protoLockFile, e);
+			}
+		}
+		return filesByOrdinal.get(ordinal);
+	}
+
+	private ProtolockFile readFile(int ordinal) throws IOException {
+		if (cursor == null || ordinal < cursorOrdinal) {
+			close();
+			cursor = openDefinitions();
+			cursorOrdinal = 0;
+		}
+		while (cursorOrdinal < ordinal) {
+			cursor.skipValue();
+			cursorOrdinal++;
+		}
+
+		ProtolockFile file = null;
+		cursor.beginObject();
+		while (cursor.hasNext()) {
+			if (DEF.equals(cursor.nextName())) {
+				file = gson.fromJson(cursor, ProtolockFile.class);
+			} else {
+				cursor.skipValue();
+			}
+		}
+		cursor.endObject();
+		cursorOrdinal++;
+
+		if (file != null) {
+			file.index();
+		}
+		return file;
+	}
+
+	@Override
+	public ProtolockDefinition[] readAll() throws IOException {
+		try (FileReader reader = new FileReader(protoLockFile)) {
+			ProtolockDefinitions definitions = gson.fromJson(reader, ProtolockDefinitions.class);
+			return definitions != null ? definitions.getDefinitions() : null;
+		}
+	}
+
+	/**
+	 * Release the underlying file. Later lookups reopen it if needed.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (cursor != null) {
+			JsonReader toClose = cursor;
+			cursor = null;
+			toClose.close();
+		}
+	}
+}
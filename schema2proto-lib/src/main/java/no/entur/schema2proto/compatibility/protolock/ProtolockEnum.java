@@ -34,9 +34,9 @@ public class ProtolockEnum extends AbstractProtolockTypeEntry {
 		return enumFields;
 	}
 
-	private String name;
+	String name;
 
 	@SerializedName("enum_fields")
-	private ProtolockEnumConstant[] enumFields;
+	ProtolockEnumConstant[] enumFields;
 
 }
@@ -27,12 +27,18 @@ import java.util.Objects;
 public class ProtolockField extends AbstractNameIDPair {
 	private String name;
 	private int id;
+	private String type;
 
 	public ProtolockField(int tag, String name) {
 		this.id = tag;
 		this.name = name;
 	}
 
+	public ProtolockField(int tag, String name, String type) {
+		this(tag, name);
+		this.type = type;
+	}
+
 	public String getName() {
 		return name;
 	}
@@ -41,6 +47,13 @@ public class ProtolockField extends AbstractNameIDPair {
 		return id;
 	}
 
+	/**
+	 * The field type as written in the proto file, or null if not known. Not part of equality.
+	 */
+	public String getType() {
+		return type;
+	}
+
 	@Override
 	public boolean equals(Object o) {
 		if (this == o) {
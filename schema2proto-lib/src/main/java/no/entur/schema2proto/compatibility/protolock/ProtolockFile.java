@@ -22,13 +22,16 @@
  */
 package no.entur.schema2proto.compatibility.protolock;
 
-import java.util.Arrays;
+import java.util.Map;
 import java.util.Optional;
 
 public class ProtolockFile {
 	ProtolockEnum[] enums;
 	ProtolockMessage[] messages;
 
+	private transient Map<String, ProtolockMessage> messagesByName;
+	private transient Map<String, ProtolockEnum> enumsByName;
+
 	public ProtolockEnum[] getEnums() {
 		return enums;
 	}
@@ -38,6 +41,24 @@ public class ProtolockFile {
 	}
 
 	public Optional<ProtolockMessage> getMessage(String name) {
-		return Arrays.stream(messages).filter(e -> name.equals(e.getName())).findAny();
+		if (messagesByName == null) {
+			index();
+		}
+		return Optional.ofNullable(messagesByName.get(name));
+	}
+
+	public Optional<ProtolockEnum> getEnum(String name) {
+		if (enumsByName == null) {
+			index();
+		}
+		return Optional.ofNullable(enumsByName.get(name));
+	}
+
+	/**
+	 * Index messages and enums by name, recursively.
+	 */
+	public void index() {
+		messagesByName = ProtolockMessage.indexMessages(messages);
+		enumsByName = ProtolockMessage.indexEnums(enums);
 	}
 }
@@ -22,12 +22,20 @@
  */
 package no.entur.schema2proto.compatibility.protolock;
 
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
 public class ProtolockMessage extends AbstractProtolockTypeEntry {
 	String name;
 	ProtolockField[] fields;
 	ProtolockMessage[] messages;
 	ProtolockEnum[] enums;
 
+	private transient Map<String, ProtolockMessage> messagesByName;
+	private transient Map<String, ProtolockEnum> enumsByName;
+
 	public ProtolockEnum[] getEnums() {
 		return enums;
 	}
@@ -44,4 +52,47 @@ public class ProtolockMessage extends AbstractProtolockTypeEntry {
 		return fields;
 	}
 
+	public Optional<ProtolockMessage> getMessage(String name) {
+		if (messagesByName == null) {
+			index();
+		}
+		return Optional.ofNullable(messagesByName.get(name));
+	}
+
+	public Optional<ProtolockEnum> getEnum(String name) {
+		if (enumsByName == null) {
+			index();
+		}
+		return Optional.ofNullable(enumsByName.get(name));
+	}
+
+	void index() {
+		messagesByName = indexMessages(messages);
+		enumsByName = indexEnums(enums);
+	}
+
+	static Map<String, ProtolockMessage> indexMessages(ProtolockMessage[] messages) {
+		if (messages == null) {
+			return Collections.emptyMap();
+		}
+		Map<String, ProtolockMessage> messagesByName = new HashMap<>();
+		for (ProtolockMessage message : messages) {
+			// First entry wins, as with a linear search
+			messagesByName.putIfAbsent(message.getName(), message);
+			message.index();
+		}
+		return messagesByName;
+	}
+
+	static Map<String, ProtolockEnum> indexEnums(ProtolockEnum[] enums) {
+		if (enums == null) {
+			return Collections.emptyMap();
+		}
+		Map<String, ProtolockEnum> enumsByName = new HashMap<>();
+		for (ProtolockEnum protolockEnum : enums) {
+			enumsByName.putIfAbsent(protolockEnum.getName(), protolockEnum);
+		}
+		return enumsByName;
+	}
+
 }
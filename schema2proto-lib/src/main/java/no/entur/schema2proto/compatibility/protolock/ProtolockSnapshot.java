@@ -0,0 +1,275 @@
+/*-
+ * #%L
+ * schema2proto-lib
+ * %%
+ * Copyright (C) 2019 - 2020 Entur
+ * %%
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl5
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * #L%
+ */
+package no.entur.schema2proto.compatibility.protolock;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.function.Function;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+/**
+ * A compact binary alternative to the protolock JSON format, holding what the backwards compatibility check needs: per message field tags, names and types,
+ * reserved ids and names, nested messages and enums with their constants. Imports, options and services are not kept.
+ *
+ * <p>
+ * Layout, with all numbers as unsigned varints unless noted:
+ * <ul>
+ * <li>magic bytes "S2PL" and format version</li>
+ * <li>string table: count, then UTF-8 length and bytes of each string. Names below are indexes into this table</li>
+ * <li>file index: count, then protopath and data offset of each file, sorted by path for binary search</li>
+ * <li>file data: enums and messages, each sorted by name. Fields and enum constants are sorted by tag, reserved ids are coalesced into sorted ranges. Enum
+ * values are zigzag encoded</li>
+ * </ul>
+ * Snapshots are read with a memory mapped buffer, and files are decoded when they are looked up. Use {@link ProtolockDefinitions#open(File)} to read either
+ * format.
+ */
+public class ProtolockSnapshot {
+
+	static final byte[] MAGIC = { 'S', '2', 'P', 'L' };
+	static final int VERSION = 1;
+
+	private ProtolockSnapshot() {
+	}
+
+	/**
+	 * Check if a file starts with the snapshot magic bytes.
+	 */
+	public static boolean isSnapshot(File file) throws IOException {
+		byte[] header = new byte[MAGIC.length];
+		try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+			in.readFully(header);
+		} catch (EOFException e) {
+			return false;
+		}
+		return Arrays.equals(MAGIC, header);
+	}
+
+	/**
+	 * Convert a lock file, in either format, to a snapshot.
+	 */
+	public static void toSnapshot(File protoLockFile, File snapshotFile) throws IOException {
+		try (ProtolockDefinitions definitions = ProtolockDefinitions.open(protoLockFile)) {
+			try (OutputStream out = Files.newOutputStream(snapshotFile.toPath())) {
+				write(definitions, out);
+			}
+		}
+	}
+
+	/**
+	 * Convert a lock file, in either format, to protolock JSON.
+	 */
+	public static void toJson(File protoLockFile, File jsonFile) throws IOException {
+		try (ProtolockDefinitions definitions = ProtolockDefinitions.open(protoLockFile)) {
+			try (Writer writer = Files.newBufferedWriter(jsonFile.toPath(), StandardCharsets.UTF_8)) {
+				writeJson(definitions, writer);
+			}
+		}
+	}
+
+	public static void writeJson(ProtolockDefinitions definitions, Writer writer) {
+		Gson gson = new GsonBuilder().setPrettyPrinting().create();
+		gson.toJson(new ProtolockDefinitions(definitions.getDefinitions()), writer);
+	}
+
+	public static void write(ProtolockDefinitions definitions, OutputStream out) throws IOException {
+		List<ProtolockDefinition> sorted = new ArrayList<>();
+		if (definitions.getDefinitions() != null) {
+			sorted.addAll(Arrays.asList(definitions.getDefinitions()));
+		}
+		sorted.sort(Comparator.comparing(definition -> ProtolockDefinitions.normalizeProtopath(definition.getProtopath())));
+
+		Encoder data = new Encoder();
+		List<Integer> offsets = new ArrayList<>();
+		for (ProtolockDefinition definition : sorted) {
+			offsets.add(data.size());
+			data.writeFile(definition.getFile());
+		}
+
+		Encoder header = new Encoder();
+		header.write(MAGIC, 0, MAGIC.length);
+		header.writeVarint(VERSION);
+		int[] pathIndexes = new int[sorted.size()];
+		for (int i = 0; i < sorted.size(); i++) {
+			pathIndexes[i] = data.string(sorted.get(i).getProtopath());
+		}
+
+		header.writeVarint(data.strings.size());
+		for (String string : data.strings.keySet()) {
+			byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+			header.writeVarint(bytes.length);
+			header.write(bytes, 0, bytes.length);
+		}
+
+		header.writeVarint(sorted.size());
+		for (int i = 0; i < sorted.size(); i++) {
+			header.writeVarint(pathIndexes[i]);
+			header.writeVarint(offsets.get(i));
+		}
+
+		header.writeTo(out);
+		data.writeTo(out);
+	}
+
+	private static class Encoder extends ByteArrayOutputStream {
+		private final Map<String, Integer> strings = new LinkedHashMap<>();
+
+		int string(String value) {
+			return strings.computeIfAbsent(value, k -> strings.size());
+		}
+
+		void writeVarint(int value) {
+			while ((value & ~0x7F) != 0) {
+				write((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			write(value);
+		}
+
+		void writeSignedVarint(int value) {
+			writeVarint((value << 1) ^ (value >> 31));
+		}
+
+		void writeString(String value) {
+			writeVarint(string(value));
+		}
+
+		void writeOptionalString(String value) {
+			writeVarint(value == null ? 0 : string(value) + 1);
+		}
+
+		void writeFile(ProtolockFile file) {
+			if (file == null) {
+				writeVarint(0);
+				return;
+			}
+			writeVarint(1);
+			writeEnums(file.getEnums());
+			writeMessages(file.getMessages());
+		}
+
+		void writeMessages(ProtolockMessage[] messages) {
+			List<ProtolockMessage> sorted = sortedByName(messages, ProtolockMessage::getName);
+			writeVarint(sorted.size());
+			for (ProtolockMessage message : sorted) {
+				writeString(message.getName());
+
+				List<ProtolockField> fields = sorted(message.getFields());
+				writeVarint(fields.size());
+				for (ProtolockField field : fields) {
+					writeVarint(field.getId());
+					writeString(field.getName());
+					writeOptionalString(field.getType());
+				}
+
+				writeReservations(message, false);
+				writeMessages(message.getMessages());
+				writeEnums(message.getEnums());
+			}
+		}
+
+		void writeEnums(ProtolockEnum[] enums) {
+			List<ProtolockEnum> sorted = sortedByName(enums, ProtolockEnum::getName);
+			writeVarint(sorted.size());
+			for (ProtolockEnum protolockEnum : sorted) {
+				writeString(protolockEnum.getName());
+
+				List<ProtolockEnumConstant> constants = sorted(protolockEnum.getEnumFields());
+				writeVarint(constants.size());
+				for (ProtolockEnumConstant constant : constants) {
+					writeSignedVarint(constant.getId());
+					writeString(constant.getName());
+				}
+
+				writeReservations(protolockEnum, true);
+			}
+		}
+
+		void writeReservations(AbstractProtolockTypeEntry entry, boolean signed) {
+			List<int[]> ranges = new ArrayList<>();
+			if (entry.getReservedIds() != null) {
+				for (int id : new TreeSet<>(Arrays.asList(entry.getReservedIds()))) {
+					int[] last = ranges.isEmpty() ? null : ranges.get(ranges.size() - 1);
+					if (last != null && last[1] + 1 == id) {
+						last[1] = id;
+					} else {
+						ranges.add(new int[] { id, id });
+					}
+				}
+			}
+			writeVarint(ranges.size());
+			for (int[] range : ranges) {
+				if (signed) {
+					writeSignedVarint(range[0]);
+				} else {
+					writeVarint(range[0]);
+				}
+				writeVarint(range[1] - range[0]);
+			}
+
+			TreeSet<String> names = new TreeSet<>();
+			if (entry.getReservedNames() != null) {
+				names.addAll(Arrays.asList(entry.getReservedNames()));
+			}
+			writeVarint(names.size());
+			for (String name : names) {
+				writeString(name);
+			}
+		}
+
+		private static <T extends AbstractNameIDPair> List<T> sorted(T[] values) {
+			List<T> sorted = new ArrayList<>();
+			if (values != null) {
+				sorted.addAll(Arrays.asList(values));
+			}
+			sorted.sort(null);
+			return sorted;
+		}
+
+		private static <T> List<T> sortedByName(T[] values, Function<T, String> name) {
+			List<T> sorted = new ArrayList<>();
+			if (values != null) {
+				sorted.addAll(Arrays.asList(values));
+			}
+			// Stable, so that the first of several entries with the same name stays first
+			sorted.sort(Comparator.comparing(name));
+			return sorted;
+		}
+	}
+}
@@ -0,0 +1,254 @@
+/*-
+ * #%L
+ * schema2proto-lib
+ * %%
+ * Copyright (C) 2019 - 2020 Entur
+ * %%
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl5
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * #L%
+ */
+package no.entur.schema2proto.compatibility.protolock;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads a {@link ProtolockSnapshot} from a memory mapped buffer. Only the string offsets and the file index are read when opening; strings and files are
+ * decoded when they are first needed.
+ */
+class ProtolockSnapshotReader implements ProtolockSource {
+
+	private final ByteBuffer buffer;
+
+	private final int[] stringOffsets;
+	private final int[] stringLengths;
+	private final String[] strings;
+
+	// Sorted by normalized path
+	private final String[] paths;
+	private final int[] protopathIndexes;
+	private final int[] fileOffsets;
+	private final ProtolockFile[] files;
+	private final boolean[] decoded;
+
+	ProtolockSnapshotReader(File snapshotFile) throws IOException {
+		try (FileChannel channel = FileChannel.open(snapshotFile.toPath(), StandardOpenOption.READ)) {
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+
+		byte[] magic = new byte[ProtolockSnapshot.MAGIC.length];
+		buffer.get(magic);
+		if (!Arrays.equals(ProtolockSnapshot.MAGIC, magic)) {
+			throw new IOException("Not a proto.lock snapshot: " + snapshotFile);
+		}
+		int version = readVarint(buffer);
+		if (version != ProtolockSnapshot.VERSION) {
+			throw new IOException("Unsupported proto.lock snapshot version " + version + " in " + snapshotFile);
+		}
+
+		int stringCount = readVarint(buffer);
+		stringOffsets = new int[stringCount];
+		stringLengths = new int[stringCount];
+		strings = new String[stringCount];
+		for (int i = 0; i < stringCount; i++) {
+			int length = readVarint(buffer);
+			stringOffsets[i] = buffer.position();
+			stringLengths[i] = length;
+			buffer.position(buffer.position() + length);
+		}
+
+		int fileCount = readVarint(buffer);
+		paths = new String[fileCount];
+		protopathIndexes = new int[fileCount];
+		fileOffsets = new int[fileCount];
+		for (int i = 0; i < fileCount; i++) {
+			protopathIndexes[i] = readVarint(buffer);
+			paths[i] = ProtolockDefinitions.normalizeProtopath(string(protopathIndexes[i]));
+			fileOffsets[i] = readVarint(buffer);
+		}
+		int dataStart = buffer.position();
+		for (int i = 0; i < fileCount; i++) {
+			fileOffsets[i] += dataStart;
+		}
+		files = new ProtolockFile[fileCount];
+		decoded = new boolean[fileCount];
+	}
+
+	@Override
+	public synchronized ProtolockFile getFile(String path) {
+		int index = Arrays.binarySearch(paths, path);
+		if (index < 0) {
+			return null;
+		}
+		// First entry wins, as with a linear search
+		while (index > 0 && paths[index - 1].equals(path)) {
+			index--;
+		}
+		return file(index);
+	}
+
+	@Override
+	public synchronized ProtolockDefinition[] readAll() {
+		ProtolockDefinition[] definitions = new ProtolockDefinition[paths.length];
+		for (int i = 0; i < paths.length; i++) {
+			ProtolockDefinition definition = new ProtolockDefinition();
+			definition.protopath = string(protopathIndexes[i]);
+			definition.file = file(i);
+			definitions[i] = definition;
+		}
+		return definitions;
+	}
+
+	@Override
+	public void close() {
+		// Mapped buffers are released when garbage collected
+	}
+
+	private ProtolockFile file(int index) {
+		if (!decoded[index]) {
+			ByteBuffer in = buffer.duplicate();
+			in.position(fileOffsets[index]);
+			files[index] = readFile(in);
+			decoded[index] = true;
+		}
+		return files[index];
+	}
+
+	private ProtolockFile readFile(ByteBuffer in) {
+		if (readVarint(in) == 0) {
+			return null;
+		}
+		ProtolockFile file = new ProtolockFile();
+		file.enums = readEnums(in);
+		file.messages = readMessages(in);
+		file.index();
+		return file;
+	}
+
+	private ProtolockMessage[] readMessages(ByteBuffer in) {
+		int count = readVarint(in);
+		if (count == 0) {
+			return null;
+		}
+		ProtolockMessage[] messages = new ProtolockMessage[count];
+		for (int i = 0; i < count; i++) {
+			ProtolockMessage message = new ProtolockMessage();
+			message.name = string(readVarint(in));
+
+			int fieldCount = readVarint(in);
+			if (fieldCount > 0) {
+				message.fields = new ProtolockField[fieldCount];
+				for (int j = 0; j < fieldCount; j++) {
+					int id = readVarint(in);
+					String name = string(readVarint(in));
+					int type = readVarint(in);
+					message.fields[j] = new ProtolockField(id, name, type == 0 ? null : string(type - 1));
+				}
+			}
+
+			readReservations(in, message, false);
+			message.messages = readMessages(in);
+			message.enums = readEnums(in);
+			messages[i] = message;
+		}
+		return messages;
+	}
+
+	private ProtolockEnum[] readEnums(ByteBuffer in) {
+		int count = readVarint(in);
+		if (count == 0) {
+			return null;
+		}
+		ProtolockEnum[] enums = new ProtolockEnum[count];
+		for (int i = 0; i < count; i++) {
+			ProtolockEnum protolockEnum = new ProtolockEnum();
+			protolockEnum.name = string(readVarint(in));
+
+			int constantCount = readVarint(in);
+			if (constantCount > 0) {
+				protolockEnum.enumFields = new ProtolockEnumConstant[constantCount];
+				for (int j = 0; j < constantCount; j++) {
+					int id = readSignedVarint(in);
+					protolockEnum.enumFields[j] = new ProtolockEnumConstant(id, string(readVarint(in)));
+				}
+			}
+
+			readReservations(in, protolockEnum, true);
+			enums[i] = protolockEnum;
+		}
+		return enums;
+	}
+
+	private void readReservations(ByteBuffer in, AbstractProtolockTypeEntry entry, boolean signed) {
+		int rangeCount = readVarint(in);
+		if (rangeCount > 0) {
+			List<Integer> ids = new ArrayList<>();
+			for (int i = 0; i < rangeCount; i++) {
+				int start = signed ? readSignedVarint(in) : readVarint(in);
+				int length = readVarint(in);
+				for (int id = start; id <= start + length; id++) {
+					ids.add(id);
+				}
+			}
+			entry.reservedIds = ids.toArray(new Integer[0]);
+		}
+
+		int nameCount = readVarint(in);
+		if (nameCount > 0) {
+			entry.reservedNames = new String[nameCount];
+			for (int i = 0; i < nameCount; i++) {
+				entry.reservedNames[i] = string(readVarint(in));
+			}
+		}
+	}
+
+	private String string(int index) {
+		String string = strings[index];
+		if (string == null) {
+			ByteBuffer in = buffer.duplicate();
+			in.position(stringOffsets[index]);
+			byte[] bytes = new byte[stringLengths[index]];
+			in.get(bytes);
+			string = new String(bytes, StandardCharsets.UTF_8);
+			strings[index] = string;
+		}
+		return string;
+	}
+
+	private static int readVarint(ByteBuffer in) {
+		int value = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			byte b = in.get();
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IllegalStateException("Malformed varint in proto.lock snapshot");
+	}
+
+	private static int readSignedVarint(ByteBuffer in) {
+		int value = readVarint(in);
+		return (value >>> 1) ^ -(value & 1);
+	}
+}
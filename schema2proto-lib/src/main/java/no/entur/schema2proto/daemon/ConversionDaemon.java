@@ -0,0 +1,354 @@
+/*-
+ * #%L
+ * schema2proto-lib
+ * %%
+ * Copyright (C) 2019 - 2020 Entur
+ * %%
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl5
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * #L%
+ */
+package no.entur.schema2proto.daemon;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import no.entur.schema2proto.generateproto.Schema2Proto;
+
+/**
+ * Keeps a JVM with schema2proto loaded and warmed up, and runs conversions on behalf of {@link ConversionDaemonClient}. The daemon only listens on the loopback
+ * interface. Each request carries the same arguments as {@link Schema2Proto#main(String[])}; console output and logging from the conversion is streamed back to
+ * the client, followed by the exit status.
+ *
+ * <p>
+ * Other users on the same host can reach the loopback interface too. On start the daemon therefore writes a random token to a file only the user running it can
+ * read, {@code ~/.schema2proto/daemon-PORT.token}, and rejects requests that do not start with that token.
+ *
+ * <p>
+ * Relative paths, both on the command line and in config files, are resolved against the working directory of the daemon, so requests from clients running in
+ * another directory are rejected.
+ *
+ * <p>
+ * Output is routed to the client per thread: {@link System#out} and {@link System#err} are replaced while the daemon runs, and write to the client of the
+ * request handled by the current thread. Output from other threads goes to the console of the daemon and is not seen by the client. This includes the thread
+ * pool of {@link Schema2Proto#convertAll(java.util.List, int)} when several config files are given, and the fork/join workers used by the parallelNamespaces
+ * option and the proto.lock check. Routes are not passed on to such threads, as pool threads outlive the request and may later work for another request.
+ */
+public class ConversionDaemon implements Closeable {
+
+	public static final int DEFAULT_PORT = 7337;
+
+	/** Directory of the token files, one per port. */
+	public static final File DEFAULT_TOKEN_DIRECTORY = new File(System.getProperty("user.home"), ".schema2proto");
+
+	// Frame types sent to the client. The accepted frame answers a valid token, output frames are followed by length and bytes, the exit frame by the exit
+	// status.
+	static final byte FRAME_ACCEPTED = 'A';
+	static final byte FRAME_STDOUT = 'O';
+	static final byte FRAME_STDERR = 'E';
+	static final byte FRAME_EXIT = 'X';
+
+	// Exit status of requests without a valid token
+	static final int EXIT_UNAUTHORIZED = 3;
+
+	// Requests handled at the same time, further connections wait for a free thread
+	static final int MAX_CONCURRENT_REQUESTS = 8;
+
+	// Time allowed for the client to send the token and request, so idle connections do not hold a thread
+	static final int REQUEST_READ_TIMEOUT_MILLIS = 10_000;
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ConversionDaemon.class);
+
+	private final RoutingOutputStream stdout = new RoutingOutputStream(System.out);
+	private final RoutingOutputStream stderr = new RoutingOutputStream(System.err);
+	private final File workingDirectory = new File("").getAbsoluteFile();
+	private final ServerSocket serverSocket;
+	private final byte[] token;
+	private final File tokenFile;
+
+	/**
+	 * Bind to {@code port} on the loopback interface. Use port 0 to bind to any free port.
+	 */
+	public ConversionDaemon(int port) throws IOException {
+		this(port, DEFAULT_TOKEN_DIRECTORY);
+	}
+
+	/**
+	 * Bind to {@code port} on the loopback interface and write the token to {@code tokenDirectory}.
+	 */
+	public ConversionDaemon(int port, File tokenDirectory) throws IOException {
+		serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+		try {
+			byte[] randomBytes = new byte[32];
+			new SecureRandom().nextBytes(randomBytes);
+			String tokenText = Base64.getUrlEncoder().withoutPadding().encodeToString(randomBytes);
+			token = tokenText.getBytes(StandardCharsets.UTF_8);
+			tokenFile = tokenFile(tokenDirectory, getPort());
+			writeOwnerOnly(tokenFile.toPath(), token);
+		} catch (IOException | RuntimeException e) {
+			serverSocket.close();
+			throw e;
+		}
+	}
+
+	static File tokenFile(File tokenDirectory, int port) {
+		return new File(tokenDirectory, "daemon-" + port + ".token");
+	}
+
+	private static void writeOwnerOnly(Path file, byte[] content) throws IOException {
+		boolean posix = file.getFileSystem().supportedFileAttributeViews().contains("posix");
+		if (posix) {
+			Files.createDirectories(file.getParent(), PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+		} else {
+			Files.createDirectories(file.getParent());
+		}
+
+		// A file left by a daemon that was killed may have other permissions, create it anew
+		Files.deleteIfExists(file);
+		Set<StandardOpenOption> openOptions = EnumSet.of(StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+		try (SeekableByteChannel channel = posix
+				? Files.newByteChannel(file, openOptions, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")))
+				: Files.newByteChannel(file, openOptions)) {
+			channel.write(ByteBuffer.wrap(content));
+		}
+	}
+
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	/**
+	 * Serve requests until {@link #close()} is called. Up to {@link #MAX_CONCURRENT_REQUESTS} requests are handled concurrently.
+	 */
+	public void run() throws IOException {
+		PrintStream originalOut = System.out;
+		PrintStream originalErr = System.err;
+		System.setOut(new PrintStream(stdout, true));
+		System.setErr(new PrintStream(stderr, true));
+
+		LOGGER.info("Listening for conversion requests on {}", serverSocket.getLocalSocketAddress());
+		ExecutorService executor = Executors.newFixedThreadPool(MAX_CONCURRENT_REQUESTS);
+		try {
+			while (!serverSocket.isClosed()) {
+				Socket socket;
+				try {
+					socket = serverSocket.accept();
+				} catch (SocketException e) {
+					if (serverSocket.isClosed()) {
+						break;
+					}
+					throw e;
+				}
+				executor.execute(() -> handle(socket));
+			}
+		} finally {
+			executor.shutdown();
+			System.setOut(originalOut);
+			System.setErr(originalErr);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			serverSocket.close();
+		} finally {
+			Files.deleteIfExists(tokenFile.toPath());
+		}
+	}
+
+	private void handle(Socket socket) {
+		try (Socket s = socket;
+				DataInputStream in = new DataInputStream(s.getInputStream());
+				DataOutputStream out = new DataOutputStream(s.getOutputStream())) {
+			s.setSoTimeout(REQUEST_READ_TIMEOUT_MILLIS);
+			int tokenLength = in.readInt();
+			if (tokenLength != token.length) {
+				reject(out);
+				return;
+			}
+			byte[] clientToken = new byte[tokenLength];
+			in.readFully(clientToken);
+			if (!MessageDigest.isEqual(token, clientToken)) {
+				reject(out);
+				return;
+			}
+			out.writeByte(FRAME_ACCEPTED);
+			out.flush();
+
+			String clientWorkingDirectory = in.readUTF();
+			String[] args = new String[in.readInt()];
+			for (int i = 0; i < args.length; i++) {
+				args[i] = in.readUTF();
+			}
+
+			int exitStatus;
+			stdout.route(new FrameOutputStream(out, FRAME_STDOUT));
+			stderr.route(new FrameOutputStream(out, FRAME_STDERR));
+			try {
+				exitStatus = convert(clientWorkingDirectory, args);
+			} finally {
+				System.out.flush();
+				System.err.flush();
+				stdout.route(null);
+				stderr.route(null);
+			}
+
+			synchronized (out) {
+				out.writeByte(FRAME_EXIT);
+				out.writeInt(exitStatus);
+				out.flush();
+			}
+		} catch (IOException e) {
+			LOGGER.warn("Error handling conversion request: {}", e.getMessage());
+		}
+	}
+
+	private void reject(DataOutputStream out) throws IOException {
+		LOGGER.warn("Rejected conversion request without a valid token");
+		byte[] message = ("Request rejected, the token does not match " + tokenFile + "\n").getBytes(StandardCharsets.UTF_8);
+		out.writeByte(FRAME_STDERR);
+		out.writeInt(message.length);
+		out.write(message);
+		out.writeByte(FRAME_EXIT);
+		out.writeInt(EXIT_UNAUTHORIZED);
+		out.flush();
+	}
+
+	private int convert(String clientWorkingDirectory, String[] args) {
+		if (!workingDirectory.equals(new File(clientWorkingDirectory))) {
+			LOGGER.error("Daemon runs in {}, but the request was made from {}. Start the daemon in the directory the conversion is run from", workingDirectory,
+					clientWorkingDirectory);
+			return 2;
+		}
+
+		long start = System.nanoTime();
+		try {
+			new Schema2Proto(args);
+			LOGGER.info("Conversion completed in {} ms", (System.nanoTime() - start) / 1_000_000);
+			return 0;
+		} catch (Exception e) {
+			LOGGER.error("Error processing proto files: {}", e.getMessage(), e);
+			return 1;
+		}
+	}
+
+	public static void main(String[] args) {
+		try {
+			new ConversionDaemon(args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT).run();
+		} catch (Exception e) {
+			LOGGER.error("Error running conversion daemon: {}", e.getMessage(), e);
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Writes to the stream routed for the current thread, or to the original stream for threads not handling a request. Routes are not inherited by threads
+	 * started while handling a request.
+	 */
+	private static class RoutingOutputStream extends OutputStream {
+		private final OutputStream fallback;
+		private final ThreadLocal<OutputStream> target = new ThreadLocal<>();
+
+		RoutingOutputStream(OutputStream fallback) {
+			this.fallback = fallback;
+		}
+
+		void route(OutputStream out) {
+			if (out == null) {
+				target.remove();
+			} else {
+				target.set(out);
+			}
+		}
+
+		private OutputStream current() {
+			OutputStream out = target.get();
+			return out != null ? out : fallback;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			current().write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			current().write(b, off, len);
+		}
+
+		@Override
+		public void flush() throws IOException {
+			current().flush();
+		}
+	}
+
+	private static class FrameOutputStream extends OutputStream {
+		private final DataOutputStream out;
+		private final byte frameType;
+
+		FrameOutputStream(DataOutputStream out, byte frameType) {
+			this.out = out;
+			this.frameType = frameType;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			synchronized (out) {
+				out.writeByte(frameType);
+				out.writeInt(len);
+				out.write(b, off, len);
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			synchronized (out) {
+				out.flush();
+			}
+		}
+	}
+}
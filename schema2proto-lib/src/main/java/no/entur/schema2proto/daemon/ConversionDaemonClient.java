@@ -0,0 +1,111 @@
+/*-
+ * #%L
+ * schema2proto-lib
+ * %%
+ * Copyright (C) 2019 - 2020 Entur
+ * %%
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl5
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * #L%
+ */
+package no.entur.schema2proto.daemon;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/**
+ * Sends a conversion request to a running {@link ConversionDaemon} and prints its output. Takes the same arguments as the standalone tool, optionally preceded
+ * by {@code --port PORT}, and exits with the exit status of the conversion. The request starts with the token the daemon wrote to its token file.
+ *
+ * <p>
+ * Deliberately only uses the JDK, so that starting the client does not load the conversion code.
+ */
+public class ConversionDaemonClient {
+
+	public static int send(int port, String[] args, PrintStream stdout, PrintStream stderr) throws IOException {
+		return send(port, ConversionDaemon.DEFAULT_TOKEN_DIRECTORY, args, stdout, stderr);
+	}
+
+	public static int send(int port, File tokenDirectory, String[] args, PrintStream stdout, PrintStream stderr) throws IOException {
+		File tokenFile = ConversionDaemon.tokenFile(tokenDirectory, port);
+		if (!tokenFile.exists()) {
+			throw new IOException("Token file " + tokenFile + " not found, is the daemon running?");
+		}
+		byte[] token = Files.readAllBytes(tokenFile.toPath());
+
+		try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+				DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+				DataInputStream in = new DataInputStream(socket.getInputStream())) {
+			out.writeInt(token.length);
+			out.write(token);
+			out.flush();
+
+			boolean accepted = false;
+			while (true) {
+				byte frameType;
+				try {
+					frameType = in.readByte();
+				} catch (EOFException e) {
+					throw new IOException("Daemon closed the connection without an exit status", e);
+				}
+				if (frameType == ConversionDaemon.FRAME_ACCEPTED && !accepted) {
+					accepted = true;
+					writeRequest(out, args);
+				} else if (frameType == ConversionDaemon.FRAME_EXIT) {
+					return in.readInt();
+				} else {
+					byte[] data = new byte[in.readInt()];
+					in.readFully(data);
+					(frameType == ConversionDaemon.FRAME_STDERR ? stderr : stdout).write(data);
+				}
+			}
+		} finally {
+			stdout.flush();
+			stderr.flush();
+		}
+	}
+
+	private static void writeRequest(DataOutputStream out, String[] args) throws IOException {
+		out.writeUTF(new File("").getAbsolutePath());
+		out.writeInt(args.length);
+		for (String arg : args) {
+			out.writeUTF(arg);
+		}
+		out.flush();
+	}
+
+	public static void main(String[] args) {
+		int port = ConversionDaemon.DEFAULT_PORT;
+		if (args.length >= 2 && "--port".equals(args[0])) {
+			port = Integer.parseInt(args[1]);
+			args = Arrays.copyOfRange(args, 2, args.length);
+		}
+
+		try {
+			System.exit(send(port, args, System.out, System.err));
+		} catch (IOException e) {
+			System.err.println("Could not reach conversion daemon on port " + port + ": " + e.getMessage());
+			System.exit(1);
+		}
+	}
+}
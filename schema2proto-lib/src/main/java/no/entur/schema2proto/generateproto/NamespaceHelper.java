@@ -27,9 +27,9 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 import org.apache.commons.lang3.StringUtils;
@@ -40,15 +40,21 @@ import org.slf4j.LoggerFactory;
 import de.slub.urn.URN;
 import de.slub.urn.URNSyntaxError;
 
+/**
+ * Resolves proto package names from xml namespaces. Create one instance per conversion; resolved namespaces are cached in the instance, which may be shared by
+ * threads working on the same conversion.
+ */
 public class NamespaceHelper {
 
 	public static final String XML_SCHEMA_NAMESPACE = "http://www.w3.org/2001/XMLSchema";
 	public static final String PACKAGE_SEPARATOR = ".";
 	public static final String URN_PART_SEPARATOR = ":";
 	private static final Logger LOGGER = LoggerFactory.getLogger(NamespaceHelper.class);
-	private static Map<String, String> NAMESPACE_TO_PACKAGENAME = new HashMap<>();
+	private static final int MAX_CACHED_NAMESPACES = 1000;
+
+	private final Map<String, String> namespaceToPackageName = new ConcurrentHashMap<>();
 
-	public static String xmlNamespaceToProtoPackage(String namespace, String forceProtoPackage) {
+	public String xmlNamespaceToProtoPackage(String namespace, String forceProtoPackage) {
 
 		String packageName;
 		if (forceProtoPackage != null) {
@@ -56,7 +62,7 @@ public class NamespaceHelper {
 		} else if (StringUtils.trimToNull(namespace) == null) {
 			packageName = null;
 		} else {
-			packageName = NAMESPACE_TO_PACKAGENAME.get(namespace);
+			packageName = namespaceToPackageName.get(namespace);
 			if (packageName == null) {
 				try {
 					if ("URN:".equals(namespace.substring(0, 4).toUpperCase())) {
@@ -70,10 +76,13 @@ public class NamespaceHelper {
 				} catch (URNSyntaxError urnSyntaxError) {
 					LOGGER.warn("Unable to create decent package name from XML namespace {}, falling back to {} ", namespace, packageName, urnSyntaxError);
 				}
-			}
-			packageName = StringUtils.trimToNull(packageName).toLowerCase();
+				packageName = StringUtils.trimToNull(packageName).toLowerCase();
 
-			NAMESPACE_TO_PACKAGENAME.put(namespace, packageName);
+				// Conversion only depends on the namespace, so concurrent puts for the same namespace are harmless
+				if (namespaceToPackageName.size() < MAX_CACHED_NAMESPACES) {
+					namespaceToPackageName.put(namespace, packageName);
+				}
+			}
 		}
 
 		return packageName;
@@ -146,7 +155,7 @@ public class NamespaceHelper {
 		return escapedPart;
 	}
 
-	public static String xmlNamespaceToProtoFieldPackagename(String namespace, String forceProtoPackage) {
+	public String xmlNamespaceToProtoFieldPackagename(String namespace, String forceProtoPackage) {
 		String packageName = null;
 
 		if (XML_SCHEMA_NAMESPACE.equals(namespace)) {
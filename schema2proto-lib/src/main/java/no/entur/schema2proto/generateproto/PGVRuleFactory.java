@@ -24,7 +24,9 @@ package no.entur.schema2proto.generateproto;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -48,6 +50,7 @@ public class PGVRuleFactory {
 	private Schema2ProtoConfiguration configuration;
 	private final Set<String> basicTypes;
 	private Map<String, OptionElement> defaultValidationRulesForBasicTypes;
+	private final Map<XSSimpleType, List<OptionElement>> simpleTypeValidationRules = new IdentityHashMap<>();
 	private static final Logger LOGGER = LoggerFactory.getLogger(PGVRuleFactory.class);
 
 	public PGVRuleFactory(Schema2ProtoConfiguration configuration, SchemaParser schemaParser) {
@@ -97,6 +100,10 @@ public class PGVRuleFactory {
 	}
 
 	public List<OptionElement> getValidationRule(XSSimpleType simpleType) {
+		return simpleTypeValidationRules.computeIfAbsent(simpleType, t -> Collections.unmodifiableList(createValidationRule(t)));
+	}
+
+	private List<OptionElement> createValidationRule(XSSimpleType simpleType) {
 
 		List<OptionElement> validationRules = new ArrayList<>();
 		if (configuration.includeValidationRules) {
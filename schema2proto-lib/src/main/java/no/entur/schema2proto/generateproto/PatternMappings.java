@@ -0,0 +1,117 @@
+/*-
+ * #%L
+ * schema2proto-lib
+ * %%
+ * Copyright (C) 2019 - 2020 Entur
+ * %%
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl5
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * #L%
+ */
+package no.entur.schema2proto.generateproto;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Ordered pattern to replacement mappings where the first pattern matching the complete input is applied, compiled for repeated lookups. Patterns that can only
+ * match a single literal string, like {@code ^dateTime$}, are looked up in a map. Other patterns are matched in order, but only those declared before a
+ * matching literal pattern need to be tried. Results are cached per input.
+ */
+class PatternMappings {
+
+	private static final String REGEX_META_CHARACTERS = "\\.[]{}()<>*+-=!?^$|";
+
+	private final Map<String, Integer> literalPositions = new HashMap<>();
+	private final Map<String, String> literalResults = new HashMap<>();
+	private final List<Integer> regexPositions = new ArrayList<>();
+	private final List<Pattern> regexPatterns = new ArrayList<>();
+	private final List<String> regexReplacements = new ArrayList<>();
+
+	private final Map<String, String> results = new ConcurrentHashMap<>();
+
+	PatternMappings(Map<Pattern, String> mappings) {
+		int position = 0;
+		for (Map.Entry<Pattern, String> mapping : mappings.entrySet()) {
+			Pattern pattern = mapping.getKey();
+			String literal = literal(pattern);
+			if (literal != null) {
+				if (!literalPositions.containsKey(literal)) {
+					literalPositions.put(literal, position);
+					// Apply the replacement like a match would, to handle group references
+					literalResults.put(literal, pattern.matcher(literal).replaceAll(mapping.getValue()));
+				}
+			} else {
+				regexPositions.add(position);
+				regexPatterns.add(pattern);
+				regexReplacements.add(mapping.getValue());
+			}
+			position++;
+		}
+	}
+
+	/**
+	 * Returns the input with the replacement of the first matching pattern applied, or the input itself if no pattern matches.
+	 */
+	String apply(String input) {
+		String result = results.get(input);
+		if (result == null) {
+			result = lookup(input);
+			results.put(input, result);
+		}
+		return result;
+	}
+
+	private String lookup(String input) {
+		Integer literalPosition = literalPositions.get(input);
+		for (int i = 0; i < regexPatterns.size(); i++) {
+			if (literalPosition != null && regexPositions.get(i) > literalPosition) {
+				break;
+			}
+			Matcher m = regexPatterns.get(i).matcher(input);
+			if (m.matches()) {
+				return m.replaceAll(regexReplacements.get(i));
+			}
+		}
+		return literalPosition != null ? literalResults.get(input) : input;
+	}
+
+	/**
+	 * Returns the only string matched by the pattern, or null if the pattern uses flags or regex constructs.
+	 */
+	static String literal(Pattern pattern) {
+		if (pattern.flags() != 0) {
+			return null;
+		}
+		String literal = pattern.pattern();
+		if (literal.startsWith("^")) {
+			literal = literal.substring(1);
+		}
+		if (literal.endsWith("$")) {
+			literal = literal.substring(0, literal.length() - 1);
+		}
+		for (int i = 0; i < literal.length(); i++) {
+			if (REGEX_META_CHARACTERS.indexOf(literal.charAt(i)) >= 0) {
+				return null;
+			}
+		}
+		return literal;
+	}
+}
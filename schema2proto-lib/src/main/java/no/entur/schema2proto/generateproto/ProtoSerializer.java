@@ -26,9 +26,9 @@ import static no.entur.schema2proto.generateproto.GoPackageNameHelper.packageNam
 
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -78,14 +78,16 @@ import com.sun.xml.xsom.XSComponent;
 
 import no.entur.schema2proto.InvalidConfigurationException;
 import no.entur.schema2proto.compatibility.BackwardsCompatibilityCheckException;
+import no.entur.schema2proto.compatibility.CompatibilityReport;
 import no.entur.schema2proto.compatibility.ProtolockBackwardsCompatibilityChecker;
+import no.entur.schema2proto.compatibility.ProtolockWriter;
+import no.entur.schema2proto.compatibility.StableFieldNumberAllocator;
 
 public class ProtoSerializer {
 
 	private static final String VALIDATION_PROTO_IMPORT = "validate/validate.proto";
 	private static final String XSDOPTIONS_PROTO_IMPORT = "xsd/xsd.proto";
 	private static final String UNDERSCORE = "_";
-	private static final String DASH = "-";
 	private static final String[] PACKABLE_SCALAR_TYPES = new String[] { "int32", "int64", "uint32", "uint64", "sint32", "sint64", "bool" };
 	private static final Set<String> PACKABLE_SCALAR_TYPES_SET = new HashSet<>(Arrays.asList(PACKABLE_SCALAR_TYPES));
 
@@ -93,18 +95,19 @@ public class ProtoSerializer {
 
 	private TypeAndNameMapper typeAndFieldNameMapper;
 
-	private Set<String> basicTypes = new HashSet<>();
+	private Set<String> basicTypes;
 
 	private Map<String, String> customTypeImportToProtoFile = new HashMap<>();
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(ProtoSerializer.class);
 
 	private ProtolockBackwardsCompatibilityChecker backwardsCompatibilityChecker;
+	private boolean checkBackwardsCompatibility;
 
 	public ProtoSerializer(Schema2ProtoConfiguration configuration, TypeAndNameMapper marshaller) throws InvalidConfigurationException {
 		this.configuration = configuration;
 		this.typeAndFieldNameMapper = marshaller;
-		basicTypes.addAll(TypeRegistry.getBasicTypes());
+		basicTypes = TypeRegistry.getBasicTypes();
 
 		if (configuration.outputDirectory != null) {
 			if (!configuration.outputDirectory.mkdirs() && !configuration.outputDirectory.exists()) {
@@ -114,7 +117,10 @@ public class ProtoSerializer {
 		}
 
 		backwardsCompatibilityChecker = new ProtolockBackwardsCompatibilityChecker();
-		if (configuration.protoLockFile != null) {
+		if (configuration.protoLockFile != null && configuration.updateProtoLockFile && !configuration.protoLockFile.exists()) {
+			LOGGER.info("No proto.lock file found at {}, skipping backwards compatibility check", configuration.protoLockFile.getPath());
+		} else if (configuration.protoLockFile != null) {
+			checkBackwardsCompatibility = true;
 			try {
 				backwardsCompatibilityChecker.init(configuration.protoLockFile);
 			} catch (FileNotFoundException e) {
@@ -191,9 +197,14 @@ public class ProtoSerializer {
 			includeGoPackageNameOptions(packageToProtoFileMap);
 		}
 
+		// Derive field numbers from message and field names instead of field order
+		if (configuration.stableFieldNumbers) {
+			allocateStableFieldNumbers(packageToProtoFileMap);
+		}
+
 		// Try to resolve some backward incompatibilities based on protolock
 		boolean possibleIncompatibilitiesDetected = false;
-		if (configuration.protoLockFile != null) {
+		if (checkBackwardsCompatibility) {
 			possibleIncompatibilitiesDetected = resolveBackwardIncompatibilities(packageToProtoFileMap);
 		}
 
@@ -205,6 +216,7 @@ public class ProtoSerializer {
 
 		// Collect all written proto files for later parsing
 		List<File> writtenProtoFiles = new ArrayList<>();
+		ProtolockWriter protolockWriter = new ProtolockWriter();
 
 		if (configuration.outputFilename != null) {
 			if (packageToProtoFileMap.size() > 1) {
@@ -216,11 +228,9 @@ public class ProtoSerializer {
 				File destFolder = createPackageFolderStructure(configuration.outputDirectory, protoFile.packageName());
 
 				File outputFile = new File(destFolder, configuration.outputFilename.toLowerCase());
-				try (Writer writer = new FileWriter(outputFile)) {
-					writer.write(protoFile.toSchema());
-
-				}
+				writeIfChanged(outputFile, protoFile.toSchema());
 				writtenProtoFiles.add(outputFile);
+				protolockWriter.add(getPathFromPackageName(protoFile.packageName()) + "/" + outputFile.getName(), protoFile);
 			}
 		} else {
 
@@ -229,11 +239,9 @@ public class ProtoSerializer {
 				File destFolder = createPackageFolderStructure(configuration.outputDirectory, protoFile.packageName());
 				File outputFile = new File(destFolder, protoFile.location().getPath().toLowerCase());
 
-				try (Writer writer = new FileWriter(outputFile)) {
-					writer.write(protoFile.toSchema());
-
-				}
+				writeIfChanged(outputFile, protoFile.toSchema());
 				writtenProtoFiles.add(outputFile);
+				protolockWriter.add(getPathFromPackageName(protoFile.packageName()) + "/" + outputFile.getName(), protoFile);
 			}
 		}
 
@@ -245,6 +253,22 @@ public class ProtoSerializer {
 					"Possible backwards incompatibility detected. See previous log messages. Re-run with option failIfRemovedFields=false if this is ok");
 		}
 
+		if (configuration.protoLockFile != null && configuration.updateProtoLockFile) {
+			protolockWriter.write(configuration.protoLockFile);
+		}
+
+	}
+
+	/**
+	 * Write the proto file unless it already has this content, so that unchanged files keep their timestamp and do not trigger downstream rebuilds.
+	 */
+	private void writeIfChanged(File outputFile, String content) throws IOException {
+		byte[] bytes = content.getBytes(Charset.defaultCharset());
+		if (outputFile.isFile() && outputFile.length() == bytes.length && Arrays.equals(bytes, Files.readAllBytes(outputFile.toPath()))) {
+			LOGGER.debug("Proto file {} unchanged", outputFile);
+			return;
+		}
+		Files.write(outputFile.toPath(), bytes);
 	}
 
 	private void sortFieldsByTag(Map<String, ProtoFile> packageToProtoFileMap) {
@@ -261,19 +285,31 @@ public class ProtoSerializer {
 		mt.oneOfs().forEach(oneOf -> Collections.sort(oneOf.fields(), Comparator.comparingInt(Field::tag)));
 	}
 
-	private boolean resolveBackwardIncompatibilities(Map<String, ProtoFile> packageToProtoFileMap) {
+	private void allocateStableFieldNumbers(Map<String, ProtoFile> packageToProtoFileMap) {
+		StableFieldNumberAllocator allocator = new StableFieldNumberAllocator(
+				checkBackwardsCompatibility ? backwardsCompatibilityChecker.getDefinitions() : null);
+		List<String> packageNames = new ArrayList<>(packageToProtoFileMap.keySet());
+		packageNames.sort(Comparator.nullsFirst(Comparator.naturalOrder()));
+		packageNames.forEach(packageName -> allocator.allocate(packageToProtoFileMap.get(packageName)));
+	}
+
+	private boolean resolveBackwardIncompatibilities(Map<String, ProtoFile> packageToProtoFileMap) throws IOException {
 		LOGGER.debug("Checking for backward incompatible changes");
 
-		AtomicBoolean possibleIncompatibilitiesDetected = new AtomicBoolean(false);
+		// Check files in package order, which is close to the protopath order of proto.lock, so that it is read sequentially
+		List<String> packageNames = new ArrayList<>(packageToProtoFileMap.keySet());
+		packageNames.sort(Comparator.nullsFirst(Comparator.naturalOrder()));
+		List<ProtoFile> files = packageNames.stream().map(packageToProtoFileMap::get).collect(Collectors.toList());
 
-		for (ProtoFile file : packageToProtoFileMap.values()) {
-			if (backwardsCompatibilityChecker.resolveBackwardIncompatibilities(file)) {
-				possibleIncompatibilitiesDetected.set(true);
-			}
+		boolean possibleIncompatibilitiesDetected = backwardsCompatibilityChecker.resolveBackwardIncompatibilities(files);
+		backwardsCompatibilityChecker.close();
+
+		if (configuration.compatibilityReport) {
+			backwardsCompatibilityChecker.getReport().write(new File(configuration.outputDirectory, CompatibilityReport.DEFAULT_FILENAME));
 		}
 
 		LOGGER.debug("Checking for backward incompatible changes - completed");
-		return possibleIncompatibilitiesDetected.get();
+		return possibleIncompatibilitiesDetected;
 	}
 
 	private void sortTypesInProtofile(Map<String, ProtoFile> packageToProtoFileMap) {
@@ -617,56 +653,15 @@ public class ProtoSerializer {
 		// add UNSPECIFIED value first
 		List<OptionElement> optionElementsUnspecified = new ArrayList<>();
 
-		// Prefix with enum type name
-		String enumValuePrefix = CaseFormat.LOWER_CAMEL.to(CaseFormat.UPPER_UNDERSCORE, e.name()) + UNDERSCORE;
 		for (EnumConstant ec : e.constants()) {
-			String enumValue = escapeEnumValue(ec.getName());
-			if (enumValue.equalsIgnoreCase("UNSPECIFIED")) {
-				enumValue = "UNSPECIFIED_ENUM_VALUE"; // Handle collision with UNSPECIFIED special value according to Google style guide
-			}
-			ec.updateName(enumValuePrefix + enumValue);
+			ec.updateName(typeAndFieldNameMapper.enumConstantName(e.name(), ec.getName()));
 		}
-		EnumConstant unspecified = new EnumConstant(new Location("", "", 0, 0), enumValuePrefix + "UNSPECIFIED", 0, "Default",
+		EnumConstant unspecified = new EnumConstant(new Location("", "", 0, 0), typeAndFieldNameMapper.enumConstantName(e.name(), null), 0, "Default",
 				new Options(Options.ENUM_VALUE_OPTIONS, optionElementsUnspecified));
 		e.constants().add(0, unspecified);
 
 	}
 
-	private String escapeEnumValue(String name) {
-		if (name.equals("")) {
-			return name;
-		}
-
-		try {
-			switch (name) {
-			case "+":
-				return "PLUS";
-			case "-":
-				return "MINUS";
-			default: {
-				// Replace any non standard characters with space
-				String transformationBasis = name.replaceAll("[^a-zA-Z0-9]+", " ").trim();
-				// Split by whitespace first
-				String[] parts = transformationBasis.split(" ");
-				List<String> modifiedParts = new ArrayList<>();
-				for (String part : parts) {
-					modifiedParts.addAll(Arrays.asList(StringUtils.splitByCharacterTypeCamelCase(part)));
-				}
-
-				// Join all parts by underscore
-				transformationBasis = StringUtils.join(modifiedParts, "_");
-
-				// Uppercase everything
-				return transformationBasis.toUpperCase();
-			}
-			}
-		} catch (Exception e) {
-			LOGGER.warn("Error escaping enum value {}, using original. May break proto file", name, e);
-			return name;
-		}
-
-	}
-
 	private void parseWrittenFiles() throws IOException {
 		SchemaLoader schemaLoader = new SchemaLoader();
 
@@ -1152,26 +1147,7 @@ public class ProtoSerializer {
 		messageTypes(mt.nestedTypes()).forEach(this::underscoreFieldNames);
 
 		for (Field field : mt.fieldsAndOneOfFields()) {
-			String fieldName = field.name();
-			boolean startsWithUnderscore = fieldName.startsWith(UNDERSCORE);
-			boolean endsWithUnderscore = fieldName.endsWith(UNDERSCORE);
-
-			String strippedFieldName = StringUtils.removeEnd(StringUtils.removeStart(fieldName, UNDERSCORE), UNDERSCORE);
-
-			String newFieldName = CaseFormat.LOWER_CAMEL.to(CaseFormat.LOWER_UNDERSCORE, strippedFieldName);
-
-			// Remove all dashes
-			newFieldName = StringUtils.remove(newFieldName, DASH);
-
-			if (endsWithUnderscore) {
-				newFieldName += "u"; // Trailing underscore not accepted by protoc for java
-			}
-
-			if (startsWithUnderscore) {
-				newFieldName = UNDERSCORE + newFieldName;
-			}
-
-			field.updateName(newFieldName);
+			field.updateName(typeAndFieldNameMapper.underscoreFieldName(field.name()));
 		}
 
 	}
@@ -0,0 +1,161 @@
+/*-
+ * #%L
+ * schema2proto-lib
+ * %%
+ * Copyright (C) 2019 - 2020 Entur
+ * %%
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl5
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * #L%
+ */
+package no.entur.schema2proto.generateproto;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.sun.xml.xsom.XSAttributeUse;
+import com.sun.xml.xsom.XSComplexType;
+import com.sun.xml.xsom.XSComponent;
+import com.sun.xml.xsom.XSContentType;
+import com.sun.xml.xsom.XSElementDecl;
+import com.sun.xml.xsom.XSModelGroup;
+import com.sun.xml.xsom.XSModelGroupDecl;
+import com.sun.xml.xsom.XSParticle;
+import com.sun.xml.xsom.XSSchema;
+import com.sun.xml.xsom.XSSchemaSet;
+import com.sun.xml.xsom.XSSimpleType;
+import com.sun.xml.xsom.XSUnionSimpleType;
+
+/**
+ * The xsd components reachable from a set of root elements, following element types, substitution groups, base types, content particles, attribute uses and the
+ * member types of lists and unions.
+ */
+class ReachableComponents {
+
+	private final Set<XSComponent> reachable = new HashSet<>();
+
+	private final Deque<XSComponent> pending = new ArrayDeque<>();
+
+	private final boolean derivationBySubsumption;
+
+	private ReachableComponents(boolean derivationBySubsumption) {
+		this.derivationBySubsumption = derivationBySubsumption;
+	}
+
+	/**
+	 * Find all components reachable from the given root elements. A root element is either a local name, matched in all namespaces, or {namespace}name.
+	 *
+	 * @throws ConversionException if a root element is not declared in the schema set
+	 */
+	static Set<XSComponent> find(XSSchemaSet schemaSet, Collection<String> rootElements, boolean derivationBySubsumption) {
+		ReachableComponents components = new ReachableComponents(derivationBySubsumption);
+		for (String rootElement : rootElements) {
+			boolean found = false;
+			if (rootElement.startsWith("{")) {
+				XSElementDecl elementDecl = schemaSet.getElementDecl(StringUtils.substringBetween(rootElement, "{", "}"),
+						StringUtils.substringAfter(rootElement, "}"));
+				if (elementDecl != null) {
+					components.visit(elementDecl);
+					found = true;
+				}
+			} else {
+				Iterator<XSSchema> schemas = schemaSet.iterateSchema();
+				while (schemas.hasNext()) {
+					XSElementDecl elementDecl = schemas.next().getElementDecl(rootElement);
+					if (elementDecl != null) {
+						components.visit(elementDecl);
+						found = true;
+					}
+				}
+			}
+			if (!found) {
+				throw new ConversionException("Root element " + rootElement + " is not declared in the xsd");
+			}
+		}
+		components.traverse();
+		return components.reachable;
+	}
+
+	private void visit(XSComponent component) {
+		if (component != null && reachable.add(component)) {
+			pending.push(component);
+		}
+	}
+
+	private void traverse() {
+		while (!pending.isEmpty()) {
+			XSComponent component = pending.pop();
+			if (component instanceof XSElementDecl) {
+				XSElementDecl elementDecl = (XSElementDecl) component;
+				visit(elementDecl.getType());
+				elementDecl.getSubstitutables().forEach(this::visit);
+			} else if (component instanceof XSComplexType) {
+				traverseComplexType((XSComplexType) component);
+			} else if (component instanceof XSSimpleType) {
+				traverseSimpleType((XSSimpleType) component);
+			} else if (component instanceof XSModelGroupDecl) {
+				visit(((XSModelGroupDecl) component).getModelGroup());
+			} else if (component instanceof XSModelGroup) {
+				for (XSParticle particle : ((XSModelGroup) component).getChildren()) {
+					visit(particle.getTerm());
+				}
+			}
+		}
+	}
+
+	private void traverseComplexType(XSComplexType complexType) {
+		visit(complexType.getBaseType());
+
+		XSContentType contentType = complexType.getContentType();
+		if (contentType.asParticle() != null) {
+			visit(contentType.asParticle().getTerm());
+		} else if (contentType.asSimpleType() != null) {
+			visit(contentType.asSimpleType());
+		}
+
+		for (XSAttributeUse attributeUse : complexType.getAttributeUses()) {
+			visit(attributeUse.getDecl().getType());
+		}
+
+		if (derivationBySubsumption && complexType.isAbstract()) {
+			// Elements declared with any subtype of an abstract type may appear in its place, see SchemaParser.findGlobalElementsBySubsumption
+			Deque<XSComplexType> subTypes = new ArrayDeque<>(complexType.getSubtypes());
+			while (!subTypes.isEmpty()) {
+				XSComplexType subType = subTypes.pop();
+				visit(subType);
+				subType.getElementDecls().forEach(this::visit);
+				subTypes.addAll(subType.getSubtypes());
+			}
+		}
+	}
+
+	private void traverseSimpleType(XSSimpleType simpleType) {
+		visit(simpleType.getBaseType());
+		if (simpleType.isList()) {
+			visit(simpleType.asList().getItemType());
+		} else if (simpleType.isUnion()) {
+			XSUnionSimpleType unionType = simpleType.asUnion();
+			for (int i = 0; i < unionType.getMemberSize(); i++) {
+				visit(unionType.getMember(i));
+			}
+		}
+	}
+}
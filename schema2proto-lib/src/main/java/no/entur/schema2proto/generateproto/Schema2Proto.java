@@ -35,8 +35,14 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 
 import org.apache.commons.cli.CommandLine;
@@ -56,6 +62,7 @@ import org.yaml.snakeyaml.error.YAMLException;
 import com.squareup.wire.schema.ProtoFile;
 
 import no.entur.schema2proto.InvalidConfigurationException;
+import no.entur.schema2proto.compatibility.CompatibilityReport;
 
 public class Schema2Proto {
 	private static final String OPTION_OUTPUT_DIRECTORY = "outputDirectory";
@@ -79,9 +86,16 @@ public class Schema2Proto {
 	private static final String OPTION_INCLUDE_XSD_OPTIONS = "includeXsdOptions";
 	private static final String OPTION_PROTOLOCK_FILENAME = "protoLockFile";
 	private static final String OPTION_FAIL_IF_REMOVED_FIELDS = "failIfRemovedFields";
+	private static final String OPTION_UPDATE_PROTOLOCK_FILE = "updateProtoLockFile";
+	private static final String OPTION_STABLE_FIELD_NUMBERS = "stableFieldNumbers";
+	private static final String OPTION_COMPATIBILITY_REPORT = "compatibilityReport";
 	private static final String OPTION_DERIVATION_BY_SUBSUMPTION = "derivationBySubsumption";
 	private static final String OPTION_INCLUDE_GO_PACKAGE_OPTIONS = "includeGoPackageOptions";
 	private static final String OPTION_GO_PACKAGE_SOURCE_PREFIX = "goPackageSourcePrefix";
+	private static final String OPTION_ROOT_ELEMENTS = "rootElements";
+	private static final String OPTION_PARALLEL_NAMESPACES = "parallelNamespaces";
+	private static final String OPTION_THREADS = "threads";
+	private static final String OPTION_WATCH = "watch";
 	private static final Logger LOGGER = LoggerFactory.getLogger(Schema2Proto.class);
 	public static final String TRUE_FALSE = "true|false";
 
@@ -94,18 +108,37 @@ public class Schema2Proto {
 			try {
 				CommandLineParser parser = new DefaultParser();
 				CommandLine cmd = parser.parse(commandLineOptions, args);
-				Schema2ProtoConfiguration configuration = getConfiguration(cmd);
-				parseAndSerialize(configuration);
+				List<Schema2ProtoConfiguration> configurations = getConfigurations(cmd);
+				int threads = getThreads(cmd);
+				if (cmd.hasOption(OPTION_WATCH)) {
+					if (configurations.size() != 1) {
+						throw new InvalidConfigurationException("--" + OPTION_WATCH + " supports a single xsd file only");
+					}
+					new SchemaWatcher(configurations.get(0)).watch();
+				} else if (configurations.size() == 1) {
+					parseAndSerialize(configurations.get(0));
+				} else {
+					convertAll(configurations, threads);
+				}
 			} catch (InvalidConfigurationException | ParseException e) {
 				printUsage(commandLineOptions);
 				throw new ConversionException("Error parsing command line options", e);
 			} catch (com.squareup.wire.schema.SchemaException e) {
 				throw new ConversionException("Generated proto files did not link", e);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
 			}
 		}
 	}
 
 	public static void parseAndSerialize(Schema2ProtoConfiguration configuration) throws IOException, InvalidConfigurationException {
+		convert(configuration);
+	}
+
+	/**
+	 * Like {@link #parseAndSerialize(Schema2ProtoConfiguration)}, returning the xsd files that were read.
+	 */
+	static Set<File> convert(Schema2ProtoConfiguration configuration) throws IOException, InvalidConfigurationException {
 		try {
 			SchemaParser xp = new SchemaParser(configuration);
 
@@ -118,6 +151,7 @@ public class Schema2Proto {
 			serializer.serialize(packageToFiles, localTypes);
 
 			LOGGER.info("Done");
+			return xp.getSchemaDocumentFiles();
 		} catch (InvalidXSDException e) {
 			throw new ConversionException("Error converting xsdFile to proto", e);
 		} catch (SAXException e) {
@@ -126,6 +160,62 @@ public class Schema2Proto {
 
 	}
 
+	/**
+	 * Convert several xsd files in this JVM, running as many conversions in parallel as there are processors.
+	 *
+	 * @see #convertAll(List, int)
+	 */
+	public static void convertAll(List<Schema2ProtoConfiguration> configurations) throws IOException, InvalidConfigurationException {
+		convertAll(configurations, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Convert several xsd files in this JVM, running at most {@code threads} conversions in parallel. Every conversion has its own parser, serializer and
+	 * mapper, so configurations only need distinct output folders and proto.lock files. All conversions are run to completion, after which the failure of the
+	 * first failing configuration (in list order) is rethrown.
+	 */
+	public static void convertAll(List<Schema2ProtoConfiguration> configurations, int threads) throws IOException, InvalidConfigurationException {
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, configurations.size())));
+		try {
+			List<Future<Long>> jobs = new ArrayList<>();
+			for (Schema2ProtoConfiguration configuration : configurations) {
+				jobs.add(executor.submit(() -> {
+					long start = System.nanoTime();
+					parseAndSerialize(configuration);
+					return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+				}));
+			}
+
+			Throwable failure = null;
+			for (int i = 0; i < jobs.size(); i++) {
+				File xsdFile = configurations.get(i).xsdFile;
+				try {
+					LOGGER.info("Converted {} in {} ms", xsdFile, jobs.get(i).get());
+				} catch (ExecutionException e) {
+					LOGGER.error("Converting {} failed: {}", xsdFile, e.getCause().getMessage());
+					if (failure == null) {
+						failure = e.getCause();
+					}
+				}
+			}
+
+			if (failure instanceof IOException) {
+				throw (IOException) failure;
+			} else if (failure instanceof InvalidConfigurationException) {
+				throw (InvalidConfigurationException) failure;
+			} else if (failure instanceof Error) {
+				throw (Error) failure;
+			} else if (failure != null) {
+				throw (RuntimeException) failure;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ConversionException("Interrupted while converting", e);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
 	public static void main(String[] args) {
 		try {
 			new Schema2Proto(args);
@@ -139,7 +229,7 @@ public class Schema2Proto {
 		Options commandLineOptions = new Options();
 		commandLineOptions.addOption(Option.builder()
 				.longOpt(OPTION_CONFIG_FILE)
-				.desc("name of configfile specifying these parameters (instead of supplying them on the command line)")
+				.desc("name of configfile specifying these parameters (instead of supplying them on the command line). Repeat together with one xsd file per configfile to convert several xsd files")
 				.required(false)
 				.hasArg()
 				.argName(OPTION_OUTPUT_FILENAME)
@@ -257,6 +347,27 @@ public class Schema2Proto {
 				.build());
 		commandLineOptions.addOption(
 				Option.builder().longOpt(OPTION_PROTOLOCK_FILENAME).hasArg().argName("FILENAME").desc("Full path to proto.lock file").required(false).build());
+		commandLineOptions.addOption(Option.builder()
+				.longOpt(OPTION_UPDATE_PROTOLOCK_FILE)
+				.hasArg()
+				.argName(TRUE_FALSE)
+				.desc("write the generated proto files to the proto.lock file, creating it if it does not exist")
+				.required(false)
+				.build());
+		commandLineOptions.addOption(Option.builder()
+				.longOpt(OPTION_STABLE_FIELD_NUMBERS)
+				.hasArg()
+				.argName(TRUE_FALSE)
+				.desc("derive field numbers from message and field names instead of field order, keeping numbers from the proto.lock file")
+				.required(false)
+				.build());
+		commandLineOptions.addOption(Option.builder()
+				.longOpt(OPTION_COMPATIBILITY_REPORT)
+				.hasArg()
+				.argName(TRUE_FALSE)
+				.desc("write the findings of the proto.lock backwards compatibility check to " + CompatibilityReport.DEFAULT_FILENAME + " in the output folder")
+				.required(false)
+				.build());
 		commandLineOptions.addOption(Option.builder()
 				.longOpt(OPTION_DERIVATION_BY_SUBSUMPTION)
 				.hasArg()
@@ -278,6 +389,32 @@ public class Schema2Proto {
 				.desc("Source path to set as prefix for go_package options")
 				.required(false)
 				.build());
+		commandLineOptions.addOption(Option.builder()
+				.longOpt(OPTION_ROOT_ELEMENTS)
+				.hasArg()
+				.argName("element1,{namespace}element2,...")
+				.desc("only convert these global elements and the types, elements and attributes reachable from them")
+				.required(false)
+				.build());
+		commandLineOptions.addOption(Option.builder()
+				.longOpt(OPTION_PARALLEL_NAMESPACES)
+				.hasArg()
+				.argName(TRUE_FALSE)
+				.desc("convert the types of each xsd namespace in parallel, producing the same proto files as the sequential conversion")
+				.required(false)
+				.build());
+		commandLineOptions.addOption(Option.builder()
+				.longOpt(OPTION_THREADS)
+				.hasArg()
+				.argName("COUNT")
+				.desc("number of conversions to run in parallel when several configfiles are given, defaults to the number of processors")
+				.required(false)
+				.build());
+		commandLineOptions.addOption(Option.builder()
+				.longOpt(OPTION_WATCH)
+				.desc("keep running and convert again whenever the xsd file or any file it includes or imports changes")
+				.required(false)
+				.build());
 		return commandLineOptions;
 	}
 
@@ -291,32 +428,53 @@ public class Schema2Proto {
 				commandLineOptions, null);
 	}
 
-	private static Schema2ProtoConfiguration getConfiguration(CommandLine cmd) throws InvalidConfigurationException {
+	private static List<Schema2ProtoConfiguration> getConfigurations(CommandLine cmd) throws InvalidConfigurationException {
 
+		List<Schema2ProtoConfiguration> configurations = new ArrayList<>();
 		if (cmd.hasOption(OPTION_CONFIG_FILE)) {
-			return parseConfigFile(cmd);
+			String[] configFiles = cmd.getOptionValues(OPTION_CONFIG_FILE);
+			String[] args = cmd.getArgs();
+			if (args.length != configFiles.length) {
+				throw new InvalidConfigurationException(
+						configFiles.length == 1 ? "Missing xsd file argument" : "Expected one xsd file argument per config file");
+			}
+			for (int i = 0; i < configFiles.length; i++) {
+				configurations.add(parseConfigFile(configFiles[i], args[i]));
+			}
 		} else {
-			return parseCommandLineOptions(cmd);
+			configurations.add(parseCommandLineOptions(cmd));
 		}
+		return configurations;
 
 	}
 
-	private static Schema2ProtoConfiguration parseConfigFile(CommandLine cmd) throws InvalidConfigurationException {
+	private static int getThreads(CommandLine cmd) throws InvalidConfigurationException {
+		if (!cmd.hasOption(OPTION_THREADS)) {
+			return Runtime.getRuntime().availableProcessors();
+		}
+		String value = cmd.getOptionValue(OPTION_THREADS);
+		int threads;
+		try {
+			threads = Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			threads = 0;
+		}
+		if (threads <= 0) {
+			throw new InvalidConfigurationException("--" + OPTION_THREADS + " must be a positive number, got " + value);
+		}
+		return threads;
+	}
+
+	private static Schema2ProtoConfiguration parseConfigFile(String configFileOption, String xsdFileArgument) throws InvalidConfigurationException {
 
 		Schema2ProtoConfiguration configuration = new Schema2ProtoConfiguration();
 
-		String[] args = cmd.getArgs();
-		if (args.length != 1) {
-			throw new InvalidConfigurationException("Missing xsd file argument");
-		} else {
-			File xsdFile = new File(args[0]);
-			if (!xsdFile.exists()) {
-				throw new InvalidConfigurationException(String.format("XSD file %s not found", xsdFile.getAbsolutePath()));
-			}
-			configuration.xsdFile = new File(args[0]);
+		File xsdFile = new File(xsdFileArgument);
+		if (!xsdFile.exists()) {
+			throw new InvalidConfigurationException(String.format("XSD file %s not found", xsdFile.getAbsolutePath()));
 		}
+		configuration.xsdFile = xsdFile;
 
-		String configFileOption = cmd.getOptionValue(OPTION_CONFIG_FILE);
 		try (InputStream in = Files.newInputStream(Paths.get(configFileOption))) {
 			LOGGER.info("Using configFile {}", configFileOption);
 
@@ -373,6 +531,7 @@ public class Schema2Proto {
 		configuration.derivationBySubsumption = configFile.derivationBySubsumption;
 		configuration.includeGoPackageOptions = configFile.includeGoPackageOptions;
 		configuration.goPackageSourcePrefix = configFile.goPackageSourcePrefix;
+		configuration.parallelNamespaces = configFile.parallelNamespaces;
 
 		Map<String, Object> options = configFile.options;
 		if (configFile.options != null) {
@@ -385,6 +544,9 @@ public class Schema2Proto {
 		if (configFile.customImportLocations != null) {
 			configuration.customImportLocations.addAll(configFile.customImportLocations);
 		}
+		if (configFile.rootElements != null) {
+			configuration.rootElements.addAll(configFile.rootElements);
+		}
 
 		if (configFile.ignoreOutputFields != null) {
 			for (String ignoreOutputField : configFile.ignoreOutputFields) {
@@ -398,6 +560,9 @@ public class Schema2Proto {
 		}
 
 		configuration.failIfRemovedFields = configFile.failIfRemovedFields;
+		configuration.updateProtoLockFile = configFile.updateProtoLockFile;
+		configuration.stableFieldNumbers = configFile.stableFieldNumbers;
+		configuration.compatibilityReport = configFile.compatibilityReport;
 	}
 
 	private static Map<Pattern, String> parseRegexpKeyValue(Map<String, String> customTypeMappings) {
@@ -465,6 +630,7 @@ public class Schema2Proto {
 		configuration.options = options;
 		configuration.customImports = parseCommaSeparatedStringValues(cmd, OPTION_CUSTOM_IMPORTS);
 		configuration.customImportLocations = parseCommaSeparatedStringValues(cmd, OPTION_CUSTOM_IMPORT_LOCATIONS);
+		configuration.rootElements = parseCommaSeparatedStringValues(cmd, OPTION_ROOT_ELEMENTS);
 
 		if (cmd.hasOption(OPTION_IGNORE_OUTPUT_FIELDS)) {
 			for (String ignoreOutputField : cmd.getOptionValue(OPTION_IGNORE_OUTPUT_FIELDS).split(",")) {
@@ -497,6 +663,15 @@ public class Schema2Proto {
 		if (cmd.hasOption(OPTION_PROTOLOCK_FILENAME)) {
 			configuration.protoLockFile = new File(cmd.getOptionValue(OPTION_PROTOLOCK_FILENAME));
 		}
+		if (cmd.hasOption(OPTION_UPDATE_PROTOLOCK_FILE)) {
+			configuration.updateProtoLockFile = Boolean.parseBoolean(cmd.getOptionValue(OPTION_UPDATE_PROTOLOCK_FILE));
+		}
+		if (cmd.hasOption(OPTION_STABLE_FIELD_NUMBERS)) {
+			configuration.stableFieldNumbers = Boolean.parseBoolean(cmd.getOptionValue(OPTION_STABLE_FIELD_NUMBERS));
+		}
+		if (cmd.hasOption(OPTION_COMPATIBILITY_REPORT)) {
+			configuration.compatibilityReport = Boolean.parseBoolean(cmd.getOptionValue(OPTION_COMPATIBILITY_REPORT));
+		}
 		if (cmd.hasOption(OPTION_DERIVATION_BY_SUBSUMPTION)) {
 			configuration.derivationBySubsumption = Boolean.parseBoolean(cmd.getOptionValue(OPTION_DERIVATION_BY_SUBSUMPTION));
 		}
@@ -506,6 +681,9 @@ public class Schema2Proto {
 		if (cmd.hasOption(OPTION_GO_PACKAGE_SOURCE_PREFIX)) {
 			configuration.goPackageSourcePrefix = cmd.getOptionValue(OPTION_GO_PACKAGE_SOURCE_PREFIX);
 		}
+		if (cmd.hasOption(OPTION_PARALLEL_NAMESPACES)) {
+			configuration.parallelNamespaces = Boolean.parseBoolean(cmd.getOptionValue(OPTION_PARALLEL_NAMESPACES));
+		}
 
 		return configuration;
 	}
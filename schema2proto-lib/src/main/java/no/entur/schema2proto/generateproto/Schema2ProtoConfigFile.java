@@ -46,7 +46,12 @@ public class Schema2ProtoConfigFile {
 	public boolean includeXsdOptions = false;
 	public String protoLockFile;
 	public boolean failIfRemovedFields = true;
+	public boolean updateProtoLockFile = false;
+	public boolean compatibilityReport = false;
+	public boolean stableFieldNumbers = false;
 	public boolean derivationBySubsumption = false;
 	public boolean includeGoPackageOptions = false;
 	public String goPackageSourcePrefix;
+	public List<String> rootElements;
+	public boolean parallelNamespaces = false;
 }
@@ -53,7 +53,12 @@ public class Schema2ProtoConfiguration {
 	public boolean includeXsdOptions = false;
 	public File protoLockFile;
 	public boolean failIfRemovedFields = true;
+	public boolean updateProtoLockFile = false;
+	public boolean compatibilityReport = false;
+	public boolean stableFieldNumbers = false;
 	public boolean derivationBySubsumption = false;
 	public boolean includeGoPackageOptions = false;
 	public String goPackageSourcePrefix = null;
+	public List<String> rootElements = new ArrayList<>();
+	public boolean parallelNamespaces = false;
 }
@@ -24,20 +24,24 @@ package no.entur.schema2proto.generateproto;
 
 import static com.squareup.wire.schema.MessageType.XSD_MESSAGE_OPTIONS_PACKAGE;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
-import java.util.TreeSet;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import javax.xml.parsers.SAXParserFactory;
 
@@ -85,6 +89,7 @@ import com.sun.xml.xsom.XSSimpleType;
 import com.sun.xml.xsom.XSTerm;
 import com.sun.xml.xsom.XSType;
 import com.sun.xml.xsom.impl.ElementDecl;
+import com.sun.xml.xsom.parser.SchemaDocument;
 import com.sun.xml.xsom.parser.XSOMParser;
 import com.sun.xml.xsom.util.DomAnnotationParserFactory;
 
@@ -96,23 +101,41 @@ public class SchemaParser implements ErrorHandler {
 	private static final Logger LOGGER = LoggerFactory.getLogger(SchemaParser.class);
 	private static final String DEFAULT_PROTO_PRIMITIVE = "string";
 	public static final String SIMPLECONTENT_VALUE_FIELD_NAME = "value";
+	public static final String ATTRIBUTE_FIELD_PREFIX = "attr_";
+	public static final String SEQUENCE_WRAPPER_PREFIX = "SequenceWrapper";
+	public static final String CHOICE_WRAPPER_PREFIX = "ChoiceWrapper";
+	public static final String XSD_NAME_FIELD_OPTION_NAME = XSD_MESSAGE_OPTIONS_PACKAGE + ".name";
+	public static final String XSD_ATTRIBUTE_FIELD_OPTION_NAME = XSD_MESSAGE_OPTIONS_PACKAGE + ".attribute";
+	public static final String XSD_TYPE_FIELD_OPTION_NAME = XSD_MESSAGE_OPTIONS_PACKAGE + ".type";
+	public static final String XSD_NAMESPACE_FIELD_OPTION_NAME = XSD_MESSAGE_OPTIONS_PACKAGE + ".namespace";
+	public static final String XSD_VALUE_ENUM_VALUE_OPTION_NAME = XSD_MESSAGE_OPTIONS_PACKAGE + ".value";
+	// Xsd types mapped to a proto type that does not keep their lexical format
+	private static final Set<String> XSD_TYPES_WITH_CONVERSION = new HashSet<>(Arrays.asList("dateTime", "date", "time", "hexBinary"));
 
 	private final Map<String, ProtoFile> packageToProtoFileMap = new TreeMap<>();
 
 	private final Map<MessageType, Set<Object>> elementDeclarationsPerMessageType = new HashMap<>();
+
+	// Simple types resolved once per conversion, keyed by identity as XSOM components do not implement equals
+	private final Map<XSType, String> fieldTypes = new IdentityHashMap<>();
+	private final Map<XSSimpleType, String> simpleTypeNames = new IdentityHashMap<>();
+	private final Map<XSSimpleType, Boolean> listTypes = new IdentityHashMap<>();
 	private Set<String> basicTypes;
 
 	private int nestingLevel = 0;
 
 	private final List<LocalType> localTypes = new ArrayList<>();
 
+	private final Set<File> schemaDocumentFiles = new LinkedHashSet<>();
+
 	private final Schema2ProtoConfiguration configuration;
 
+	private final NamespaceHelper namespaceHelper = new NamespaceHelper();
+
 	private PGVRuleFactory ruleFactory;
 
 	private void init() {
-		basicTypes = new TreeSet<>();
-		basicTypes.addAll(TypeRegistry.getBasicTypes());
+		basicTypes = TypeRegistry.getBasicTypes();
 		ruleFactory = new PGVRuleFactory(configuration, this);
 
 	}
@@ -134,6 +157,17 @@ public class SchemaParser implements ErrorHandler {
 		parser.setAnnotationParser(new DomAnnotationParserFactory());
 		parser.parse(configuration.xsdFile);
 
+		for (SchemaDocument document : parser.getDocuments()) {
+			String systemId = document.getSystemId();
+			if (systemId != null && systemId.startsWith("file:")) {
+				try {
+					schemaDocumentFiles.add(new File(new URI(systemId)));
+				} catch (URISyntaxException | IllegalArgumentException e) {
+					LOGGER.debug("Not a local schema document: {}", systemId);
+				}
+			}
+		}
+
 		processSchemaSet(parser.getResult());
 
 		return packageToProtoFileMap;
@@ -158,18 +192,17 @@ public class SchemaParser implements ErrorHandler {
 	}
 
 	private ProtoFile getProtoFileForNamespace(String namespace) {
-		String packageName = NamespaceHelper.xmlNamespaceToProtoPackage(namespace, configuration.forceProtoPackage);
+		String packageName = namespaceHelper.xmlNamespaceToProtoPackage(namespace, configuration.forceProtoPackage);
 		return getProtoFileForPackage(packageName);
 	}
 
 	private Type getType(String namespace, String typeName) {
-		ProtoFile protoFileForNamespace = getProtoFileForNamespace(namespace);
-		for (Type type : protoFileForNamespace.types()) {
-			if (type instanceof MessageType) {
-				if (((MessageType) type).getName().equals(typeName)) {
-					return type;
-				}
-			} else if (type instanceof EnumType && ((EnumType) type).name().equals(typeName)) {
+		return getType(getProtoFileForNamespace(namespace), typeName);
+	}
+
+	private static Type getType(ProtoFile protoFile, String typeName) {
+		for (Type type : protoFile.types()) {
+			if (StringUtils.equals(typeName, typeName(type))) {
 				return type;
 			}
 		}
@@ -177,29 +210,106 @@ public class SchemaParser implements ErrorHandler {
 		return null;
 	}
 
+	private static String typeName(Type type) {
+		if (type instanceof MessageType) {
+			return ((MessageType) type).getName();
+		} else if (type instanceof EnumType) {
+			return ((EnumType) type).name();
+		}
+		return null;
+	}
+
 	private void processSchemaSet(XSSchemaSet schemaSet) {
 
-		Iterator<XSSchema> schemas = schemaSet.iterateSchema();
-		while (schemas.hasNext()) {
-			XSSchema schema = schemas.next();
+		// Without root elements every component is converted
+		Set<XSComponent> reachable = null;
+		if (!configuration.rootElements.isEmpty()) {
+			reachable = ReachableComponents.find(schemaSet, configuration.rootElements, configuration.derivationBySubsumption);
+			LOGGER.info("Converting {} components reachable from root elements {}", reachable.size(), configuration.rootElements);
+		}
+		final Set<XSComponent> included = reachable;
+
+		List<XSSchema> schemas = new ArrayList<>();
+		Iterator<XSSchema> schemaIterator = schemaSet.iterateSchema();
+		while (schemaIterator.hasNext()) {
+			XSSchema schema = schemaIterator.next();
 			if (!schema.getTargetNamespace().endsWith("/XMLSchema")) {
+				schemas.add(schema);
+			}
+		}
 
-				final Map<String, XSSimpleType> sortedSimpleTypes = new TreeMap<>(schema.getSimpleTypes());
-				sortedSimpleTypes.forEach((name, type) -> processSimpleType(type, null));
+		if (configuration.parallelNamespaces && schemas.size() > 1) {
+			// Each namespace is converted by its own parser, the results are merged in the same order as the sequential conversion would process them
+			List<SchemaParser> namespaceParsers = IntStream.range(0, schemas.size()).parallel().mapToObj(i -> {
+				SchemaParser namespaceParser = new SchemaParser(configuration);
+				namespaceParser.processSchema(schemas.get(i), schemaSet, included);
+				return namespaceParser;
+			}).collect(Collectors.toList());
+			namespaceParsers.forEach(this::merge);
+		} else {
+			for (XSSchema schema : schemas) {
+				processSchema(schema, schemaSet, included);
+			}
+		}
+	}
 
-				final Map<String, XSComplexType> sortedComplexTypes = new TreeMap<>(schema.getComplexTypes());
-				sortedComplexTypes.forEach((name, type) -> processComplexType(type, null, schemaSet, null, null));
+	private void processSchema(XSSchema schema, XSSchemaSet schemaSet, Set<XSComponent> included) {
+		final Map<String, XSSimpleType> sortedSimpleTypes = new TreeMap<>(schema.getSimpleTypes());
+		sortedSimpleTypes.forEach((name, type) -> {
+			if (included == null || included.contains(type)) {
+				processSimpleType(type, null);
+			}
+		});
 
-				final Map<String, XSElementDecl> sortedElements = new TreeMap<>(schema.getElementDecls());
-				for (XSElementDecl elementDecl : sortedElements.values()) {
-					if (elementDecl.getType().isLocal()) {
-						processElement(elementDecl, schemaSet);
-					} else {
-						LOGGER.debug("Skipping global element {} declaration with global type {}", elementDecl.getName(), elementDecl.getType().getName());
-					}
+		final Map<String, XSComplexType> sortedComplexTypes = new TreeMap<>(schema.getComplexTypes());
+		sortedComplexTypes.forEach((name, type) -> {
+			if (included == null || included.contains(type)) {
+				processComplexType(type, null, schemaSet, null, null);
+			}
+		});
+
+		final Map<String, XSElementDecl> sortedElements = new TreeMap<>(schema.getElementDecls());
+		for (XSElementDecl elementDecl : sortedElements.values()) {
+			if (included != null && !included.contains(elementDecl)) {
+				LOGGER.debug("Skipping global element {} not reachable from root elements", elementDecl.getName());
+			} else if (elementDecl.getType().isLocal()) {
+				processElement(elementDecl, schemaSet);
+			} else {
+				LOGGER.debug("Skipping global element {} declaration with global type {}", elementDecl.getName(), elementDecl.getType().getName());
+			}
+		}
+	}
+
+	/**
+	 * Add the types converted by a namespace parser. Types referenced across namespaces are converted by every parser that needs them, the first one merged is
+	 * kept just like the sequential conversion keeps the first one created. Local types belonging to discarded copies are discarded with them.
+	 */
+	private void merge(SchemaParser namespaceParser) {
+		Set<MessageType> discarded = Collections.newSetFromMap(new IdentityHashMap<>());
+		for (Map.Entry<String, ProtoFile> packageAndProtoFile : namespaceParser.packageToProtoFileMap.entrySet()) {
+			ProtoFile file = packageToProtoFileMap.computeIfAbsent(packageAndProtoFile.getKey(), k -> new ProtoFile(Syntax.PROTO_3, k));
+			for (Type type : packageAndProtoFile.getValue().types()) {
+				if (getType(file, typeName(type)) == null) {
+					file.types().add(type);
+				} else {
+					addMessageTypes(type, discarded);
 				}
 			}
 		}
+		for (LocalType localType : namespaceParser.localTypes) {
+			if (!discarded.contains(localType.enclosingType)) {
+				localTypes.add(localType);
+			}
+		}
+	}
+
+	private static void addMessageTypes(Type type, Set<MessageType> messageTypes) {
+		if (type instanceof MessageType) {
+			messageTypes.add((MessageType) type);
+		}
+		for (Type nestedType : type.nestedTypes()) {
+			addMessageTypes(nestedType, messageTypes);
+		}
 	}
 
 	private String processElement(XSElementDecl element, XSSchemaSet schemaSet) {
@@ -225,6 +335,19 @@ public class SchemaParser implements ErrorHandler {
 	}
 
 	private String processSimpleType(XSSimpleType xs, String elementName) {
+		if (xs.getName() == null) {
+			// Name of anonymous types depends on the element
+			return convertSimpleType(xs, elementName);
+		}
+		String typeName = simpleTypeNames.get(xs);
+		if (typeName == null) {
+			typeName = convertSimpleType(xs, elementName);
+			simpleTypeNames.put(xs, typeName);
+		}
+		return typeName;
+	}
+
+	private String convertSimpleType(XSSimpleType xs, String elementName) {
 
 		nestingLevel++;
 
@@ -271,9 +394,9 @@ public class SchemaParser implements ErrorHandler {
 		if (existingField != null) {
 			// Override should happen
 			if (existingField.isFromAttribute() && !newField.isFromAttribute()) {
-				existingField.updateName("attr_" + existingField.name());
+				existingField.updateName(ATTRIBUTE_FIELD_PREFIX + existingField.name());
 			} else if (!existingField.isFromAttribute() && newField.isFromAttribute()) {
-				newField.updateName("attr_" + newField.name());
+				newField.updateName(ATTRIBUTE_FIELD_PREFIX + newField.name());
 			} else {
 				message.removeDeclaredField(existingField);
 			}
@@ -299,7 +422,7 @@ public class SchemaParser implements ErrorHandler {
 
 		Options fieldOptions = getFieldOptions(particle);
 
-		String fieldPackagename = NamespaceHelper.xmlNamespaceToProtoFieldPackagename(targetNamespace, configuration.forceProtoPackage);
+		String fieldPackagename = namespaceHelper.xmlNamespaceToProtoFieldPackagename(targetNamespace, configuration.forceProtoPackage);
 
 		Field field = new Field(fieldPackagename, location, Label.REPEATED, wrapperFieldName, fieldDoc, messageType.getNextFieldNum(), typeName, fieldOptions,
 				false);
@@ -307,7 +430,7 @@ public class SchemaParser implements ErrorHandler {
 		addField(messageType, field);
 
 		localTypes.add(new LocalType(particle, wrapperType, messageType, field,
-				NamespaceHelper.xmlNamespaceToProtoPackage(targetNamespace, configuration.forceProtoPackage), parentType));
+				namespaceHelper.xmlNamespaceToProtoPackage(targetNamespace, configuration.forceProtoPackage), parentType));
 
 		return wrapperType;
 
@@ -330,19 +453,21 @@ public class SchemaParser implements ErrorHandler {
 				String fieldDoc = resolveDocumentationAnnotation(currElementDecl, false);
 				Location fieldLocation = getLocation(currElementDecl);
 
-				String packageName = NamespaceHelper.xmlNamespaceToProtoFieldPackagename(type.getTargetNamespace(), configuration.forceProtoPackage);
+				String packageName = namespaceHelper.xmlNamespaceToProtoFieldPackagename(type.getTargetNamespace(), configuration.forceProtoPackage);
 
 				if (type.isSimpleType()) {
 
 					if (type.asSimpleType().isRestriction() && type.asSimpleType().getFacet(XSFacet.FACET_ENUMERATION) != null) {
 						String enumName = createEnum(currElementDecl.getName(), type.asSimpleType().asRestriction(), type.isGlobal() ? null : messageType);
 						Field field = new Field(packageName, fieldLocation, label, currElementDecl.getName(), fieldDoc, messageType.getNextFieldNum(), enumName,
-								fieldOptions, true);
+								xsdFieldOptions(fieldOptions, currElementDecl.getName(), xmlNamespace(currElementDecl, targetNamespace), false, null), true);
 						addField(messageType, field);
 					} else {
 						String typeName = findFieldType(type);
 						Field field = new Field(basicTypes.contains(typeName) ? null : packageName, fieldLocation, label, currElementDecl.getName(), fieldDoc,
-								messageType.getNextFieldNum(), typeName, fieldOptions, true);
+								messageType.getNextFieldNum(), typeName,
+								xsdFieldOptions(fieldOptions, currElementDecl.getName(), xmlNamespace(currElementDecl, targetNamespace), false, typeName),
+								true);
 						addField(messageType, field);
 					}
 
@@ -359,7 +484,9 @@ public class SchemaParser implements ErrorHandler {
 						}
 						if (substitutables.size() <= 1 && subsumptionSubstitutables.isEmpty()) {
 							Field field = new Field(packageName, fieldLocation, label, currElementDecl.getName(), fieldDoc, messageType.getNextFieldNum(),
-									type.getName(), fieldOptions, true);
+									type.getName(),
+									xsdFieldOptions(fieldOptions, currElementDecl.getName(), xmlNamespace(currElementDecl, targetNamespace), false, null),
+									true);
 							addField(messageType, field);
 						} else {
 							if (label == Label.REPEATED) {
@@ -389,7 +516,7 @@ public class SchemaParser implements ErrorHandler {
 										|| (substitutable.getType().isComplexType() && substitutable.getType().asComplexType().isAbstract())) {
 									// No abstract concept in protobuf, only concrete messages
 								} else {
-									addOneOfField(messageType, schemaSet, fieldOptions, fieldLocation, oneOf, substitutable);
+									addOneOfField(messageType, schemaSet, fieldOptions, fieldLocation, oneOf, substitutable, targetNamespace);
 								}
 							}
 						}
@@ -398,13 +525,14 @@ public class SchemaParser implements ErrorHandler {
 
 						MessageType referencedMessageType = processComplexType(type.asComplexType(), currElementDecl.getName(), schemaSet, null, null);
 						Field field = new Field(packageName, fieldLocation, label, currElementDecl.getName(), fieldDoc, messageType.getNextFieldNum(),
-								referencedMessageType.getName(), fieldOptions, true);
+								referencedMessageType.getName(),
+								xsdFieldOptions(fieldOptions, currElementDecl.getName(), xmlNamespace(currElementDecl, targetNamespace), false, null), true);
 						addField(messageType, field);
 
 						if (!currElementDecl.isGlobal()) {
 							messageType.nestedTypes().add(referencedMessageType);
 							localTypes.add(new LocalType(type, referencedMessageType, messageType, field,
-									NamespaceHelper.xmlNamespaceToProtoPackage(type.getTargetNamespace(), configuration.forceProtoPackage), enclosingType));
+									namespaceHelper.xmlNamespaceToProtoPackage(type.getTargetNamespace(), configuration.forceProtoPackage), enclosingType));
 
 						}
 					}
@@ -440,8 +568,8 @@ public class SchemaParser implements ErrorHandler {
 			}
 	}
 
-	private void addOneOfField(MessageType messageType, XSSchemaSet schemaSet, Options fieldOptions, Location fieldLocation, OneOf oneOf,
-			XSElementDecl element) {
+	private void addOneOfField(MessageType messageType, XSSchemaSet schemaSet, Options fieldOptions, Location fieldLocation, OneOf oneOf, XSElementDecl element,
+			String targetNamespace) {
 		String doc = resolveDocumentationAnnotation(element, false);
 
 		String typeName = element.getType().getName();
@@ -449,11 +577,43 @@ public class SchemaParser implements ErrorHandler {
 			typeName = processElement(element, schemaSet);
 		}
 
-		Field field = new Field(NamespaceHelper.xmlNamespaceToProtoFieldPackagename(element.getType().getTargetNamespace(), configuration.forceProtoPackage),
-				fieldLocation, null, element.getName(), doc, messageType.getNextFieldNum(), typeName, fieldOptions, true);
+		Field field = new Field(namespaceHelper.xmlNamespaceToProtoFieldPackagename(element.getType().getTargetNamespace(), configuration.forceProtoPackage),
+				fieldLocation, null, element.getName(), doc, messageType.getNextFieldNum(), typeName,
+				xsdFieldOptions(fieldOptions, element.getName(), xmlNamespace(element, targetNamespace), false, null), true);
 		addField(messageType, oneOf, field); // Repeated oneOf not allowed
 	}
 
+	/**
+	 * Add the xml name of a field, its namespace if it differs from the namespace of the message, whether it is an attribute and the xsd type if the proto type
+	 * loses its format, so that instance documents can be converted back to xml.
+	 */
+	private Options xsdFieldOptions(Options fieldOptions, String xmlName, String xmlNamespace, boolean attribute, String xsdTypeName) {
+		if (!configuration.includeXsdOptions) {
+			return fieldOptions;
+		}
+
+		List<OptionElement> optionElements = new ArrayList<>(fieldOptions.getOptionElements());
+		optionElements.add(new OptionElement(XSD_NAME_FIELD_OPTION_NAME, OptionElement.Kind.STRING, xmlName, true));
+		if (xmlNamespace != null) {
+			optionElements.add(new OptionElement(XSD_NAMESPACE_FIELD_OPTION_NAME, OptionElement.Kind.STRING, xmlNamespace, true));
+		}
+		if (attribute) {
+			optionElements.add(new OptionElement(XSD_ATTRIBUTE_FIELD_OPTION_NAME, OptionElement.Kind.BOOLEAN, true, true));
+		}
+		if (xsdTypeName != null && XSD_TYPES_WITH_CONVERSION.contains(xsdTypeName)) {
+			optionElements.add(new OptionElement(XSD_TYPE_FIELD_OPTION_NAME, OptionElement.Kind.STRING, xsdTypeName, true));
+		}
+		return new Options(Options.FIELD_OPTIONS, optionElements);
+	}
+
+	/**
+	 * The namespace of {@code element}, or null if it is the namespace of the type declaring it. Differs for references to global elements of other schemas and
+	 * for unqualified local elements.
+	 */
+	private static String xmlNamespace(XSElementDecl element, String targetNamespace) {
+		return StringUtils.equals(element.getTargetNamespace(), targetNamespace) ? null : element.getTargetNamespace();
+	}
+
 	@NotNull
 	private Options getFieldOptions(XSParticle parentParticle) {
 		List<OptionElement> optionElements = new ArrayList<>(ruleFactory.getValidationRule(parentParticle));
@@ -483,6 +643,15 @@ public class SchemaParser implements ErrorHandler {
 	}
 
 	public String findFieldType(XSType type) {
+		String typeName = fieldTypes.get(type);
+		if (typeName == null && !fieldTypes.containsKey(type)) {
+			typeName = resolveFieldType(type);
+			fieldTypes.put(type, typeName);
+		}
+		return typeName;
+	}
+
+	private String resolveFieldType(XSType type) {
 		String typeName = type.getName();
 		if (typeName == null) {
 
@@ -603,7 +772,7 @@ public class SchemaParser implements ErrorHandler {
 					XSType baseType = getBaseType(schemaSet, complexType);
 					if (baseType != null) {
 						String prefix = "";
-						String packageName = NamespaceHelper.xmlNamespaceToProtoPackage(baseType.getTargetNamespace(), configuration.defaultProtoPackage);
+						String packageName = namespaceHelper.xmlNamespaceToProtoPackage(baseType.getTargetNamespace(), configuration.defaultProtoPackage);
 						if (StringUtils.trimToNull(packageName) != null && !baseType.getTargetNamespace().equals(nameSpace)) {
 							prefix = packageName + ".";
 						}
@@ -721,7 +890,7 @@ public class SchemaParser implements ErrorHandler {
 				if (name == null) {
 					String simpleTypeName = findFieldType(xsSimpleType);
 
-					String packageName = NamespaceHelper.xmlNamespaceToProtoFieldPackagename(xsSimpleType.getTargetNamespace(),
+					String packageName = namespaceHelper.xmlNamespaceToProtoFieldPackagename(xsSimpleType.getTargetNamespace(),
 							configuration.forceProtoPackage);
 					Field field = new Field(basicTypes.contains(simpleTypeName) ? null : packageName, fieldLocation, label, SIMPLECONTENT_VALUE_FIELD_NAME, doc,
 							messageType.getNextFieldNum(), simpleTypeName, fieldOptions, true);
@@ -752,6 +921,15 @@ public class SchemaParser implements ErrorHandler {
 	}
 
 	private boolean isCurrentOrParentList(XSSimpleType xsSimpleType) {
+		Boolean list = listTypes.get(xsSimpleType);
+		if (list == null) {
+			list = resolveCurrentOrParentList(xsSimpleType);
+			listTypes.put(xsSimpleType, list);
+		}
+		return list;
+	}
+
+	private boolean resolveCurrentOrParentList(XSSimpleType xsSimpleType) {
 		if (xsSimpleType.isList()) {
 			return true;
 		} else {
@@ -842,13 +1020,14 @@ public class SchemaParser implements ErrorHandler {
 				int tag = messageType.getNextFieldNum();
 				Location fieldLocation = getLocation(decl);
 				Options fieldOptions = getFieldOptions(decl);
-				String packageName = NamespaceHelper.xmlNamespaceToProtoFieldPackagename(type.getTargetNamespace(), configuration.forceProtoPackage);
+				String packageName = namespaceHelper.xmlNamespaceToProtoFieldPackagename(type.getTargetNamespace(), configuration.forceProtoPackage);
 				Label label = type.isList() ? Label.REPEATED : null;
 
 				if (type.isRestriction() && type.getFacet(XSFacet.FACET_ENUMERATION) != null) {
 					String enumName = createEnum(fieldName, type.asRestriction(), decl.isLocal() ? messageType : null);
 
-					Field field = new Field(packageName, fieldLocation, label, fieldName, doc, tag, enumName, fieldOptions, false);
+					Field field = new Field(packageName, fieldLocation, label, fieldName, doc, tag, enumName,
+							xsdFieldOptions(fieldOptions, fieldName, null, true, null), false);
 					field.setFromAttribute(true);
 					addField(messageType, field);
 
@@ -856,7 +1035,7 @@ public class SchemaParser implements ErrorHandler {
 					String typeName = findFieldType(type);
 
 					Field field = new Field(basicTypes.contains(typeName) ? null : packageName, fieldLocation, label, fieldName, doc, tag, typeName,
-							fieldOptions, false);
+							xsdFieldOptions(fieldOptions, fieldName, null, true, typeName), false);
 					field.setFromAttribute(true);
 					addField(messageType, field);
 
@@ -882,9 +1061,9 @@ public class SchemaParser implements ErrorHandler {
 
 		final String wrapperPrefix;
 		if (XSModelGroup.SEQUENCE.equals(compositor)) {
-			wrapperPrefix = "SequenceWrapper";
+			wrapperPrefix = SEQUENCE_WRAPPER_PREFIX;
 		} else if (XSModelGroup.CHOICE.equals(compositor)) {
-			wrapperPrefix = "ChoiceWrapper";
+			wrapperPrefix = CHOICE_WRAPPER_PREFIX;
 		} else {
 			throw new ConversionException("Cannot wrap message with compositor?" + compositor);
 		}
@@ -967,14 +1146,14 @@ public class SchemaParser implements ErrorHandler {
 
 			Options fieldOptions = getFieldOptions(particle);
 
-			String fieldPackagename = NamespaceHelper.xmlNamespaceToProtoFieldPackagename(targetNamespace, configuration.forceProtoPackage);
+			String fieldPackagename = namespaceHelper.xmlNamespaceToProtoFieldPackagename(targetNamespace, configuration.forceProtoPackage);
 
 			Field field = new Field(fieldPackagename, location, Label.REPEATED, fieldName, doc, messageType.getNextFieldNum(), typeName, fieldOptions, false);
 
 			addField(messageType, field);
 
 			localTypes.add(new LocalType(particle, wrapperType, messageType, field,
-					NamespaceHelper.xmlNamespaceToProtoPackage(targetNamespace, configuration.forceProtoPackage), enclosingType));
+					namespaceHelper.xmlNamespaceToProtoPackage(targetNamespace, configuration.forceProtoPackage), enclosingType));
 
 			processGroupAsSequence(particle, wrapperType, processedXmlObjects, schemaSet, children, enclosingName, targetNamespace, enclosingType);
 		}
@@ -1077,6 +1256,9 @@ public class SchemaParser implements ErrorHandler {
 
 				if (!addedValues.contains(enumValue)) {
 					addedValues.add(enumValue);
+					if (configuration.includeXsdOptions) {
+						optionElements.add(new OptionElement(XSD_VALUE_ENUM_VALUE_OPTION_NAME, OptionElement.Kind.STRING, enumValue, true));
+					}
 					constants.add(new EnumConstant(location, enumValue, counter++, doc, new Options(Options.ENUM_VALUE_OPTIONS, optionElements)));
 				}
 			}
@@ -1136,4 +1318,11 @@ public class SchemaParser implements ErrorHandler {
 	public List<LocalType> getLocalTypes() {
 		return localTypes;
 	}
+
+	/**
+	 * The local xsd files read by {@link #parse()}, ie the xsd file itself and all files it includes or imports.
+	 */
+	public Set<File> getSchemaDocumentFiles() {
+		return schemaDocumentFiles;
+	}
 }
@@ -0,0 +1,152 @@
+/*-
+ * #%L
+ * schema2proto-lib
+ * %%
+ * Copyright (C) 2019 - 2020 Entur
+ * %%
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl5
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * #L%
+ */
+package no.entur.schema2proto.generateproto;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import no.entur.schema2proto.InvalidConfigurationException;
+
+/**
+ * Converts an xsd file and then keeps converting it again whenever the file itself or any file it includes or imports changes. Changes arriving in quick
+ * succession, like an editor saving several files, are collected into a single conversion. A failing conversion is logged and the watcher keeps running.
+ */
+public class SchemaWatcher {
+	private static final Logger LOGGER = LoggerFactory.getLogger(SchemaWatcher.class);
+
+	private static final long DEBOUNCE_MILLIS = 200;
+
+	private final Schema2ProtoConfiguration configuration;
+
+	private final Map<Path, WatchKey> watchedDirectories = new HashMap<>();
+
+	private Set<Path> watchedFiles = new HashSet<>();
+
+	public SchemaWatcher(Schema2ProtoConfiguration configuration) {
+		this.configuration = configuration;
+	}
+
+	/**
+	 * Convert and watch until the thread is interrupted.
+	 */
+	public void watch() throws IOException, InterruptedException {
+		try (WatchService watchService = FileSystems.getDefault().newWatchService()) {
+			convert();
+			register(watchService);
+			LOGGER.info("Watching {} xsd files for changes", watchedFiles.size());
+
+			while (true) {
+				boolean changed = handleEvents(watchService.take());
+				WatchKey key;
+				while ((key = watchService.poll(DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+					changed |= handleEvents(key);
+				}
+				if (changed) {
+					convert();
+					register(watchService);
+				}
+			}
+		}
+	}
+
+	private void convert() {
+		long start = System.currentTimeMillis();
+		try {
+			Set<Path> files = new HashSet<>();
+			files.add(normalize(configuration.xsdFile));
+			for (File file : Schema2Proto.convert(configuration)) {
+				files.add(normalize(file));
+			}
+			watchedFiles = files;
+			LOGGER.info("Converted {} in {} ms", configuration.xsdFile, System.currentTimeMillis() - start);
+		} catch (IOException | InvalidConfigurationException | RuntimeException e) {
+			// Keep watching the previous set of files, the next change may fix the problem
+			watchedFiles.add(normalize(configuration.xsdFile));
+			LOGGER.error("Converting {} failed: {}", configuration.xsdFile, e.getMessage(), e);
+		}
+	}
+
+	private void register(WatchService watchService) throws IOException {
+		Set<Path> directories = new HashSet<>();
+		for (Path file : watchedFiles) {
+			directories.add(file.getParent());
+		}
+
+		Iterator<Map.Entry<Path, WatchKey>> registered = watchedDirectories.entrySet().iterator();
+		while (registered.hasNext()) {
+			Map.Entry<Path, WatchKey> entry = registered.next();
+			if (!directories.contains(entry.getKey())) {
+				entry.getValue().cancel();
+				registered.remove();
+			}
+		}
+		for (Path directory : directories) {
+			if (!watchedDirectories.containsKey(directory) && directory.toFile().isDirectory()) {
+				watchedDirectories.put(directory, directory.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE));
+			}
+		}
+	}
+
+	private boolean handleEvents(WatchKey key) {
+		Path directory = (Path) key.watchable();
+		boolean changed = false;
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (event.kind() == OVERFLOW) {
+				changed = true;
+			} else {
+				Path file = directory.resolve((Path) event.context());
+				if (watchedFiles.contains(file)) {
+					LOGGER.debug("{} changed", file);
+					changed = true;
+				}
+			}
+		}
+		if (!key.reset()) {
+			watchedDirectories.remove(directory);
+		}
+		return changed;
+	}
+
+	private static Path normalize(File file) {
+		return file.toPath().toAbsolutePath().normalize();
+	}
+}
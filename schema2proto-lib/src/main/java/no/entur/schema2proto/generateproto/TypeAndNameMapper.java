@@ -22,24 +22,45 @@
  */
 package no.entur.schema2proto.generateproto;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.regex.Matcher;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.CaseFormat;
+
 public class TypeAndNameMapper {
+	private static final Logger LOGGER = LoggerFactory.getLogger(TypeAndNameMapper.class);
+	private static final String UNDERSCORE = "_";
+	private static final String DASH = "-";
+	// Patterns are immutable, so the standard mappings are compiled once and shared by all mappers
+	private static final Map<Pattern, String> STANDARD_XSD_TYPE_MAPPINGS = Collections.unmodifiableMap(getStandardXsdTypeMappings());
+
 	private Map<Pattern, String> typeMappings = new LinkedHashMap<>();
 	private Map<Pattern, String> typeReplacing = new LinkedHashMap<>();
 	private Map<Pattern, String> nameMappings = new LinkedHashMap<>();
 	private Set<String> reservedJavaKeywords = new HashSet<>();
 	private List<FieldPath> ignoreFieldPaths;
 
+	// Compiled from the mappings above
+	private PatternMappings compiledTypeMappings;
+	private PatternMappings compiledTypeReplacing;
+	private PatternMappings compiledNameMappings;
+	private Map<String, String> protoFieldNames = new ConcurrentHashMap<>();
+
 	public TypeAndNameMapper(Schema2ProtoConfiguration configuration) {
-		typeReplacing.putAll(getStandardXsdTypeMappings());
+		typeReplacing.putAll(STANDARD_XSD_TYPE_MAPPINGS);
 		// From external
 		updateMappings(typeReplacing, configuration.customTypeReplacements);
 
@@ -53,6 +74,9 @@ public class TypeAndNameMapper {
 
 		this.ignoreFieldPaths = configuration.ignoreOutputFields;
 
+		compiledTypeMappings = new PatternMappings(typeMappings);
+		compiledTypeReplacing = new PatternMappings(typeReplacing);
+		compiledNameMappings = new PatternMappings(nameMappings);
 	}
 
 	private void updateMappings(Map<Pattern, String> existing, Map<Pattern, String> updated) {
@@ -70,7 +94,7 @@ public class TypeAndNameMapper {
 
 	}
 
-	private Map<Pattern, String> getStandardXsdTypeMappings() {
+	private static Map<Pattern, String> getStandardXsdTypeMappings() {
 		Map<Pattern, String> standardTypeMappings = new HashMap<>();
 
 		// From https://www.w3.org/TR/xmlschema-2/#d0e11239.
@@ -135,13 +159,7 @@ public class TypeAndNameMapper {
 
 	public String translateType(String type) {
 
-		for (Map.Entry<Pattern, String> p : typeMappings.entrySet()) {
-			Matcher m = p.getKey().matcher(type);
-			if (m.matches()) {
-				type = m.replaceAll(p.getValue());
-				break;
-			}
-		}
+		type = compiledTypeMappings.apply(type);
 
 		type = type.replace("-", "");
 
@@ -150,14 +168,7 @@ public class TypeAndNameMapper {
 	}
 
 	public String translateFieldName(String name) {
-		for (Pattern p : nameMappings.keySet()) {
-			Matcher m = p.matcher(name);
-			if (m.matches()) {
-				return m.replaceAll(nameMappings.get(p));
-			}
-		}
-
-		return name;
+		return compiledNameMappings.apply(name);
 	}
 
 	public String escapeFieldName(String fieldName) {
@@ -168,6 +179,95 @@ public class TypeAndNameMapper {
 		}
 	}
 
+	/**
+	 * Convert a field name to lower underscore format, ie myFieldName to my_field_name.
+	 */
+	public String underscoreFieldName(String fieldName) {
+		boolean startsWithUnderscore = fieldName.startsWith(UNDERSCORE);
+		boolean endsWithUnderscore = fieldName.endsWith(UNDERSCORE);
+
+		String strippedFieldName = StringUtils.removeEnd(StringUtils.removeStart(fieldName, UNDERSCORE), UNDERSCORE);
+
+		String newFieldName = CaseFormat.LOWER_CAMEL.to(CaseFormat.LOWER_UNDERSCORE, strippedFieldName);
+
+		// Remove all dashes
+		newFieldName = StringUtils.remove(newFieldName, DASH);
+
+		if (endsWithUnderscore) {
+			newFieldName += "u"; // Trailing underscore not accepted by protoc for java
+		}
+
+		if (startsWithUnderscore) {
+			newFieldName = UNDERSCORE + newFieldName;
+		}
+
+		return newFieldName;
+	}
+
+	/**
+	 * The name of the proto field generated from an xsd element or attribute. Applies the same translation, case change and escaping as the serializer.
+	 */
+	public String protoFieldName(String xmlName) {
+		String protoFieldName = protoFieldNames.get(xmlName);
+		if (protoFieldName == null) {
+			protoFieldName = escapeFieldName(underscoreFieldName(translateFieldName(xmlName)));
+			protoFieldNames.put(xmlName, protoFieldName);
+		}
+		return protoFieldName;
+	}
+
+	/**
+	 * The name of the enum constant generated from an xsd enumeration value, prefixed with the enum type name. A null value gives the name of the UNSPECIFIED
+	 * constant.
+	 */
+	public String enumConstantName(String enumName, String value) {
+		String enumValuePrefix = CaseFormat.LOWER_CAMEL.to(CaseFormat.UPPER_UNDERSCORE, enumName) + UNDERSCORE;
+		if (value == null) {
+			return enumValuePrefix + "UNSPECIFIED";
+		}
+
+		String enumValue = escapeEnumValue(value);
+		if (enumValue.equalsIgnoreCase("UNSPECIFIED")) {
+			enumValue = "UNSPECIFIED_ENUM_VALUE"; // Handle collision with UNSPECIFIED special value according to Google style guide
+		}
+		return enumValuePrefix + enumValue;
+	}
+
+	private String escapeEnumValue(String name) {
+		if (name.equals("")) {
+			return name;
+		}
+
+		try {
+			switch (name) {
+			case "+":
+				return "PLUS";
+			case "-":
+				return "MINUS";
+			default: {
+				// Replace any non standard characters with space
+				String transformationBasis = name.replaceAll("[^a-zA-Z0-9]+", " ").trim();
+				// Split by whitespace first
+				String[] parts = transformationBasis.split(" ");
+				List<String> modifiedParts = new ArrayList<>();
+				for (String part : parts) {
+					modifiedParts.addAll(Arrays.asList(StringUtils.splitByCharacterTypeCamelCase(part)));
+				}
+
+				// Join all parts by underscore
+				transformationBasis = StringUtils.join(modifiedParts, "_");
+
+				// Uppercase everything
+				return transformationBasis.toUpperCase();
+			}
+			}
+		} catch (Exception e) {
+			LOGGER.warn("Error escaping enum value {}, using original. May break proto file", name, e);
+			return name;
+		}
+
+	}
+
 	public boolean ignoreOutputField(String packageName, String messageName, String fieldName) {
 		for (FieldPath f : ignoreFieldPaths) {
 			if (f.matches(packageName, messageName, fieldName)) {
@@ -243,15 +343,6 @@ public class TypeAndNameMapper {
 	}
 
 	public String replaceType(String type) {
-		for (Map.Entry<Pattern, String> p : typeReplacing.entrySet()) {
-			Matcher m = p.getKey().matcher(type);
-			if (m.matches()) {
-				type = m.replaceAll(p.getValue());
-				break;
-			}
-		}
-
-		return type;
-
+		return compiledTypeReplacing.apply(type);
 	}
 }
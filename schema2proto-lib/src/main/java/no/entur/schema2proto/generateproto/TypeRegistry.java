@@ -22,11 +22,22 @@
  */
 package no.entur.schema2proto.generateproto;
 
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
 
 public class TypeRegistry {
+
+	private static final Set<String> BASIC_TYPES = Collections.unmodifiableSet(createBasicTypes());
+
+	/**
+	 * Returns the xsd built-in type names. The set is shared and cannot be modified.
+	 */
 	public static Set<String> getBasicTypes() {
+		return BASIC_TYPES;
+	}
+
+	private static Set<String> createBasicTypes() {
 
 		Set<String> basicTypes = new HashSet<>();
 		basicTypes.add("string");
@@ -34,12 +34,16 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
-import java.util.Optional;
 import java.util.Set;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.StringUtils;
@@ -67,7 +71,9 @@ import com.squareup.wire.schema.internal.parser.SyntaxReader;
 
 import no.entur.schema2proto.InvalidConfigurationException;
 import no.entur.schema2proto.compatibility.BackwardsCompatibilityCheckException;
+import no.entur.schema2proto.compatibility.CompatibilityReport;
 import no.entur.schema2proto.compatibility.ProtolockBackwardsCompatibilityChecker;
+import no.entur.schema2proto.compatibility.ProtolockWriter;
 import no.entur.schema2proto.modifyproto.config.FieldOption;
 import no.entur.schema2proto.modifyproto.config.MergeFrom;
 import no.entur.schema2proto.modifyproto.config.ModifyProtoConfiguration;
@@ -139,6 +145,8 @@ public class ModifyProto {
 			}
 
 			configuration.failIfRemovedFields = config.failIfRemovedFields;
+			configuration.updateProtoLockFile = config.updateProtoLockFile;
+			configuration.compatibilityReport = config.compatibilityReport;
 
 			if (config.customImportLocations != null) {
 				configuration.customImportLocations = new ArrayList<>(
@@ -156,13 +164,66 @@ public class ModifyProto {
 	}
 
 	public void modifyProto(ModifyProtoConfiguration configuration) throws IOException, InvalidProtobufException, InvalidConfigurationException {
-		SchemaLoader schemaLoader = new SchemaLoader();
+		modifyProto(configuration, loadSchema(configuration));
+	}
 
-		// Collect source proto files (but not dependencies). Used to know which files should be written to .proto and which that should remain a dependency.
-		Collection<File> protoFiles = FileUtils.listFiles(configuration.inputDirectory, new String[] { "proto" }, true);
-		List<String> protosLoaded = protoFiles.stream()
-				.map(e -> configuration.inputDirectory.toURI().relativize(e.toURI()).getPath())
-				.collect(Collectors.toList());
+	/**
+	 * Run several configurations. Configurations reading the same input directory and import locations share a single loaded schema; each configuration works
+	 * on its own pruned copy of it, so the configurations may be run in parallel. The first failing configuration (in list order) is rethrown after all
+	 * configurations have completed.
+	 */
+	public void modifyProto(List<ModifyProtoConfiguration> configurations, boolean parallel)
+			throws IOException, InvalidProtobufException, InvalidConfigurationException {
+
+		Map<List<File>, Schema> schemas = new HashMap<>();
+		List<Schema> schemaPerConfiguration = new ArrayList<>();
+		for (ModifyProtoConfiguration configuration : configurations) {
+			List<File> sourceFolders = sourceFolders(configuration);
+			Schema schema = schemas.get(sourceFolders);
+			if (schema == null) {
+				schema = loadSchema(configuration);
+				schemas.put(sourceFolders, schema);
+			}
+			schemaPerConfiguration.add(schema);
+		}
+
+		IntStream indexes = IntStream.range(0, configurations.size());
+		if (parallel) {
+			indexes = indexes.parallel();
+		}
+		List<Exception> failures = indexes.mapToObj(i -> {
+			try {
+				modifyProto(configurations.get(i), schemaPerConfiguration.get(i));
+				return null;
+			} catch (Exception e) {
+				return e;
+			}
+		}).collect(Collectors.toList());
+
+		for (Exception e : failures) {
+			if (e instanceof IOException) {
+				throw (IOException) e;
+			} else if (e instanceof InvalidProtobufException) {
+				throw (InvalidProtobufException) e;
+			} else if (e instanceof InvalidConfigurationException) {
+				throw (InvalidConfigurationException) e;
+			} else if (e != null) {
+				throw (RuntimeException) e;
+			}
+		}
+	}
+
+	private List<File> sourceFolders(ModifyProtoConfiguration configuration) throws IOException {
+		List<File> sourceFolders = new ArrayList<>();
+		for (String importRootFolder : configuration.customImportLocations) {
+			sourceFolders.add(new File(configuration.basedir, importRootFolder).getCanonicalFile());
+		}
+		sourceFolders.add(configuration.inputDirectory.getCanonicalFile());
+		return sourceFolders;
+	}
+
+	private Schema loadSchema(ModifyProtoConfiguration configuration) throws IOException {
+		SchemaLoader schemaLoader = new SchemaLoader();
 
 		for (String importRootFolder : configuration.customImportLocations) {
 			schemaLoader.addSource(new File(configuration.basedir, importRootFolder).toPath());
@@ -177,7 +238,17 @@ public class ModifyProto {
 			LOGGER.info("Linking proto {}", s);
 		}
 
-		Schema schema = schemaLoader.load();
+		return schemaLoader.load();
+	}
+
+	private void modifyProto(ModifyProtoConfiguration configuration, Schema schema)
+			throws IOException, InvalidProtobufException, InvalidConfigurationException {
+
+		// Collect source proto files (but not dependencies). Used to know which files should be written to .proto and which that should remain a dependency.
+		Collection<File> protoFiles = FileUtils.listFiles(configuration.inputDirectory, new String[] { "proto" }, true);
+		List<String> protosLoaded = protoFiles.stream()
+				.map(e -> configuration.inputDirectory.toURI().relativize(e.toURI()).getPath())
+				.collect(Collectors.toList());
 
 		// First run initial pruning, then look at the results and add referenced types from xsd.base_type
 
@@ -200,31 +271,27 @@ public class ModifyProto {
 			LOGGER.warn("Unused include: {} (already included elsewhere or explicitly excluded?) ", s);
 		}
 
-		for (NewField newField : configuration.newFields) {
-			addField(newField, prunedSchema);
-		}
+		addFields(configuration.newFields, prunedSchema);
 
-		for (NewEnumConstant newEnumValue : configuration.newEnumConstants) {
-			addEnumConstant(newEnumValue, prunedSchema);
-		}
+		addEnumConstants(configuration.newEnumConstants, prunedSchema);
 
-		for (MergeFrom mergeFrom : configuration.mergeFrom) {
-			mergeFromFile(mergeFrom, prunedSchema, configuration);
-		}
+		mergeFromFiles(configuration.mergeFrom, prunedSchema, configuration);
 
-		for (FieldOption fieldOption : configuration.fieldOptions) {
-			addFieldOption(fieldOption, prunedSchema);
-		}
+		addFieldOptions(configuration.fieldOptions, prunedSchema);
 
 		Set<Boolean> possibleIncompatibilitiesDetected = new HashSet<>();
 
-		if (configuration.protoLockFile != null) {
-			try {
-				ProtolockBackwardsCompatibilityChecker backwardsCompatibilityChecker = new ProtolockBackwardsCompatibilityChecker();
+		if (configuration.protoLockFile != null && configuration.updateProtoLockFile && !configuration.protoLockFile.exists()) {
+			LOGGER.info("No proto.lock file found at {}, skipping backwards compatibility check", configuration.protoLockFile.getPath());
+		} else if (configuration.protoLockFile != null) {
+			try (ProtolockBackwardsCompatibilityChecker backwardsCompatibilityChecker = new ProtolockBackwardsCompatibilityChecker()) {
 				backwardsCompatibilityChecker.init(configuration.protoLockFile);
 				ImmutableList<ProtoFile> files = prunedSchema.protoFiles();
 
-				files.stream().forEach(file -> possibleIncompatibilitiesDetected.add(backwardsCompatibilityChecker.resolveBackwardIncompatibilities(file)));
+				possibleIncompatibilitiesDetected.add(backwardsCompatibilityChecker.resolveBackwardIncompatibilities(files));
+				if (configuration.compatibilityReport) {
+					backwardsCompatibilityChecker.getReport().write(new File(configuration.outputDirectory, CompatibilityReport.DEFAULT_FILENAME));
+				}
 			} catch (FileNotFoundException e) {
 				throw new InvalidConfigurationException("Could not find proto.lock file, check configuration");
 			}
@@ -241,6 +308,7 @@ public class ModifyProto {
 				.map(p -> p.location().getPath())
 				.collect(Collectors.toSet());
 
+		ProtolockWriter protolockWriter = new ProtolockWriter();
 		protosLoaded.stream().map(prunedSchema::protoFile).filter(Objects::nonNull).filter(p -> !isEmptyFile(p)).forEach(file -> {
 			file.imports().removeIf(emptyImportLocations::contains);
 			file.publicImports().removeIf(emptyImportLocations::contains);
@@ -252,6 +320,7 @@ public class ModifyProto {
 				throw new RuntimeException(e);
 			}
 			LOGGER.info("Wrote file {}", outputFile.getPath());
+			protolockWriter.add(file.location().getPath(), file);
 
 		});
 
@@ -260,6 +329,10 @@ public class ModifyProto {
 					"Backwards incompatibilities detected. Check warnings messages above. To ignore warnings, rerun with -DfailIfRemovedFields=false");
 		}
 
+		if (configuration.protoLockFile != null && configuration.updateProtoLockFile) {
+			protolockWriter.write(configuration.protoLockFile);
+		}
+
 	}
 
 	private void includeGoPackageNameOptions(Collection<ProtoFile> protoFiles, String goPackageSourcePrefix) {
@@ -332,125 +405,215 @@ public class ModifyProto {
 
 	}
 
-	private void mergeFromFile(MergeFrom mergeFrom, Schema prunedSchema, ModifyProtoConfiguration configuration) throws IOException {
+	private void mergeFromFiles(List<MergeFrom> mergeFroms, Schema prunedSchema, ModifyProtoConfiguration configuration) throws IOException {
 
-		SchemaLoader schemaLoader = new SchemaLoader();
-
-		for (String importRootFolder : configuration.customImportLocations) {
-			schemaLoader.addSource(new File(configuration.basedir, importRootFolder).toPath());
+		// Load all files from the same source folder with a single loader, so that shared dependencies are only parsed and linked once
+		Map<File, List<MergeFrom>> mergeFromsPerSourceFolder = new LinkedHashMap<>();
+		for (MergeFrom mergeFrom : mergeFroms) {
+			File sourceFolder = mergeFrom.sourceFolder.isAbsolute() ? mergeFrom.sourceFolder
+					: new File(configuration.basedir, mergeFrom.sourceFolder.getPath());
+			mergeFromsPerSourceFolder.computeIfAbsent(sourceFolder, k -> new ArrayList<>()).add(mergeFrom);
 		}
 
-		if (mergeFrom.sourceFolder.isAbsolute()) {
-			schemaLoader.addSource(mergeFrom.sourceFolder);
-		} else {
-			schemaLoader.addSource(new File(configuration.basedir, mergeFrom.sourceFolder.getPath()));
-		}
+		Map<MergeFrom, ProtoFile> sources = new HashMap<>();
+		for (Map.Entry<File, List<MergeFrom>> entry : mergeFromsPerSourceFolder.entrySet()) {
+			SchemaLoader schemaLoader = new SchemaLoader();
 
-		if (configuration.inputDirectory.isAbsolute()) {
-			schemaLoader.addSource(configuration.inputDirectory);
-		} else {
-			schemaLoader.addSource(new File(configuration.basedir, configuration.inputDirectory.getPath()));
-		}
+			for (String importRootFolder : configuration.customImportLocations) {
+				schemaLoader.addSource(new File(configuration.basedir, importRootFolder).toPath());
+			}
 
-		schemaLoader.addProto(mergeFrom.protoFile);
+			schemaLoader.addSource(entry.getKey());
 
-		Schema schema = schemaLoader.load();
+			if (configuration.inputDirectory.isAbsolute()) {
+				schemaLoader.addSource(configuration.inputDirectory);
+			} else {
+				schemaLoader.addSource(new File(configuration.basedir, configuration.inputDirectory.getPath()));
+			}
 
-		ProtoFile source = schema.protoFile(mergeFrom.protoFile);
-		ProtoFile destination = prunedSchema.protoFileForPackage(source.packageName());
+			for (MergeFrom mergeFrom : entry.getValue()) {
+				schemaLoader.addProto(mergeFrom.protoFile);
+			}
 
-		if (destination == null) {
-			throw new IllegalArgumentException("Destination protofile not found");
-		} else {
-			destination.mergeFrom(source);
+			Schema schema = schemaLoader.load();
+			for (MergeFrom mergeFrom : entry.getValue()) {
+				sources.put(mergeFrom, schema.protoFile(mergeFrom.protoFile));
+			}
 		}
 
-	}
+		// Merge in configured order
+		for (MergeFrom mergeFrom : mergeFroms) {
+			ProtoFile source = sources.get(mergeFrom);
+			ProtoFile destination = prunedSchema.protoFileForPackage(source.packageName());
 
-	private void addEnumConstant(NewEnumConstant newEnumConstant, Schema prunedSchema) throws InvalidProtobufException {
-		Type targetEnumType = prunedSchema.getType(newEnumConstant.targetEnumType);
-		if (targetEnumType instanceof EnumType) {
-			List<OptionElement> optionElements = new ArrayList<>();
-			Options options = new Options(Options.ENUM_VALUE_OPTIONS, optionElements);
-			Location location = new Location("", "", -1, -1);
-			EnumConstant enumConstant = new EnumConstant(location, newEnumConstant.name, newEnumConstant.fieldNumber, newEnumConstant.documentation, options);
-			EnumType enumType = (EnumType) targetEnumType;
-			// Duplicate check
-			Optional<EnumConstant> existing = enumType.constants()
-					.stream()
-					.filter(e -> e.getName().equals(enumConstant.getName()) || e.getTag() == enumConstant.getTag())
-					.findFirst();
-			if (existing.isPresent()) {
-				throw new InvalidProtobufException("Enum constant already present: " + newEnumConstant);
+			if (destination == null) {
+				throw new IllegalArgumentException("Destination protofile not found");
 			} else {
-				enumType.constants().add(enumConstant);
+				destination.mergeFrom(source);
 			}
-		} else {
-			throw new InvalidProtobufException("Did not find existing enum " + newEnumConstant.targetEnumType);
 		}
+
 	}
 
-	private void addField(NewField newField, Schema prunedSchema) throws InvalidProtobufException {
+	private void addEnumConstants(List<NewEnumConstant> newEnumConstants, Schema prunedSchema) throws InvalidProtobufException {
+		Map<String, List<NewEnumConstant>> newEnumConstantsPerType = newEnumConstants.stream()
+				.collect(Collectors.groupingBy(e -> e.targetEnumType, LinkedHashMap::new, Collectors.toList()));
 
-		MessageType type = (MessageType) prunedSchema.getType(newField.targetMessageType);
-		if (type == null) {
-			throw new InvalidProtobufException("Did not find existing type " + newField.targetMessageType);
-		} else {
-
-			List<OptionElement> optionElements = new ArrayList<>();
-			Options options = new Options(Options.FIELD_OPTIONS, optionElements);
-			int tag = newField.fieldNumber;
+		for (Map.Entry<String, List<NewEnumConstant>> entry : newEnumConstantsPerType.entrySet()) {
+			Type targetEnumType = prunedSchema.getType(entry.getKey());
+			if (!(targetEnumType instanceof EnumType)) {
+				throw new InvalidProtobufException("Did not find existing enum " + entry.getKey());
+			}
+			EnumType enumType = (EnumType) targetEnumType;
 
-			String fieldPackage = StringUtils.substringBeforeLast(newField.type, ".");
+			// Index existing constants for duplicate checks
+			Set<String> names = new HashSet<>();
+			Set<Integer> tags = new HashSet<>();
+			for (EnumConstant existing : enumType.constants()) {
+				names.add(existing.getName());
+				tags.add(existing.getTag());
+			}
 
-			if (fieldPackage.equals(newField.type)) {
-				// no package
-				fieldPackage = null;
+			for (NewEnumConstant newEnumConstant : entry.getValue()) {
+				if (!names.add(newEnumConstant.name) | !tags.add(newEnumConstant.fieldNumber)) {
+					throw new InvalidProtobufException("Enum constant already present: " + newEnumConstant);
+				}
+				List<OptionElement> optionElements = new ArrayList<>();
+				Options options = new Options(Options.ENUM_VALUE_OPTIONS, optionElements);
+				Location location = new Location("", "", -1, -1);
+				enumType.constants().add(new EnumConstant(location, newEnumConstant.name, newEnumConstant.fieldNumber, newEnumConstant.documentation, options));
 			}
+		}
+	}
+
+	private void addFields(List<NewField> newFields, Schema prunedSchema) throws InvalidProtobufException {
+		Map<String, List<NewField>> newFieldsPerType = newFields.stream()
+				.collect(Collectors.groupingBy(e -> e.targetMessageType, LinkedHashMap::new, Collectors.toList()));
 
-			Field.Label label = null;
-			if (StringUtils.trimToNull(newField.label) != null) {
-				label = Field.Label.valueOf(newField.label.toUpperCase());
+		for (Map.Entry<String, List<NewField>> entry : newFieldsPerType.entrySet()) {
+			MessageType type = (MessageType) prunedSchema.getType(entry.getKey());
+			if (type == null) {
+				throw new InvalidProtobufException("Did not find existing type " + entry.getKey());
 			}
-			Location location = new Location("", "", -1, -1);
 
-			Field field = new Field(fieldPackage, location, label, newField.name, StringUtils.trimToEmpty(newField.documentation), tag, null, newField.type,
-					options, false, false);
 			List<Field> updatedFields = new ArrayList<>(type.fields());
-			updatedFields.add(field);
+			ProtoFile targetFile = null;
+			for (NewField newField : entry.getValue()) {
+				updatedFields.add(createField(newField));
+
+				String importStatement = StringUtils.trimToNull(newField.importProto);
+				if (importStatement != null) {
+					if (targetFile == null) {
+						targetFile = targetFile(newField.targetMessageType, prunedSchema);
+					}
+					if (!targetFile.imports().contains(importStatement)) {
+						targetFile.imports().add(importStatement);
+					}
+				}
+			}
 			type.setDeclaredFields(updatedFields);
+		}
+	}
 
-			String importStatement = StringUtils.trimToNull(newField.importProto);
+	private Field createField(NewField newField) {
+		List<OptionElement> optionElements = new ArrayList<>();
+		Options options = new Options(Options.FIELD_OPTIONS, optionElements);
+		int tag = newField.fieldNumber;
 
-			if (importStatement != null) {
-				String targetPackageName = StringUtils.trimToNull(StringUtils.substringBeforeLast(newField.targetMessageType, "."));
-				ProtoFile targetFile = prunedSchema.protoFileForPackage(targetPackageName);
-				if (newField.targetMessageType.equals(targetPackageName)) {
-					// no package name on target
-					targetFile = prunedSchema.protoFileForPackage(null);
-				}
-				targetFile.imports().add(importStatement);
-			}
+		String fieldPackage = StringUtils.substringBeforeLast(newField.type, ".");
+
+		if (fieldPackage.equals(newField.type)) {
+			// no package
+			fieldPackage = null;
+		}
 
+		Field.Label label = null;
+		if (StringUtils.trimToNull(newField.label) != null) {
+			label = Field.Label.valueOf(newField.label.toUpperCase());
 		}
+		Location location = new Location("", "", -1, -1);
+
+		return new Field(fieldPackage, location, label, newField.name, StringUtils.trimToEmpty(newField.documentation), tag, null, newField.type, options,
+				false, false);
+	}
 
+	private ProtoFile targetFile(String targetMessageType, Schema prunedSchema) {
+		String targetPackageName = StringUtils.trimToNull(StringUtils.substringBeforeLast(targetMessageType, "."));
+		if (targetMessageType.equals(targetPackageName)) {
+			// no package name on target
+			return prunedSchema.protoFileForPackage(null);
+		}
+		return prunedSchema.protoFileForPackage(targetPackageName);
 	}
 
 	public void addFieldOption(FieldOption fieldOption, Schema prunedSchema) throws InvalidProtobufException {
-		MessageType type = (MessageType) prunedSchema.getType(fieldOption.targetMessageType);
-		if (type == null) {
-			throw new InvalidProtobufException("Did not find existing type " + fieldOption.targetMessageType);
+		addFieldOptions(Collections.singletonList(fieldOption), prunedSchema);
+	}
+
+	public void addFieldOptions(List<FieldOption> fieldOptions, Schema prunedSchema) throws InvalidProtobufException {
+		// Resolve target fields, indexing the fields of each target type once
+		Map<String, Map<String, Field>> fieldsPerType = new HashMap<>();
+		List<Field> targetFields = new ArrayList<>();
+		List<String> options = new ArrayList<>();
+		List<Integer> lastLines = new ArrayList<>();
+		StringBuilder optionSource = new StringBuilder();
+		int line = 0;
+		for (FieldOption fieldOption : fieldOptions) {
+			Map<String, Field> fields = fieldsPerType.get(fieldOption.targetMessageType);
+			if (fields == null) {
+				MessageType type = (MessageType) prunedSchema.getType(fieldOption.targetMessageType);
+				if (type == null) {
+					throw new InvalidProtobufException("Did not find existing type " + fieldOption.targetMessageType);
+				}
+				fields = new HashMap<>();
+				for (Field field : type.fieldsAndOneOfFields()) {
+					if (!field.isExtension()) {
+						fields.putIfAbsent(field.name(), field);
+					}
+				}
+				fieldsPerType.put(fieldOption.targetMessageType, fields);
+			}
+			Field field = fields.get(fieldOption.field);
+			if (field == null) {
+				throw new InvalidProtobufException("Did not find existing field " + fieldOption.field);
+			}
+			if (StringUtils.isEmpty(fieldOption.option)) {
+				throw new InvalidProtobufException("Missing option for field " + fieldOption.field);
+			}
+			String option = fieldOption.option.trim();
+			if (!option.startsWith("[")) {
+				LOGGER.warn("Ignoring option {} for field {}, options must be enclosed in '[' and ']'", option, fieldOption.field);
+				continue;
+			}
+			targetFields.add(field);
+			options.add(option);
+			line += 1 + StringUtils.countMatches(option, '\n');
+			lastLines.add(line);
+			optionSource.append(option).append('\n');
 		}
-		Field field = type.field(fieldOption.field);
-		if (field == null) {
-			throw new InvalidProtobufException("Did not find existing field " + fieldOption.field);
+		// Marks the end of the last option
+		optionSource.append(';');
+
+		// Parse all options in one pass, one line per field option
+		SyntaxReader syntaxReader = new SyntaxReader(optionSource.toString().toCharArray(), Location.get("fieldOptions"));
+		OptionReader reader = new OptionReader(syntaxReader);
+		List<List<OptionElement>> parsedOptions = new ArrayList<>();
+		for (int i = 0; i < targetFields.size(); i++) {
+			try {
+				parsedOptions.add(reader.readOptions());
+				// Anything but whitespace and comments after the option would be read as the option of the next field
+				syntaxReader.peekChar();
+			} catch (IllegalStateException e) {
+				throw new InvalidProtobufException("Invalid option " + options.get(i) + " for field " + targetFields.get(i).name() + ": " + e.getMessage());
+			}
+			if (syntaxReader.location().getLine() <= lastLines.get(i)) {
+				throw new InvalidProtobufException("Unexpected text after option " + options.get(i) + " for field " + targetFields.get(i).name());
+			}
 		}
-		if (StringUtils.isEmpty(fieldOption.option)) {
-			throw new InvalidProtobufException("Missing option for field " + fieldOption.field);
+		for (int i = 0; i < targetFields.size(); i++) {
+			Field field = targetFields.get(i);
+			parsedOptions.get(i).forEach(option -> field.options().add(option));
 		}
-		OptionReader reader = new OptionReader(new SyntaxReader(fieldOption.option.toCharArray(), null));
-		reader.readOptions().forEach(option -> field.options().add(option));
-
 	}
 
 }
@@ -42,6 +42,8 @@ public class ModifyProtoConfigFile {
 	public List<FieldOption> fieldOptions;
 	public String protoLockFile;
 	public boolean failIfRemovedFields = true;
+	public boolean updateProtoLockFile = false;
+	public boolean compatibilityReport = false;
 	public boolean includeGoPackageOptions = false;
 	public String goPackageSourcePrefix = null;
 }
@@ -40,6 +40,8 @@ public class ModifyProtoConfiguration {
 	public boolean includeBaseTypes = false;
 	public File protoLockFile;
 	public boolean failIfRemovedFields = true;
+	public boolean updateProtoLockFile = false;
+	public boolean compatibilityReport = false;
 	public boolean includeGoPackageOptions = false;
 	public String goPackageSourcePrefix = null;
 
@@ -0,0 +1,422 @@
+/*-
+ * #%L
+ * schema2proto-lib
+ * %%
+ * Copyright (C) 2019 Entur
+ * %%
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl5
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * #L%
+ */
+package no.entur.schema2proto.transcode;
+
+import static no.entur.schema2proto.generateproto.SchemaParser.SIMPLECONTENT_VALUE_FIELD_NAME;
+import static no.entur.schema2proto.generateproto.SchemaParser.XSD_ATTRIBUTE_FIELD_OPTION_NAME;
+import static no.entur.schema2proto.generateproto.SchemaParser.XSD_NAMESPACE_FIELD_OPTION_NAME;
+import static no.entur.schema2proto.generateproto.SchemaParser.XSD_NAME_FIELD_OPTION_NAME;
+import static no.entur.schema2proto.generateproto.SchemaParser.XSD_TYPE_FIELD_OPTION_NAME;
+import static no.entur.schema2proto.generateproto.SchemaParser.XSD_VALUE_ENUM_VALUE_OPTION_NAME;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import com.squareup.wire.FieldEncoding;
+import com.squareup.wire.ProtoAdapter;
+import com.squareup.wire.ProtoReader;
+import com.squareup.wire.schema.EnumConstant;
+import com.squareup.wire.schema.EnumType;
+import com.squareup.wire.schema.Field;
+import com.squareup.wire.schema.MessageType;
+import com.squareup.wire.schema.Options;
+import com.squareup.wire.schema.ProtoType;
+import com.squareup.wire.schema.Schema;
+import com.squareup.wire.schema.Type;
+import com.squareup.wire.schema.internal.parser.OptionElement;
+
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.ByteString;
+import okio.Okio;
+
+/**
+ * Writes protobuf messages as xml instance documents, the inverse of {@link XmlToProtoTranscoder}. The proto files must be generated with
+ * {@code includeXsdOptions}, as element and attribute names, enumeration values and date and time formats are restored from the xsd options schema2proto adds
+ * to fields and enum constants.
+ *
+ * <p>
+ * Messages are written in one pass with StAX without building an object tree. Fields without an xml name are wrappers or simple content: wrapper content is
+ * written inline in the enclosing element and simple content as text. Elements are written in the namespace of the package of the message declaring their
+ * field, or the namespace in the field's xsd option for references to elements of other schemas.
+ *
+ * <p>
+ * Attributes must be written before child elements. schema2proto numbers attribute fields before element fields, so attributes are written as they are read and
+ * the element content is streamed after them. Only if an attribute field may still follow element content, as with attributes added by an extension of a type
+ * with elements, is the rest of the message read into memory first.
+ *
+ * <p>
+ * Instances cache field lookups and are not thread safe.
+ */
+public class ProtoToXmlWriter {
+
+	private static final Map<ProtoType, ProtoAdapter<?>> SCALAR_ADAPTERS = new HashMap<>();
+
+	static {
+		SCALAR_ADAPTERS.put(ProtoType.BOOL, ProtoAdapter.BOOL);
+		SCALAR_ADAPTERS.put(ProtoType.BYTES, ProtoAdapter.BYTES);
+		SCALAR_ADAPTERS.put(ProtoType.DOUBLE, ProtoAdapter.DOUBLE);
+		SCALAR_ADAPTERS.put(ProtoType.FLOAT, ProtoAdapter.FLOAT);
+		SCALAR_ADAPTERS.put(ProtoType.FIXED32, ProtoAdapter.FIXED32);
+		SCALAR_ADAPTERS.put(ProtoType.FIXED64, ProtoAdapter.FIXED64);
+		SCALAR_ADAPTERS.put(ProtoType.INT32, ProtoAdapter.INT32);
+		SCALAR_ADAPTERS.put(ProtoType.INT64, ProtoAdapter.INT64);
+		SCALAR_ADAPTERS.put(ProtoType.SFIXED32, ProtoAdapter.SFIXED32);
+		SCALAR_ADAPTERS.put(ProtoType.SFIXED64, ProtoAdapter.SFIXED64);
+		SCALAR_ADAPTERS.put(ProtoType.SINT32, ProtoAdapter.SINT32);
+		SCALAR_ADAPTERS.put(ProtoType.SINT64, ProtoAdapter.SINT64);
+		SCALAR_ADAPTERS.put(ProtoType.STRING, ProtoAdapter.STRING);
+		SCALAR_ADAPTERS.put(ProtoType.UINT32, ProtoAdapter.UINT32);
+		SCALAR_ADAPTERS.put(ProtoType.UINT64, ProtoAdapter.UINT64);
+	}
+
+	private final Schema schema;
+	private final Map<String, String> namespacesByPackage;
+	private final XMLOutputFactory xmlOutputFactory = XMLOutputFactory.newInstance();
+
+	private final Map<ProtoType, Map<Integer, XmlField>> fieldsPerType = new HashMap<>();
+	private final Map<ProtoType, Boolean> hasAttributesPerType = new HashMap<>();
+	private final Map<ProtoType, Integer> lastAttributeTagPerType = new HashMap<>();
+	private final Map<ProtoType, String> namespacePerType = new HashMap<>();
+
+	/**
+	 * @param namespacesByPackage xml namespace of the elements of each proto package
+	 */
+	public ProtoToXmlWriter(Schema schema, Map<String, String> namespacesByPackage) {
+		this.schema = schema;
+		this.namespacesByPackage = namespacesByPackage;
+	}
+
+	/**
+	 * Write a message of type {@code rootTypeName} as a document with root element {@code rootElementName}.
+	 */
+	public void write(InputStream protobuf, String rootTypeName, String rootElementName, OutputStream xml) throws IOException, XMLStreamException {
+		XMLStreamWriter writer = xmlOutputFactory.createXMLStreamWriter(xml, StandardCharsets.UTF_8.name());
+		try {
+			writer.writeStartDocument(StandardCharsets.UTF_8.name(), "1.0");
+			write(Okio.buffer(Okio.source(protobuf)), rootTypeName, rootElementName, writer);
+			writer.writeEndDocument();
+			writer.flush();
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Write a message of type {@code rootTypeName}, read from {@code source}, as element {@code rootElementName}.
+	 */
+	public void write(BufferedSource source, String rootTypeName, String rootElementName, XMLStreamWriter writer) throws IOException, XMLStreamException {
+		Type type = schema.getType(rootTypeName);
+		if (!(type instanceof MessageType)) {
+			throw new IllegalArgumentException("unknown message type " + rootTypeName);
+		}
+		MessageType rootType = (MessageType) type;
+
+		String namespace = namespace(rootType);
+		startElement(writer, null, rootElementName, namespace);
+		writeMessage(writer, namespace, rootType, new ProtoReader(source));
+		writer.writeEndElement();
+	}
+
+	private void startElement(XMLStreamWriter writer, String parentNamespace, String name, String namespace) throws XMLStreamException {
+		writer.writeStartElement("", name, namespace);
+		if (!namespace.equals(parentNamespace)) {
+			writer.writeDefaultNamespace(namespace);
+		}
+	}
+
+	/**
+	 * Write the attributes and content of a message whose start element has been written.
+	 */
+	private void writeMessage(XMLStreamWriter writer, String namespace, MessageType messageType, ProtoReader reader) throws IOException, XMLStreamException {
+		if (!hasAttributes(messageType)) {
+			writeContent(writer, namespace, messageType, reader);
+			return;
+		}
+
+		Map<String, StringBuilder> attributes = new LinkedHashMap<>();
+		long token = reader.beginMessage();
+		int tag;
+		XmlField xmlField = null;
+		while ((tag = reader.nextTag()) != -1) {
+			xmlField = fields(messageType).get(tag);
+			if (xmlField == null) {
+				reader.skip();
+			} else if (xmlField.attribute) {
+				addAttribute(attributes, xmlField, readText(reader, xmlField));
+			} else {
+				break;
+			}
+		}
+
+		if (tag == -1) {
+			writeAttributes(writer, attributes);
+			reader.endMessage(token);
+		} else if (tag > lastAttributeTag(messageType)) {
+			writeAttributes(writer, attributes);
+			do {
+				xmlField = fields(messageType).get(tag);
+				if (xmlField != null && xmlField.attribute) {
+					throw new TranscodingException("Attribute field " + xmlField.field.qualifiedName() + " after element content");
+				}
+				writeField(writer, namespace, messageType, xmlField, reader);
+			} while ((tag = reader.nextTag()) != -1);
+			reader.endMessage(token);
+		} else {
+			// An attribute field may follow, keep the content until all attributes are read
+			do {
+				xmlField = fields(messageType).get(tag);
+				if (xmlField != null && xmlField.attribute) {
+					addAttribute(attributes, xmlField, readText(reader, xmlField));
+				} else if (xmlField != null && xmlField.name == null && xmlField.type instanceof MessageType && hasAttributes((MessageType) xmlField.type)) {
+					ByteString wrapper = reader.readBytes();
+					collectAttributes((MessageType) xmlField.type, wrapper, attributes);
+					reader.addUnknownField(tag, FieldEncoding.LENGTH_DELIMITED, wrapper);
+				} else {
+					reader.readUnknownField(tag);
+				}
+			} while ((tag = reader.nextTag()) != -1);
+			ByteString content = reader.endMessageAndGetUnknownFields(token);
+
+			writeAttributes(writer, attributes);
+			writeContent(writer, namespace, messageType, new ProtoReader(new Buffer().write(content)));
+		}
+	}
+
+	private static void addAttribute(Map<String, StringBuilder> attributes, XmlField xmlField, String value) {
+		StringBuilder existing = attributes.get(xmlField.name);
+		if (existing == null) {
+			attributes.put(xmlField.name, new StringBuilder(value));
+		} else {
+			// List types
+			existing.append(' ').append(value);
+		}
+	}
+
+	private static void writeAttributes(XMLStreamWriter writer, Map<String, StringBuilder> attributes) throws XMLStreamException {
+		for (Map.Entry<String, StringBuilder> attribute : attributes.entrySet()) {
+			writer.writeAttribute(attribute.getKey(), attribute.getValue().toString());
+		}
+	}
+
+	private void collectAttributes(MessageType messageType, ByteString content, Map<String, StringBuilder> attributes) throws IOException {
+		ProtoReader reader = new ProtoReader(new Buffer().write(content));
+		long token = reader.beginMessage();
+		for (int tag; (tag = reader.nextTag()) != -1;) {
+			XmlField xmlField = fields(messageType).get(tag);
+			if (xmlField != null && xmlField.attribute) {
+				addAttribute(attributes, xmlField, readText(reader, xmlField));
+			} else if (xmlField != null && xmlField.name == null && xmlField.type instanceof MessageType) {
+				collectAttributes((MessageType) xmlField.type, reader.readBytes(), attributes);
+			} else {
+				reader.skip();
+			}
+		}
+		reader.endMessage(token);
+	}
+
+	/**
+	 * Write the element content of a message, skipping attribute fields.
+	 */
+	private void writeContent(XMLStreamWriter writer, String namespace, MessageType messageType, ProtoReader reader) throws IOException, XMLStreamException {
+		long token = reader.beginMessage();
+		for (int tag; (tag = reader.nextTag()) != -1;) {
+			XmlField xmlField = fields(messageType).get(tag);
+			if (xmlField != null && xmlField.attribute) {
+				reader.skip();
+			} else {
+				writeField(writer, namespace, messageType, xmlField, reader);
+			}
+		}
+		reader.endMessage(token);
+	}
+
+	/**
+	 * Write a field of {@code messageType} in the element of namespace {@code namespace}.
+	 */
+	private void writeField(XMLStreamWriter writer, String namespace, MessageType messageType, XmlField xmlField, ProtoReader reader)
+			throws IOException, XMLStreamException {
+		if (xmlField == null) {
+			reader.skip();
+		} else if (xmlField.name == null && xmlField.type instanceof MessageType) {
+			writeContent(writer, namespace, (MessageType) xmlField.type, reader);
+		} else if (xmlField.name == null) {
+			writer.writeCharacters(readText(reader, xmlField));
+		} else {
+			String elementNamespace = xmlField.namespace != null ? xmlField.namespace : namespace(messageType);
+			startElement(writer, namespace, xmlField.name, elementNamespace);
+			if (xmlField.type instanceof MessageType) {
+				writeMessage(writer, elementNamespace, (MessageType) xmlField.type, reader);
+			} else {
+				writer.writeCharacters(readText(reader, xmlField));
+			}
+			writer.writeEndElement();
+		}
+	}
+
+	private String readText(ProtoReader reader, XmlField xmlField) throws IOException {
+		if (xmlField.type instanceof EnumType) {
+			int value = reader.readVarint32();
+			EnumConstant constant = ((EnumType) xmlField.type).constant(value);
+			if (constant == null) {
+				return Integer.toString(value);
+			}
+			String literal = optionValue(constant.getOptions(), XSD_VALUE_ENUM_VALUE_OPTION_NAME);
+			return literal != null ? literal : constant.getName();
+		}
+
+		ProtoType protoType = xmlField.field.type();
+		Object value = SCALAR_ADAPTERS.get(protoType).decode(reader);
+		if (xmlField.xsdType != null) {
+			switch (xmlField.xsdType) {
+			case "dateTime":
+				return Instant.ofEpochMilli(((Number) value).longValue()).toString();
+			case "date":
+				return LocalDate.ofEpochDay(((Number) value).longValue()).toString();
+			case "time":
+				return DateTimeFormatter.ISO_LOCAL_TIME.format(LocalTime.ofNanoOfDay(((Number) value).longValue() * 1_000_000));
+			case "hexBinary":
+				return ((ByteString) value).hex().toUpperCase();
+			default:
+				break;
+			}
+		}
+
+		if (value instanceof ByteString) {
+			return ((ByteString) value).base64();
+		} else if (ProtoType.UINT32.equals(protoType) || ProtoType.FIXED32.equals(protoType)) {
+			return Integer.toUnsignedString((Integer) value);
+		} else if (ProtoType.UINT64.equals(protoType) || ProtoType.FIXED64.equals(protoType)) {
+			return Long.toUnsignedString((Long) value);
+		}
+		return String.valueOf(value);
+	}
+
+	private Map<Integer, XmlField> fields(MessageType messageType) {
+		Map<Integer, XmlField> fields = fieldsPerType.get(messageType.type());
+		if (fields == null) {
+			fields = new HashMap<>();
+			for (Field field : messageType.fieldsAndOneOfFields()) {
+				XmlField xmlField = new XmlField(field, schema.getType(field.type()));
+				if (xmlField.name == null && !(xmlField.type instanceof MessageType) && !SIMPLECONTENT_VALUE_FIELD_NAME.equals(field.name())) {
+					throw new TranscodingException("Field " + field.qualifiedName() + " has no " + XSD_NAME_FIELD_OPTION_NAME
+							+ " option, generate proto files with includeXsdOptions=true");
+				}
+				fields.put(field.tag(), xmlField);
+			}
+			fieldsPerType.put(messageType.type(), fields);
+		}
+		return fields;
+	}
+
+	private boolean hasAttributes(MessageType messageType) {
+		Boolean hasAttributes = hasAttributesPerType.get(messageType.type());
+		if (hasAttributes == null) {
+			// Guard against recursive inline types
+			hasAttributesPerType.put(messageType.type(), false);
+			hasAttributes = false;
+			for (XmlField xmlField : fields(messageType).values()) {
+				if (xmlField.attribute || (xmlField.name == null && xmlField.type instanceof MessageType && hasAttributes((MessageType) xmlField.type))) {
+					hasAttributes = true;
+					break;
+				}
+			}
+			hasAttributesPerType.put(messageType.type(), hasAttributes);
+		}
+		return hasAttributes;
+	}
+
+	/**
+	 * The highest tag of an attribute field of {@code messageType}, including wrappers holding attributes, or -1.
+	 */
+	private int lastAttributeTag(MessageType messageType) {
+		return lastAttributeTagPerType.computeIfAbsent(messageType.type(), protoType -> {
+			int lastAttributeTag = -1;
+			for (XmlField xmlField : fields(messageType).values()) {
+				if (xmlField.attribute || (xmlField.name == null && xmlField.type instanceof MessageType && hasAttributes((MessageType) xmlField.type))) {
+					lastAttributeTag = Math.max(lastAttributeTag, xmlField.field.tag());
+				}
+			}
+			return lastAttributeTag;
+		});
+	}
+
+	private String namespace(MessageType messageType) {
+		return namespacePerType.computeIfAbsent(messageType.type(), protoType -> {
+			String typeName = protoType.toString();
+			String namespace = null;
+			int longestMatch = -1;
+			for (Map.Entry<String, String> entry : namespacesByPackage.entrySet()) {
+				String packageName = entry.getKey();
+				if (typeName.startsWith(packageName + ".") && packageName.length() > longestMatch) {
+					namespace = entry.getValue();
+					longestMatch = packageName.length();
+				}
+			}
+			if (namespace == null) {
+				throw new TranscodingException("No xml namespace for " + typeName);
+			}
+			return namespace;
+		});
+	}
+
+	private static String optionValue(Options options, String optionName) {
+		for (OptionElement optionElement : options.getOptionElements()) {
+			if (optionElement.getName().equals(optionName)) {
+				return String.valueOf(optionElement.getValue());
+			}
+		}
+		return null;
+	}
+
+	private static class XmlField {
+		final Field field;
+		final Type type;
+		final String name;
+		final boolean attribute;
+		final String namespace;
+		final String xsdType;
+
+		XmlField(Field field, Type type) {
+			this.field = field;
+			this.type = type;
+			this.name = optionValue(field.options(), XSD_NAME_FIELD_OPTION_NAME);
+			this.attribute = Boolean.parseBoolean(optionValue(field.options(), XSD_ATTRIBUTE_FIELD_OPTION_NAME));
+			this.namespace = optionValue(field.options(), XSD_NAMESPACE_FIELD_OPTION_NAME);
+			this.xsdType = optionValue(field.options(), XSD_TYPE_FIELD_OPTION_NAME);
+		}
+	}
+}
@@ -0,0 +1,217 @@
+/*-
+ * #%L
+ * schema2proto-lib
+ * %%
+ * Copyright (C) 2019 Entur
+ * %%
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl5
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * #L%
+ */
+package no.entur.schema2proto.transcode;
+
+import static no.entur.schema2proto.generateproto.SchemaParser.ATTRIBUTE_FIELD_PREFIX;
+import static no.entur.schema2proto.generateproto.SchemaParser.CHOICE_WRAPPER_PREFIX;
+import static no.entur.schema2proto.generateproto.SchemaParser.SEQUENCE_WRAPPER_PREFIX;
+import static no.entur.schema2proto.generateproto.SchemaParser.SIMPLECONTENT_VALUE_FIELD_NAME;
+import static no.entur.schema2proto.generateproto.SchemaParser.XSD_NAME_FIELD_OPTION_NAME;
+import static no.entur.schema2proto.generateproto.SchemaParser.XSD_TYPE_FIELD_OPTION_NAME;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.squareup.wire.schema.EnumConstant;
+import com.squareup.wire.schema.EnumType;
+import com.squareup.wire.schema.Field;
+import com.squareup.wire.schema.MessageType;
+import com.squareup.wire.schema.ProtoType;
+import com.squareup.wire.schema.Schema;
+import com.squareup.wire.schema.Type;
+import com.squareup.wire.schema.internal.parser.OptionElement;
+
+import no.entur.schema2proto.generateproto.TypeAndNameMapper;
+
+/**
+ * Resolves xml element, attribute and enumeration names to the fields and enum constants schema2proto generated for them. Names are mapped with the same rules
+ * as the serializer uses, so the mapper must be created from the configuration the proto files were generated with. Lookups are cached per type.
+ */
+class XmlProtoMapping {
+	static final String XSD_DATE_TIME = "dateTime";
+	static final String XSD_DATE = "date";
+	static final String XSD_TIME = "time";
+	static final String XSD_HEX_BINARY = "hexBinary";
+
+	private static final Set<String> TEMPORAL_TYPES = new HashSet<>(Arrays.asList(XSD_DATE_TIME, XSD_DATE, XSD_TIME));
+
+	private final Schema schema;
+	private final TypeAndNameMapper typeAndNameMapper;
+
+	private final Map<ProtoType, Map<String, List<Field>>> elementPathsPerType = new HashMap<>();
+	private final Map<ProtoType, Map<String, Field>> attributeFieldsPerType = new HashMap<>();
+	private final Map<ProtoType, Map<String, Integer>> enumValuesPerType = new HashMap<>();
+	private final Map<Field, Set<String>> temporalTypesPerField = new HashMap<>();
+
+	XmlProtoMapping(Schema schema, TypeAndNameMapper typeAndNameMapper) {
+		this.schema = schema;
+		this.typeAndNameMapper = typeAndNameMapper;
+	}
+
+	MessageType messageType(String typeName) {
+		Type type = schema.getType(typeName);
+		if (!(type instanceof MessageType)) {
+			throw new IllegalArgumentException("unknown message type " + typeName);
+		}
+		return (MessageType) type;
+	}
+
+	Type type(Field field) {
+		return schema.getType(field.type());
+	}
+
+	/**
+	 * Fields leading from {@code messageType} to the field of element {@code elementName}. All but the last field are sequence or choice wrappers. Returns null
+	 * if the element is not mapped.
+	 */
+	List<Field> elementPath(MessageType messageType, String elementName) {
+		Map<String, List<Field>> elementPaths = elementPathsPerType.computeIfAbsent(messageType.type(), k -> new HashMap<>());
+		if (!elementPaths.containsKey(elementName)) {
+			elementPaths.put(elementName, findElementPath(messageType, typeAndNameMapper.protoFieldName(elementName)));
+		}
+		return elementPaths.get(elementName);
+	}
+
+	private List<Field> findElementPath(MessageType messageType, String fieldName) {
+		Field field = messageType.field(fieldName);
+		if (field != null) {
+			Type type = type(field);
+			if (isWrapper(type)) {
+				// Repeated choices are wrapped in a field named after the element
+				List<Field> wrapped = findElementPath((MessageType) type, fieldName);
+				if (wrapped != null) {
+					return prepend(field, wrapped);
+				}
+			}
+			return Collections.singletonList(field);
+		}
+
+		for (Field wrapperField : messageType.fieldsAndOneOfFields()) {
+			Type type = type(wrapperField);
+			if (isWrapper(type)) {
+				List<Field> wrapped = findElementPath((MessageType) type, fieldName);
+				if (wrapped != null) {
+					return prepend(wrapperField, wrapped);
+				}
+			}
+		}
+		return null;
+	}
+
+	private static List<Field> prepend(Field field, List<Field> fields) {
+		List<Field> path = new ArrayList<>(fields.size() + 1);
+		path.add(field);
+		path.addAll(fields);
+		return path;
+	}
+
+	/**
+	 * The field of attribute {@code attributeName}, or null if the attribute is not mapped. Attributes colliding with an element name are prefixed.
+	 */
+	Field attributeField(MessageType messageType, String attributeName) {
+		Map<String, Field> attributeFields = attributeFieldsPerType.computeIfAbsent(messageType.type(), k -> new HashMap<>());
+		if (!attributeFields.containsKey(attributeName)) {
+			Field field = messageType.field(typeAndNameMapper.protoFieldName(ATTRIBUTE_FIELD_PREFIX + attributeName));
+			if (field == null) {
+				field = messageType.field(typeAndNameMapper.protoFieldName(attributeName));
+			}
+			attributeFields.put(attributeName, field);
+		}
+		return attributeFields.get(attributeName);
+	}
+
+	/**
+	 * The field holding the text content of a complex type with simple content, or null.
+	 */
+	Field valueField(MessageType messageType) {
+		return messageType.field(SIMPLECONTENT_VALUE_FIELD_NAME);
+	}
+
+	/**
+	 * The xsd date and time types whose values may be written to {@code field}, empty if the field holds plain numbers. Fields generated with
+	 * {@code includeXsdOptions} carry their xsd type in an option. Without options the standard type mapping decides: dateTime and time values map to uint64,
+	 * date values to uint32.
+	 */
+	Set<String> temporalTypes(Field field) {
+		return temporalTypesPerField.computeIfAbsent(field, f -> {
+			String xsdType = optionValue(f, XSD_TYPE_FIELD_OPTION_NAME);
+			if (xsdType != null) {
+				return TEMPORAL_TYPES.contains(xsdType) ? Collections.singleton(xsdType) : Collections.emptySet();
+			} else if (optionValue(f, XSD_NAME_FIELD_OPTION_NAME) != null) {
+				return Collections.emptySet();
+			} else if (ProtoType.UINT64.equals(f.type())) {
+				return new HashSet<>(Arrays.asList(XSD_DATE_TIME, XSD_TIME));
+			} else if (ProtoType.UINT32.equals(f.type())) {
+				return Collections.singleton(XSD_DATE);
+			}
+			return Collections.emptySet();
+		});
+	}
+
+	/**
+	 * Whether the bytes of {@code field} are written as hex digits in xml. Fields generated with {@code includeXsdOptions} carry the xsd type in an option,
+	 * other bytes fields are base64 encoded.
+	 */
+	boolean isHexBinary(Field field) {
+		return XSD_HEX_BINARY.equals(optionValue(field, XSD_TYPE_FIELD_OPTION_NAME));
+	}
+
+	private static String optionValue(Field field, String optionName) {
+		for (OptionElement optionElement : field.options().getOptionElements()) {
+			if (optionElement.getName().equals(optionName)) {
+				return String.valueOf(optionElement.getValue());
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * The value of the enum constant generated from enumeration value {@code literal}, or null if there is none.
+	 */
+	Integer enumValue(EnumType enumType, String literal) {
+		Map<String, Integer> enumValues = enumValuesPerType.computeIfAbsent(enumType.type(), k -> new HashMap<>());
+		if (!enumValues.containsKey(literal)) {
+			EnumConstant constant = enumType.constant(typeAndNameMapper.enumConstantName(enumType.name(), literal));
+			enumValues.put(literal, constant != null ? constant.getTag() : null);
+		}
+		return enumValues.get(literal);
+	}
+
+	static boolean isWrapper(Type type) {
+		if (!(type instanceof MessageType)) {
+			return false;
+		}
+		String name = type.type().simpleName();
+		return name.startsWith(SEQUENCE_WRAPPER_PREFIX + "_") || isChoiceWrapper(type);
+	}
+
+	static boolean isChoiceWrapper(Type type) {
+		return type instanceof MessageType && type.type().simpleName().startsWith(CHOICE_WRAPPER_PREFIX + "_");
+	}
+}
@@ -0,0 +1,526 @@
+/*-
+ * #%L
+ * schema2proto-lib
+ * %%
+ * Copyright (C) 2019 Entur
+ * %%
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl5
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * #L%
+ */
+package no.entur.schema2proto.transcode;
+
+import static javax.xml.XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI;
+import static no.entur.schema2proto.transcode.XmlProtoMapping.XSD_DATE;
+import static no.entur.schema2proto.transcode.XmlProtoMapping.XSD_DATE_TIME;
+import static no.entur.schema2proto.transcode.XmlProtoMapping.XSD_TIME;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.time.OffsetTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.squareup.wire.FieldEncoding;
+import com.squareup.wire.ProtoAdapter;
+import com.squareup.wire.ProtoWriter;
+import com.squareup.wire.schema.EnumType;
+import com.squareup.wire.schema.Field;
+import com.squareup.wire.schema.MessageType;
+import com.squareup.wire.schema.ProtoType;
+import com.squareup.wire.schema.Schema;
+import com.squareup.wire.schema.Type;
+
+import no.entur.schema2proto.generateproto.TypeAndNameMapper;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.ByteString;
+import okio.Okio;
+import okio.Sink;
+import okio.Source;
+import okio.Timeout;
+
+/**
+ * Converts xml instance documents to protobuf binary format using the proto files schema2proto generated from the xsd. The document is read with StAX and
+ * written directly to a {@link ProtoWriter}, without building an object tree. The content of nested messages that are not yet complete is buffered, since
+ * protobuf requires the length of a message before its content. A buffered message is held in memory until it grows beyond the spill threshold and is then
+ * written to a temporary file, so memory use is bounded by the nesting depth times the threshold while disk use grows with the largest open subtree.
+ *
+ * <p>
+ * Mapping follows the rules of the generator: elements and attributes map to fields named by {@link TypeAndNameMapper#protoFieldName(String)}, attributes
+ * colliding with elements use the {@code attr_} prefix, simple content goes into the {@code value} field, substitution group members are resolved by element
+ * name and sequence and choice wrappers are created as needed. Elements and attributes without a matching field are skipped.
+ *
+ * <p>
+ * Values of dateTime, date and time fields mapped to integers are converted to milliseconds since epoch, days since epoch and milliseconds since midnight.
+ *
+ * <p>
+ * Instances cache name lookups and are not thread safe.
+ */
+public class XmlToProtoTranscoder {
+	private static final Logger LOGGER = LoggerFactory.getLogger(XmlToProtoTranscoder.class);
+
+	private static final Map<ProtoType, ProtoAdapter<?>> SCALAR_ADAPTERS = new HashMap<>();
+
+	static {
+		SCALAR_ADAPTERS.put(ProtoType.BOOL, ProtoAdapter.BOOL);
+		SCALAR_ADAPTERS.put(ProtoType.BYTES, ProtoAdapter.BYTES);
+		SCALAR_ADAPTERS.put(ProtoType.DOUBLE, ProtoAdapter.DOUBLE);
+		SCALAR_ADAPTERS.put(ProtoType.FLOAT, ProtoAdapter.FLOAT);
+		SCALAR_ADAPTERS.put(ProtoType.FIXED32, ProtoAdapter.FIXED32);
+		SCALAR_ADAPTERS.put(ProtoType.FIXED64, ProtoAdapter.FIXED64);
+		SCALAR_ADAPTERS.put(ProtoType.INT32, ProtoAdapter.INT32);
+		SCALAR_ADAPTERS.put(ProtoType.INT64, ProtoAdapter.INT64);
+		SCALAR_ADAPTERS.put(ProtoType.SFIXED32, ProtoAdapter.SFIXED32);
+		SCALAR_ADAPTERS.put(ProtoType.SFIXED64, ProtoAdapter.SFIXED64);
+		SCALAR_ADAPTERS.put(ProtoType.SINT32, ProtoAdapter.SINT32);
+		SCALAR_ADAPTERS.put(ProtoType.SINT64, ProtoAdapter.SINT64);
+		SCALAR_ADAPTERS.put(ProtoType.STRING, ProtoAdapter.STRING);
+		SCALAR_ADAPTERS.put(ProtoType.UINT32, ProtoAdapter.UINT32);
+		SCALAR_ADAPTERS.put(ProtoType.UINT64, ProtoAdapter.UINT64);
+	}
+
+	private static final Pattern DATE = Pattern.compile("-?\\d{4,}-\\d{2}-\\d{2}(Z|[+-]\\d{2}:\\d{2})?");
+
+	public static final long DEFAULT_SPILL_THRESHOLD = 1024 * 1024;
+
+	private final XmlProtoMapping mapping;
+	private final long spillThreshold;
+	private final XMLInputFactory xmlInputFactory;
+
+	public XmlToProtoTranscoder(Schema schema, TypeAndNameMapper typeAndNameMapper) {
+		this(schema, typeAndNameMapper, DEFAULT_SPILL_THRESHOLD);
+	}
+
+	/**
+	 * @param spillThreshold number of bytes of a nested message kept in memory before the message is written to a temporary file
+	 */
+	public XmlToProtoTranscoder(Schema schema, TypeAndNameMapper typeAndNameMapper, long spillThreshold) {
+		this.mapping = new XmlProtoMapping(schema, typeAndNameMapper);
+		this.spillThreshold = spillThreshold;
+
+		xmlInputFactory = XMLInputFactory.newInstance();
+		xmlInputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		xmlInputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+	}
+
+	/**
+	 * Transcode the root element of {@code xml} to a message of type {@code rootTypeName}.
+	 */
+	public void transcode(InputStream xml, String rootTypeName, OutputStream out) throws XMLStreamException, IOException {
+		XMLStreamReader reader = xmlInputFactory.createXMLStreamReader(xml);
+		try {
+			BufferedSink sink = Okio.buffer(Okio.sink(out));
+			transcode(reader, rootTypeName, sink);
+			sink.flush();
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Transcode one element to a message of type {@code rootTypeName}. If the reader is positioned at a start element that element is transcoded, otherwise the
+	 * next one. The reader is left at the matching end element, so repeated calls can be used to transcode the children of a large document one at a time.
+	 */
+	public void transcode(XMLStreamReader reader, String rootTypeName, BufferedSink sink) throws XMLStreamException, IOException {
+		MessageType rootType = mapping.messageType(rootTypeName);
+		while (reader.getEventType() != XMLStreamConstants.START_ELEMENT) {
+			if (!reader.hasNext()) {
+				throw new TranscodingException("No element to transcode");
+			}
+			reader.next();
+		}
+
+		Deque<Frame> frames = new ArrayDeque<>();
+		Frame root = new Frame(rootType, null, null, sink, false, mapping.valueField(rootType) != null);
+		frames.push(root);
+		try {
+			writeAttributes(reader, root);
+			transcodeContent(reader, frames);
+		} finally {
+			// Remove the temporary files of messages left open by a failure
+			for (Frame frame : frames) {
+				if (frame.content != null) {
+					frame.content.close();
+				}
+			}
+		}
+	}
+
+	private void transcodeContent(XMLStreamReader reader, Deque<Frame> frames) throws XMLStreamException, IOException {
+		int skipDepth = 0;
+		while (!frames.isEmpty()) {
+			int event = reader.next();
+			switch (event) {
+			case XMLStreamConstants.START_ELEMENT:
+				if (skipDepth > 0) {
+					skipDepth++;
+				} else if (!startElement(reader, frames)) {
+					skipDepth = 1;
+				}
+				break;
+			case XMLStreamConstants.CHARACTERS:
+			case XMLStreamConstants.CDATA:
+			case XMLStreamConstants.SPACE:
+				if (skipDepth == 0 && frames.peek().text != null) {
+					frames.peek().text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+				}
+				break;
+			case XMLStreamConstants.END_ELEMENT:
+				if (skipDepth > 0) {
+					skipDepth--;
+				} else {
+					endElement(frames);
+				}
+				break;
+			default:
+				break;
+			}
+		}
+	}
+
+	private boolean startElement(XMLStreamReader reader, Deque<Frame> frames) throws IOException {
+		String elementName = reader.getLocalName();
+
+		List<Field> path;
+		while (true) {
+			Frame parent = frames.peek();
+			path = mapping.elementPath(parent.messageType, elementName);
+			if (parent.wrapper && (path == null || !parent.accepts(path.get(0)))) {
+				// Element belongs to a new wrapper instance or to an enclosing message
+				closeFrame(frames);
+			} else {
+				break;
+			}
+		}
+
+		if (path == null) {
+			LOGGER.debug("No field for element {} in {}, skipping", elementName, frames.peek().messageType.type());
+			return false;
+		}
+
+		for (int i = 0; i < path.size() - 1; i++) {
+			Field wrapperField = path.get(i);
+			openFrame(frames, messageFrame((MessageType) mapping.type(wrapperField), wrapperField, true, false));
+		}
+
+		Field field = path.get(path.size() - 1);
+		Type type = mapping.type(field);
+		if (type instanceof MessageType) {
+			Frame frame = messageFrame((MessageType) type, field, false, mapping.valueField((MessageType) type) != null);
+			openFrame(frames, frame);
+			writeAttributes(reader, frame);
+		} else {
+			openFrame(frames, new Frame(null, field, null, null, false, true));
+		}
+		return true;
+	}
+
+	private void endElement(Deque<Frame> frames) throws IOException {
+		while (frames.peek().wrapper) {
+			closeFrame(frames);
+		}
+		closeFrame(frames);
+	}
+
+	private Frame messageFrame(MessageType messageType, Field field, boolean wrapper, boolean collectText) {
+		FrameContent content = new FrameContent(spillThreshold);
+		return new Frame(messageType, field, content, Okio.buffer(content), wrapper, collectText);
+	}
+
+	private void openFrame(Deque<Frame> frames, Frame frame) {
+		frames.peek().lastTag = frame.field.tag();
+		frames.push(frame);
+	}
+
+	private void closeFrame(Deque<Frame> frames) throws IOException {
+		Frame frame = frames.pop();
+		Frame parent = frames.peek();
+
+		if (frame.messageType == null) {
+			String text = frame.text.toString();
+			boolean list = frame.field.isRepeated() && !ProtoType.STRING.equals(frame.field.type()) && !ProtoType.BYTES.equals(frame.field.type());
+			writeValue(parent.writer, frame.field, text, list);
+			return;
+		}
+
+		if (frame.text != null && StringUtils.isNotBlank(frame.text)) {
+			writeValue(frame.writer, mapping.valueField(frame.messageType), frame.text.toString(), false);
+		}
+		if (parent != null) {
+			frame.sink.flush();
+			parent.writer.writeTag(frame.field.tag(), FieldEncoding.LENGTH_DELIMITED);
+			parent.writer.writeVarint32((int) frame.content.size());
+			frame.content.writeTo(parent.sink);
+		}
+	}
+
+	private void writeAttributes(XMLStreamReader reader, Frame frame) throws IOException {
+		for (int i = 0; i < reader.getAttributeCount(); i++) {
+			if (W3C_XML_SCHEMA_INSTANCE_NS_URI.equals(reader.getAttributeNamespace(i))) {
+				continue;
+			}
+			String attributeName = reader.getAttributeLocalName(i);
+			Field field = mapping.attributeField(frame.messageType, attributeName);
+			if (field == null || mapping.type(field) instanceof MessageType) {
+				LOGGER.debug("No field for attribute {} in {}, skipping", attributeName, frame.messageType.type());
+				continue;
+			}
+			writeValue(frame.writer, field, reader.getAttributeValue(i), field.isRepeated());
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void writeValue(ProtoWriter writer, Field field, String text, boolean list) throws IOException {
+		if (list) {
+			for (String item : StringUtils.split(text)) {
+				writeValue(writer, field, item, false);
+			}
+			return;
+		}
+
+		ProtoAdapter<Object> adapter = (ProtoAdapter<Object>) SCALAR_ADAPTERS.get(field.type());
+		if (adapter != null) {
+			adapter.encodeWithTag(writer, field.tag(), scalarValue(field, text));
+			return;
+		}
+
+		Type type = mapping.type(field);
+		if (type instanceof EnumType) {
+			Integer value = mapping.enumValue((EnumType) type, text.trim());
+			if (value == null) {
+				throw new TranscodingException("Unknown value " + text + " for enum " + type.type());
+			}
+			writer.writeTag(field.tag(), FieldEncoding.VARINT);
+			writer.writeVarint32(value);
+		} else {
+			throw new TranscodingException("Unexpected type " + field.type() + " for text content of field " + field.name());
+		}
+	}
+
+	private Object scalarValue(Field field, String text) {
+		ProtoType type = field.type();
+		if (ProtoType.STRING.equals(type)) {
+			return text;
+		}
+
+		String value = text.trim();
+		try {
+			if (ProtoType.BOOL.equals(type)) {
+				return "true".equals(value) || "1".equals(value);
+			} else if (ProtoType.DOUBLE.equals(type)) {
+				return Double.valueOf(value);
+			} else if (ProtoType.FLOAT.equals(type)) {
+				return Float.valueOf(value);
+			} else if (ProtoType.BYTES.equals(type)) {
+				return bytesValue(field, value);
+			} else if (ProtoType.INT64.equals(type) || ProtoType.UINT64.equals(type) || ProtoType.SINT64.equals(type) || ProtoType.FIXED64.equals(type)
+					|| ProtoType.SFIXED64.equals(type)) {
+				return integerValue(field, value);
+			} else {
+				return (int) integerValue(field, value);
+			}
+		} catch (IllegalArgumentException | DateTimeParseException e) {
+			throw new TranscodingException("Invalid value " + text + " for type " + type, e);
+		}
+	}
+
+	private ByteString bytesValue(Field field, String value) {
+		if (mapping.isHexBinary(field)) {
+			return ByteString.decodeHex(value);
+		}
+		ByteString bytes = ByteString.decodeBase64(value);
+		if (bytes == null) {
+			throw new IllegalArgumentException("Not base64: " + value);
+		}
+		return bytes;
+	}
+
+	private long integerValue(Field field, String value) {
+		Set<String> temporalTypes = mapping.temporalTypes(field);
+		try {
+			if (ProtoType.UINT64.equals(field.type()) || ProtoType.FIXED64.equals(field.type())) {
+				return Long.parseUnsignedLong(value);
+			}
+			return Long.parseLong(value);
+		} catch (NumberFormatException e) {
+			if (temporalTypes.isEmpty()) {
+				throw e;
+			}
+			return temporalValue(value, temporalTypes, e);
+		}
+	}
+
+	/**
+	 * Values of the xsd types mapped to integers: dateTime and time to milliseconds, date to days.
+	 */
+	private static long temporalValue(String value, Set<String> temporalTypes, NumberFormatException notANumber) {
+		if (DATE.matcher(value).matches()) {
+			if (temporalTypes.contains(XSD_DATE)) {
+				// The offset of a date does not change which day it is
+				return LocalDate.parse(value, DateTimeFormatter.ISO_DATE).toEpochDay();
+			}
+		} else if (value.indexOf('T') > 0) {
+			if (temporalTypes.contains(XSD_DATE_TIME)) {
+				if (hasOffset(value, value.indexOf('T'))) {
+					return OffsetDateTime.parse(value).toInstant().toEpochMilli();
+				}
+				return LocalDateTime.parse(value).toInstant(ZoneOffset.UTC).toEpochMilli();
+			}
+		} else if (value.indexOf(':') > 0 && temporalTypes.contains(XSD_TIME)) {
+			if (hasOffset(value, 0)) {
+				return OffsetTime.parse(value).toLocalTime().toNanoOfDay() / 1_000_000;
+			}
+			return LocalTime.parse(value).toNanoOfDay() / 1_000_000;
+		}
+		throw notANumber;
+	}
+
+	private static boolean hasOffset(String value, int timeStart) {
+		return value.endsWith("Z") || value.indexOf('+', timeStart) > 0 || value.indexOf('-', timeStart) > 0;
+	}
+
+	private static class Frame {
+		final MessageType messageType;
+		final Field field;
+		final FrameContent content;
+		final BufferedSink sink;
+		final ProtoWriter writer;
+		final boolean wrapper;
+		final StringBuilder text;
+		int lastTag;
+
+		Frame(MessageType messageType, Field field, FrameContent content, BufferedSink sink, boolean wrapper, boolean collectText) {
+			this.messageType = messageType;
+			this.field = field;
+			this.content = content;
+			this.sink = sink;
+			this.writer = sink != null ? new ProtoWriter(sink) : null;
+			this.wrapper = wrapper;
+			this.text = collectText ? new StringBuilder() : null;
+		}
+
+		/**
+		 * Whether {@code field} belongs to the current instance of this wrapper. Choice wrappers hold a single element (or a run of the same repeated element),
+		 * sequence wrappers hold elements in tag order.
+		 */
+		boolean accepts(Field field) {
+			if (XmlProtoMapping.isChoiceWrapper(messageType)) {
+				return lastTag == 0 || (field.tag() == lastTag && field.isRepeated());
+			}
+			return field.tag() > lastTag || (field.tag() == lastTag && field.isRepeated());
+		}
+	}
+
+	/**
+	 * Content of a nested message. Kept in memory up to the spill threshold, then moved to a temporary file that is deleted once the content is written to the
+	 * enclosing message.
+	 */
+	private static class FrameContent implements Sink {
+		private final long spillThreshold;
+		private final Buffer buffer = new Buffer();
+		private File file;
+		private Sink fileSink;
+		private long size;
+
+		FrameContent(long spillThreshold) {
+			this.spillThreshold = spillThreshold;
+		}
+
+		long size() {
+			return size;
+		}
+
+		@Override
+		public void write(Buffer source, long byteCount) throws IOException {
+			size += byteCount;
+			if (fileSink != null) {
+				fileSink.write(source, byteCount);
+				return;
+			}
+
+			buffer.write(source, byteCount);
+			if (buffer.size() > spillThreshold) {
+				file = File.createTempFile("schema2proto-transcode", ".bin");
+				fileSink = Okio.sink(file);
+				fileSink.write(buffer, buffer.size());
+			}
+		}
+
+		void writeTo(BufferedSink target) throws IOException {
+			if (fileSink == null) {
+				target.write(buffer, buffer.size());
+				return;
+			}
+
+			fileSink.close();
+			fileSink = null;
+			try (Source source = Okio.source(file)) {
+				target.writeAll(source);
+			} finally {
+				close();
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			if (fileSink != null) {
+				fileSink.flush();
+			}
+		}
+
+		@Override
+		public Timeout timeout() {
+			return Timeout.NONE;
+		}
+
+		@Override
+		public void close() throws IOException {
+			buffer.clear();
+			if (fileSink != null) {
+				fileSink.close();
+				fileSink = null;
+			}
+			if (file != null) {
+				Files.deleteIfExists(file.toPath());
+				file = null;
+			}
+		}
+	}
+}
@@ -49,7 +49,7 @@ public abstract class AbstractBackwardsCompatTest {
 	private static final String sourceFolder = "source";
 	private static final String expectedFolder = "expected";
 
-	protected void verify(String testname, boolean failOnRemovedFields, String protoFile) throws IOException {
+	protected CompatibilityReport verify(String testname, boolean failOnRemovedFields, String protoFile) throws IOException {
 		ProtolockBackwardsCompatibilityChecker checker = new ProtolockBackwardsCompatibilityChecker();
 		checker.init(new File(testdataBaseDirectory + "/" + testname + "/" + sourceFolder + "/" + lockFile));
 
@@ -79,6 +79,7 @@ public abstract class AbstractBackwardsCompatTest {
 		if (failOnRemovedFields) {
 			assertFalse(backwardsIncompatibiltyDetected);
 		}
+		return checker.getReport();
 	}
 
 	private Schema loadSchema(File path) throws IOException {
@@ -24,10 +24,18 @@ package no.entur.schema2proto.compatibility;
  */
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
 
 import org.junit.jupiter.api.Test;
 
@@ -36,6 +44,8 @@ import no.entur.schema2proto.compatibility.protolock.ProtolockDefinitions;
 import no.entur.schema2proto.compatibility.protolock.ProtolockEnum;
 import no.entur.schema2proto.compatibility.protolock.ProtolockEnumConstant;
 import no.entur.schema2proto.compatibility.protolock.ProtolockFile;
+import no.entur.schema2proto.compatibility.protolock.ProtolockMessage;
+import no.entur.schema2proto.compatibility.protolock.ProtolockSnapshot;
 
 public class ProtoLockParserTest {
 
@@ -70,6 +80,67 @@ public class ProtoLockParserTest {
 		assertEquals("AGGREGATION_TYPE_UNSPECIFIED", enumFields[0].getName());
 		// Check messages
 
+		// Check lookups
+		assertSame(file, definitions.getFile("net/opengis/www/gml/_3_2/net_opengis_www_gml__3_2.proto"));
+		assertSame(e, file.getEnum("AggregationType").orElse(null));
+		assertTrue(file.getMessage(file.getMessages()[0].getName()).isPresent());
+		assertNull(definitions.getFile("no/such/file.proto"));
+	}
+
+	@Test
+	public void testLazyLookup() throws IOException {
+		try (ProtolockDefinitions definitions = ProtolockDefinitions.open(new File("src/test/resources/proto.lock"))) {
+			ProtolockFile second = definitions.getFile("org/w3/www/xml/_1998/namespace/org_w3_www_xml__1998_namespace.proto");
+			assertNotNull(second);
+
+			// Earlier definition, reopens the file
+			ProtolockFile first = definitions.getFile("net/opengis/www/gml/_3_2/net_opengis_www_gml__3_2.proto");
+			assertNotNull(first);
+			assertEquals(2, first.getEnums().length);
+			assertTrue(first.getEnum("AggregationType").isPresent());
+
+			assertSame(second, definitions.getFile("org/w3/www/xml/_1998/namespace/org_w3_www_xml__1998_namespace.proto"));
+			assertNull(definitions.getFile("no/such/file.proto"));
+
+			assertEquals(2, definitions.getDefinitions().length);
+		}
+	}
+
+	@Test
+	public void testSnapshot() throws IOException {
+		File protoLockFile = new File("src/test/resources/proto.lock");
+		File snapshotFile = new File("target/proto.lock.snapshot");
+		ProtolockSnapshot.toSnapshot(protoLockFile, snapshotFile);
+
+		assertTrue(ProtolockSnapshot.isSnapshot(snapshotFile));
+		assertFalse(ProtolockSnapshot.isSnapshot(protoLockFile));
+		assertTrue(snapshotFile.length() < protoLockFile.length());
+
+		try (ProtolockDefinitions json = ProtolockDefinitions.open(protoLockFile); ProtolockDefinitions snapshot = ProtolockDefinitions.open(snapshotFile)) {
+			String path = "net/opengis/www/gml/_3_2/net_opengis_www_gml__3_2.proto";
+			ProtolockFile expected = json.getFile(path);
+			ProtolockFile actual = snapshot.getFile(path);
+			assertNotNull(actual);
+			assertSame(actual, snapshot.getFile(path));
+			assertNull(snapshot.getFile("no/such/file.proto"));
+
+			assertEquals(expected.getEnums().length, actual.getEnums().length);
+			ProtolockEnum expectedEnum = expected.getEnum("AggregationType").get();
+			ProtolockEnum actualEnum = actual.getEnum("AggregationType").get();
+			assertEquals(asSet(expectedEnum.getEnumFields()), asSet(actualEnum.getEnumFields()));
+
+			assertEquals(expected.getMessages().length, actual.getMessages().length);
+			for (ProtolockMessage expectedMessage : expected.getMessages()) {
+				ProtolockMessage actualMessage = actual.getMessage(expectedMessage.getName()).get();
+				assertEquals(asSet(expectedMessage.getFields()), asSet(actualMessage.getFields()));
+			}
+
+			assertEquals(2, snapshot.getDefinitions().length);
+		}
+	}
+
+	private static <T> Set<T> asSet(T[] values) {
+		return values == null ? new HashSet<>() : new HashSet<>(Arrays.asList(values));
 	}
 
 }
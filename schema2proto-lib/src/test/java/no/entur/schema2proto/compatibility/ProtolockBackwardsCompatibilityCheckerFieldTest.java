@@ -23,7 +23,12 @@ package no.entur.schema2proto.compatibility;
  * #L%
  */
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
 import java.io.IOException;
+import java.io.StringWriter;
 
 import org.junit.jupiter.api.Test;
 
@@ -54,6 +59,38 @@ public class ProtolockBackwardsCompatibilityCheckerFieldTest extends AbstractBac
 		verify("changedfieldtag", true, "default/default.proto");
 	}
 
+	@Test
+	public void testReportRenumberedField() throws IOException {
+		CompatibilityReport report = verify("changedfieldtag", true, "default/default.proto");
+
+		CompatibilityReport.TypeReport message = report.getFileReports().get(0).getTypes().get(0);
+		assertEquals("default.ElementList", message.getName());
+		assertEquals(1, message.getRenumbered().size());
+		assertEquals("second", message.getRenumbered().get(0).getName());
+		assertEquals(3, message.getRenumbered().get(0).getFrom());
+		assertEquals(2, message.getRenumbered().get(0).getTo());
+		assertNull(message.getAdded());
+		assertNull(message.getRemoved());
+	}
+
+	@Test
+	public void testReportNewAndRemovedField() throws IOException {
+		CompatibilityReport report = verify("newandremovedfield", false, "default/default.proto");
+
+		CompatibilityReport.FileReport file = report.getFileReports().get(0);
+		assertEquals("default/default.proto", file.getPath());
+		CompatibilityReport.TypeReport message = file.getTypes().get(0);
+		assertEquals("fourth", message.getAdded().get(0).getName());
+		assertEquals(4, message.getAdded().get(0).getId());
+		assertEquals("third", message.getRemoved().get(0).getName());
+		assertEquals(3, message.getReservedIds().get(0));
+		assertEquals("third", message.getReservedNames().get(0));
+
+		StringWriter json = new StringWriter();
+		report.write(json);
+		assertTrue(json.toString().contains("\"removed\": 1"));
+	}
+
 	@Test
 	public void testChangedFieldName() throws IOException {
 		verify("changedfieldname", false, "default/default.proto");
@@ -0,0 +1,132 @@
+package no.entur.schema2proto.compatibility;
+
+/*-
+ * #%L
+ * schema2proto-lib
+ * %%
+ * Copyright (C) 2019 - 2020 Entur
+ * %%
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ * 
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ * 
+ * http://ec.europa.eu/idabc/eupl5
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * #L%
+ */
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Test;
+
+import com.google.common.collect.Range;
+import com.squareup.wire.schema.MessageType;
+import com.squareup.wire.schema.ProtoFile;
+import com.squareup.wire.schema.Reserved;
+import com.squareup.wire.schema.Schema;
+import com.squareup.wire.schema.SchemaLoader;
+import com.squareup.wire.schema.internal.Util;
+
+import no.entur.schema2proto.compatibility.protolock.ProtolockDefinitions;
+import no.entur.schema2proto.compatibility.protolock.ProtolockField;
+import no.entur.schema2proto.compatibility.protolock.ProtolockFile;
+import no.entur.schema2proto.compatibility.protolock.ProtolockMessage;
+import no.entur.schema2proto.compatibility.protolock.ProtolockSnapshot;
+
+public class ProtolockWriterTest {
+
+	@Test
+	public void testWriteAndCheckAgainstWrittenLockFile() throws IOException {
+		Schema schema = loadSchema();
+		ProtoFile protoFile = schema.protoFile("default/default.proto");
+		String before = protoFile.toSchema();
+
+		File lockFile = new File("target/protolockwriter/proto.lock");
+		new ProtolockWriter().add("default/default.proto", protoFile).write(lockFile);
+
+		try (ProtolockDefinitions definitions = ProtolockDefinitions.open(lockFile)) {
+			assertEquals("default:/:default.proto", definitions.getDefinitions()[0].getProtopath());
+			ProtolockFile file = definitions.getFile("default/default.proto");
+			assertNotNull(file);
+
+			ProtolockMessage elementList = file.getMessage("ElementList").get();
+			assertArrayEquals(new ProtolockField[] { new ProtolockField(2, "second"), new ProtolockField(4, "fourth") }, elementList.getFields());
+			assertArrayEquals(new Integer[] { 1, 3, 5 }, elementList.getReservedIds());
+			assertArrayEquals(new String[] { "first", "third", "fift" }, elementList.getReservedNames());
+			assertEquals(2, elementList.getMessage("SubElement").get().getFields().length);
+		}
+
+		// The schema is compatible with a lock file written from itself
+		ProtolockBackwardsCompatibilityChecker checker = new ProtolockBackwardsCompatibilityChecker();
+		checker.init(lockFile);
+		ProtoFile reloaded = loadSchema().protoFile("default/default.proto");
+		assertFalse(checker.resolveBackwardIncompatibilities(reloaded));
+		checker.close();
+		assertEquals(before, reloaded.toSchema());
+	}
+
+	@Test
+	public void testUpdateSnapshotKeepsFormat() throws IOException {
+		ProtoFile protoFile = loadSchema().protoFile("default/default.proto");
+		File jsonFile = new File("target/protolockwriter/snapshot.json");
+		File snapshotFile = new File("target/protolockwriter/proto.lock.snapshot");
+		new ProtolockWriter().add("default/default.proto", protoFile).write(jsonFile);
+		ProtolockSnapshot.toSnapshot(jsonFile, snapshotFile);
+
+		new ProtolockWriter().add("default/default.proto", protoFile).write(snapshotFile);
+
+		assertTrue(ProtolockSnapshot.isSnapshot(snapshotFile));
+		try (ProtolockDefinitions definitions = ProtolockDefinitions.open(snapshotFile)) {
+			ProtolockMessage elementList = definitions.getFile("default/default.proto").getMessage("ElementList").get();
+			assertArrayEquals(new Integer[] { 1, 3, 5 }, elementList.getReservedIds());
+		}
+	}
+
+	@Test
+	public void testRejectReservedRangeToMax() throws IOException {
+		File protoFolder = new File("target/protolockwriter/reservedtomax");
+		FileUtils.deleteDirectory(protoFolder);
+		FileUtils.writeStringToFile(new File(protoFolder, "default/default.proto"),
+				"syntax = \"proto3\";\npackage default;\n\nmessage Element {\n  reserved 2;\n  string first = 1;\n}\n", StandardCharsets.UTF_8);
+		SchemaLoader schemaLoader = new SchemaLoader();
+		schemaLoader.addSource(protoFolder);
+		Schema schema = schemaLoader.load();
+		ProtoFile protoFile = schema.protoFile("default/default.proto");
+
+		// The proto parser only allows max in extensions, such ranges are added to the model
+		MessageType element = (MessageType) schema.getType("default.Element");
+		element.getReserveds().add(new Reserved(element.location(), "", Collections.singletonList(Range.closed(10, Util.MAX_TAG_VALUE))));
+
+		File lockFile = new File(protoFolder, "proto.lock");
+		FileUtils.writeStringToFile(lockFile, "{}", StandardCharsets.UTF_8);
+		BackwardsCompatibilityCheckException e = assertThrows(BackwardsCompatibilityCheckException.class,
+				() -> new ProtolockWriter().add("default/default.proto", protoFile).write(lockFile));
+		assertTrue(e.getMessage().contains("default.Element"), e.getMessage());
+		assertEquals("{}", FileUtils.readFileToString(lockFile, StandardCharsets.UTF_8));
+	}
+
+	private Schema loadSchema() throws IOException {
+		SchemaLoader schemaLoader = new SchemaLoader();
+		schemaLoader.addSource(new File("src/test/resources/protolock/existingreservation/expected"));
+		return schemaLoader.load();
+	}
+}
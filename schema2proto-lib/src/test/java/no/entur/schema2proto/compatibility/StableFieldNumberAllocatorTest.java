@@ -0,0 +1,108 @@
+package no.entur.schema2proto.compatibility;
+
+/*-
+ * #%L
+ * schema2proto-lib
+ * %%
+ * Copyright (C) 2019 - 2020 Entur
+ * %%
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ * 
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ * 
+ * http://ec.europa.eu/idabc/eupl5
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * #L%
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+
+import com.squareup.wire.schema.Field;
+import com.squareup.wire.schema.MessageType;
+import com.squareup.wire.schema.ProtoFile;
+import com.squareup.wire.schema.Schema;
+import com.squareup.wire.schema.SchemaLoader;
+
+import no.entur.schema2proto.compatibility.protolock.ProtolockDefinitions;
+
+public class StableFieldNumberAllocatorTest {
+
+	private static final File ROOT = new File("target/stablefieldnumbers");
+
+	@Test
+	public void testInsertedFieldDoesNotRenumberOtherFields() throws IOException {
+		Map<String, Integer> before = allocate("a", "b", "c");
+		Map<String, Integer> after = allocate("a", "x", "b", "c");
+
+		assertEquals(before.get("a"), after.get("a"));
+		assertEquals(before.get("b"), after.get("b"));
+		assertEquals(before.get("c"), after.get("c"));
+		assertEquals(4, new HashSet<>(after.values()).size());
+	}
+
+	@Test
+	public void testLockedNumbersAreKept() throws IOException {
+		int hashedA = StableFieldNumberAllocator.hashFieldNumber("default.Message", "a");
+		File lockFile = new File("target/stablefieldnumbers.lock");
+		Files.write(lockFile.toPath(), ("{\"definitions\": [{\"protopath\": \"default:/:default.proto\", \"def\": {\"messages\": [{\"name\": \"Message\", "
+				+ "\"fields\": [{\"id\": 2, \"name\": \"b\", \"type\": \"string\"}, {\"id\": 3, \"name\": \"removed\", \"type\": \"string\"}], \"reserved_ids\": ["
+				+ hashedA + "]}]}}]}").getBytes(StandardCharsets.UTF_8));
+
+		Map<String, Integer> fieldNumbers;
+		try (ProtolockDefinitions definitions = ProtolockDefinitions.open(lockFile)) {
+			fieldNumbers = allocate(definitions, "a", "b", "c");
+		}
+
+		assertEquals(2, fieldNumbers.get("b"));
+		assertNotEquals(hashedA, fieldNumbers.get("a"));
+		assertNotEquals(3, fieldNumbers.get("a"));
+		assertNotEquals(3, fieldNumbers.get("c"));
+		assertEquals(3, new HashSet<>(fieldNumbers.values()).size());
+	}
+
+	private Map<String, Integer> allocate(String... fieldNames) throws IOException {
+		return allocate(null, fieldNames);
+	}
+
+	private Map<String, Integer> allocate(ProtolockDefinitions definitions, String... fieldNames) throws IOException {
+		StringBuilder proto = new StringBuilder("syntax = \"proto3\";\npackage default;\nmessage Message {\n");
+		for (int i = 0; i < fieldNames.length; i++) {
+			proto.append("  string ").append(fieldNames[i]).append(" = ").append(i + 1).append(";\n");
+		}
+		proto.append("}\n");
+
+		File protoFile = new File(ROOT, "default/default.proto");
+		protoFile.getParentFile().mkdirs();
+		Files.write(protoFile.toPath(), proto.toString().getBytes(StandardCharsets.UTF_8));
+
+		SchemaLoader schemaLoader = new SchemaLoader();
+		schemaLoader.addSource(ROOT);
+		Schema schema = schemaLoader.load();
+		ProtoFile file = schema.protoFile("default/default.proto");
+
+		new StableFieldNumberAllocator(definitions).allocate(file);
+
+		Set<Field> fields = new HashSet<>(((MessageType) file.types().get(0)).fieldsAndOneOfFields());
+		return fields.stream().collect(Collectors.toMap(Field::name, Field::tag));
+	}
+}
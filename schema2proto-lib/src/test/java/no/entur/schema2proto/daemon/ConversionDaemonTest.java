@@ -0,0 +1,132 @@
+package no.entur.schema2proto.daemon;
+
+/*-
+ * #%L
+ * schema2proto-lib
+ * %%
+ * Copyright (C) 2019 - 2020 Entur
+ * %%
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ * 
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ * 
+ * http://ec.europa.eu/idabc/eupl5
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * #L%
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Test;
+
+public class ConversionDaemonTest {
+
+	@Test
+	public void testConvertThroughDaemon() throws Exception {
+		File outputDirectory = new File("target/daemon-proto");
+		FileUtils.deleteDirectory(outputDirectory);
+		File tokenDirectory = new File("target/daemon-token");
+		FileUtils.deleteDirectory(tokenDirectory);
+		PrintStream originalOut = System.out;
+
+		Thread server;
+		File tokenFile;
+		try (ConversionDaemon daemon = new ConversionDaemon(0, tokenDirectory)) {
+			server = new Thread(() -> {
+				try {
+					daemon.run();
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			});
+			server.start();
+
+			ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+			ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+			tokenFile = ConversionDaemon.tokenFile(tokenDirectory, daemon.getPort());
+			if (tokenFile.toPath().getFileSystem().supportedFileAttributeViews().contains("posix")) {
+				assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(tokenFile.toPath())));
+			}
+
+			int exitStatus = ConversionDaemonClient.send(daemon.getPort(), tokenDirectory,
+					new String[] { "--outputDirectory", outputDirectory.getPath(), "--forceProtoPackage", "default", "src/test/resources/xsd/recipe.xsd" },
+					new PrintStream(stdout), new PrintStream(stderr));
+
+			assertEquals(0, exitStatus);
+			assertTrue(new File(outputDirectory, "default/default.proto").exists());
+			assertTrue(stderr.toString().contains("Done"), stderr.toString());
+
+			// Missing xsd file
+			stdout.reset();
+			exitStatus = ConversionDaemonClient.send(daemon.getPort(), tokenDirectory,
+					new String[] { "--outputDirectory", outputDirectory.getPath(), "--forceProtoPackage", "default" }, new PrintStream(stdout),
+					new PrintStream(new ByteArrayOutputStream()));
+			assertEquals(1, exitStatus);
+			assertTrue(stdout.toString().contains("Schema2Proto [OPTIONS] XSDFILE"), stdout.toString());
+
+			// Wrong token
+			File otherTokenDirectory = new File("target/daemon-token-other");
+			FileUtils.writeStringToFile(ConversionDaemon.tokenFile(otherTokenDirectory, daemon.getPort()), "guessed", StandardCharsets.UTF_8);
+			stderr.reset();
+			exitStatus = ConversionDaemonClient.send(daemon.getPort(), otherTokenDirectory,
+					new String[] { "--outputDirectory", outputDirectory.getPath(), "--forceProtoPackage", "default", "src/test/resources/xsd/recipe.xsd" },
+					new PrintStream(new ByteArrayOutputStream()), new PrintStream(stderr));
+			assertEquals(ConversionDaemon.EXIT_UNAUTHORIZED, exitStatus);
+			assertTrue(stderr.toString().contains("rejected"), stderr.toString());
+
+			// Token lengths that do not match are rejected before anything is allocated
+			assertEquals(ConversionDaemon.EXIT_UNAUTHORIZED, sendTokenLength(daemon.getPort(), Integer.MAX_VALUE));
+			assertEquals(ConversionDaemon.EXIT_UNAUTHORIZED, sendTokenLength(daemon.getPort(), -1));
+
+			// The daemon still serves requests
+			exitStatus = ConversionDaemonClient.send(daemon.getPort(), tokenDirectory,
+					new String[] { "--outputDirectory", outputDirectory.getPath(), "--forceProtoPackage", "default", "src/test/resources/xsd/recipe.xsd" },
+					new PrintStream(new ByteArrayOutputStream()), new PrintStream(new ByteArrayOutputStream()));
+			assertEquals(0, exitStatus);
+		}
+
+		server.join(10_000);
+		assertSame(originalOut, System.out);
+		assertFalse(tokenFile.exists());
+	}
+
+	private static int sendTokenLength(int port, int tokenLength) throws IOException {
+		try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+				DataInputStream in = new DataInputStream(socket.getInputStream());
+				DataOutputStream out = new DataOutputStream(socket.getOutputStream())) {
+			out.writeInt(tokenLength);
+			out.flush();
+			while (true) {
+				byte frameType = in.readByte();
+				if (frameType == ConversionDaemon.FRAME_EXIT) {
+					return in.readInt();
+				}
+				in.readFully(new byte[in.readInt()]);
+			}
+		}
+	}
+}
@@ -47,4 +47,18 @@ public class MultipleNamespaceTest extends AbstractMappingTest {
 				"com/schemas/domain/address/com_schemas_domain_address.proto");
 	}
 
+	@Test
+	public void shouldCreateSameFilesWithParallelNamespaces() throws IOException {
+		File parallelGeneratedRootFolder = new File("target/generated-proto/multinamespace-parallel");
+		Schema2Proto.main(new String[] { "--outputDirectory=target/generated-proto/multinamespace-parallel/", "--parallelNamespaces=true",
+				"src/test/resources/xsd/multinamespace/ns-person.xsd" });
+
+		compareExpectedAndGenerated(expectedRootFolder, "com/schemas/domain/person/com_schemas_domain_person.proto", parallelGeneratedRootFolder,
+				"com/schemas/domain/person/com_schemas_domain_person.proto");
+		compareExpectedAndGenerated(expectedRootFolder, "com/schemas/domain/common/com_schemas_domain_common.proto", parallelGeneratedRootFolder,
+				"com/schemas/domain/common/com_schemas_domain_common.proto");
+		compareExpectedAndGenerated(expectedRootFolder, "com/schemas/domain/address/com_schemas_domain_address.proto", parallelGeneratedRootFolder,
+				"com/schemas/domain/address/com_schemas_domain_address.proto");
+	}
+
 }
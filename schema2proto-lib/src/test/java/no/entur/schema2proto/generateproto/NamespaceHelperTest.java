@@ -40,8 +40,11 @@ public class NamespaceHelperTest {
 
 	@Test
 	void testConvertNamespace() throws URNSyntaxError {
-		assertEquals("com.test", NamespaceHelper.xmlNamespaceToProtoPackage("urn:com:test", null));
-		assertEquals("com.test", NamespaceHelper.xmlNamespaceToProtoPackage("http://test.com", null));
+		NamespaceHelper namespaceHelper = new NamespaceHelper();
+		assertEquals("com.test", namespaceHelper.xmlNamespaceToProtoPackage("urn:com:test", null));
+		assertEquals("com.test", namespaceHelper.xmlNamespaceToProtoPackage("http://test.com", null));
+		assertEquals("forced", namespaceHelper.xmlNamespaceToProtoPackage("http://test.com", "Forced"));
+		assertEquals("com.test", namespaceHelper.xmlNamespaceToProtoPackage("http://test.com", null));
 	}
 
 }
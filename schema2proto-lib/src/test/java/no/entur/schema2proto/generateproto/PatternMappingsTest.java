@@ -0,0 +1,61 @@
+package no.entur.schema2proto.generateproto;
+
+/*-
+ * #%L
+ * schema2proto-lib
+ * %%
+ * Copyright (C) 2019 - 2020 Entur
+ * %%
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ * 
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ * 
+ * http://ec.europa.eu/idabc/eupl5
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * #L%
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.Test;
+
+public class PatternMappingsTest {
+
+	@Test
+	public void testLiteralPatterns() {
+		assertEquals("dateTime", PatternMappings.literal(Pattern.compile("^dateTime$")));
+		assertEquals("dateTime", PatternMappings.literal(Pattern.compile("dateTime")));
+		assertNull(PatternMappings.literal(Pattern.compile("^date.*$")));
+		assertNull(PatternMappings.literal(Pattern.compile("^dateTime$", Pattern.CASE_INSENSITIVE)));
+	}
+
+	@Test
+	public void testFirstMatchingPatternIsApplied() {
+		Map<Pattern, String> mappings = new LinkedHashMap<>();
+		mappings.put(Pattern.compile("^Group$"), "GroupType");
+		mappings.put(Pattern.compile("^(.*)Ref$"), "$1");
+		mappings.put(Pattern.compile("^StopRef$"), "StopPlace");
+		mappings.put(Pattern.compile("^(Name)$"), "$1Type");
+
+		PatternMappings patternMappings = new PatternMappings(mappings);
+		assertEquals("GroupType", patternMappings.apply("Group"));
+		assertEquals("Stop", patternMappings.apply("StopRef"));
+		assertEquals("NameType", patternMappings.apply("Name"));
+		assertEquals("Other", patternMappings.apply("Other"));
+		// Cached
+		assertEquals("Stop", patternMappings.apply("StopRef"));
+	}
+}
@@ -24,17 +24,25 @@ package no.entur.schema2proto.generateproto;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
 import no.entur.schema2proto.AbstractMappingTest;
+import no.entur.schema2proto.InvalidConfigurationException;
 
 public class Schema2ProtoTest extends AbstractMappingTest {
 
@@ -59,6 +67,63 @@ public class Schema2ProtoTest extends AbstractMappingTest {
 		compareExpectedAndGenerated(expectedRootFolder, "default/shiporder.proto", generatedRootFolder, "default/default.proto");
 	}
 
+	@Test
+	public void convertAllInParallel() throws IOException, InvalidConfigurationException {
+		FileUtils.deleteDirectory(generatedRootFolder);
+
+		List<String> xsdFiles = Arrays.asList("recipe.xsd", "shiporder.xsd", "test-choice.xsd", "test-datatypes.xsd");
+		List<Schema2ProtoConfiguration> configurations = new ArrayList<>();
+		for (String xsdFile : xsdFiles) {
+			Schema2ProtoConfiguration configuration = new Schema2ProtoConfiguration();
+			configuration.forceProtoPackage = "default";
+			configuration.xsdFile = new File("src/test/resources/xsd/" + xsdFile);
+			configuration.outputDirectory = new File(generatedRootFolder, xsdFile);
+			configurations.add(configuration);
+		}
+
+		Schema2Proto.convertAll(configurations, 4);
+
+		for (Schema2ProtoConfiguration configuration : configurations) {
+			String protoFile = "default/" + StringUtils.removeEnd(configuration.xsdFile.getName(), ".xsd") + ".proto";
+			compareExpectedAndGenerated(expectedRootFolder, protoFile, configuration.outputDirectory, "default/default.proto");
+		}
+	}
+
+	@Test
+	public void rejectInvalidThreads() {
+		for (String threads : Arrays.asList("0", "-1", "many")) {
+			ConversionException e = Assertions.assertThrows(ConversionException.class, () -> new Schema2Proto(
+					new String[] { "--threads=" + threads, "--outputDirectory=" + generatedRootFolder.getPath(), "src/test/resources/xsd/recipe.xsd" }));
+			Assertions.assertTrue(e.getCause() instanceof InvalidConfigurationException, threads);
+		}
+	}
+
+	@Test
+	public void convertAgainKeepsUnchangedProtoFiles() throws IOException, InvalidConfigurationException {
+		File outputDirectory = new File(generatedRootFolder, "reconvert");
+		FileUtils.deleteDirectory(outputDirectory);
+
+		Schema2ProtoConfiguration configuration = new Schema2ProtoConfiguration();
+		configuration.xsdFile = new File("src/test/resources/xsd/multinamespace/ns-person.xsd");
+		configuration.outputDirectory = outputDirectory;
+
+		Set<File> xsdFiles = Schema2Proto.convert(configuration);
+		Assertions.assertEquals(3, xsdFiles.size(), xsdFiles.toString());
+
+		Collection<File> protoFiles = FileUtils.listFiles(outputDirectory, new String[] { "proto" }, true);
+		Assertions.assertFalse(protoFiles.isEmpty());
+		long lastModified = System.currentTimeMillis() - 60000;
+		for (File protoFile : protoFiles) {
+			Assertions.assertTrue(protoFile.setLastModified(lastModified));
+		}
+
+		Schema2Proto.convert(configuration);
+
+		for (File protoFile : protoFiles) {
+			Assertions.assertEquals(lastModified / 1000, protoFile.lastModified() / 1000, protoFile.getName());
+		}
+	}
+
 	@Test
 	public void compareBackwardsCompatibleProtobuf() throws IOException {
 		Schema2ProtoConfiguration configuration = new Schema2ProtoConfiguration();
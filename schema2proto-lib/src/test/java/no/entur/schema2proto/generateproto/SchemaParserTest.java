@@ -149,6 +149,14 @@ public class SchemaParserTest extends AbstractMappingTest {
 		compareExpectedAndGenerated(expectedRootFolder, "default/skipemptytypeinheritance.proto", generatedRootFolder, "default/default.proto");
 	}
 
+	@Test
+	public void testRootElements() throws IOException {
+		Schema2ProtoConfiguration configuration = new Schema2ProtoConfiguration();
+		configuration.rootElements.add("Delivery");
+		generateProtobufNoTypeOrNameMappings("basic/rootelements.xsd", configuration);
+		compareExpectedAndGenerated(expectedRootFolder, "default/rootelements.proto", generatedRootFolder, "default/default.proto");
+	}
+
 	@Test
 	public void testUnboundedChoice() throws IOException {
 		generateProtobufNoOptions("basic/unboundedchoices.xsd");
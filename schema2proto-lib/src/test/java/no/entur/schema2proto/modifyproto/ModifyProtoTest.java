@@ -22,6 +22,9 @@
  */
 package no.entur.schema2proto.modifyproto;
 
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
@@ -29,6 +32,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
+import org.apache.commons.io.FileUtils;
 import org.junit.jupiter.api.Test;
 
 import no.entur.schema2proto.AbstractMappingTest;
@@ -207,6 +211,69 @@ public class ModifyProtoTest extends AbstractMappingTest {
 
 	}
 
+	@Test
+	public void testAddFieldOptions() throws IOException, InvalidProtobufException, InvalidConfigurationException {
+
+		File expected = new File("src/test/resources/modify/expected/nopackagename").getCanonicalFile();
+		File source = new File("src/test/resources/modify/input/nopackagename").getCanonicalFile();
+
+		FieldOption gte = new FieldOption();
+		gte.targetMessageType = "A";
+		gte.field = "response_timestamp";
+		gte.option = "[(validate.rules).uint64.gte = 20]";
+
+		FieldOption minLen = new FieldOption();
+		minLen.targetMessageType = "B";
+		minLen.field = "value";
+		minLen.option = "[(validate.rules).string.min_len = 1]";
+
+		FieldOption lte = new FieldOption();
+		lte.targetMessageType = "A";
+		lte.field = "response_timestamp";
+		lte.option = "[(validate.rules).uint64.lte = 40]";
+
+		ModifyProtoConfiguration configuration = new ModifyProtoConfiguration();
+		configuration.inputDirectory = source;
+		configuration.fieldOptions = Arrays.asList(gte, minLen, lte);
+
+		modifyProto(configuration);
+
+		compareExpectedAndGenerated(expected, "addedFieldOptions.proto", generatedRootFolder, "simple.proto");
+
+	}
+
+	@Test
+	public void testAddFieldOptionsRejectsTextAfterOption() {
+
+		File source = new File("src/test/resources/modify/input/nopackagename");
+
+		FieldOption gte = new FieldOption();
+		gte.targetMessageType = "A";
+		gte.field = "response_timestamp";
+		gte.option = "[(validate.rules).uint64.gte = 20]";
+
+		FieldOption minLen = new FieldOption();
+		minLen.targetMessageType = "B";
+		minLen.field = "value";
+		minLen.option = "[(validate.rules).string.min_len = 1];";
+
+		FieldOption lte = new FieldOption();
+		lte.targetMessageType = "A";
+		lte.field = "response_timestamp";
+		lte.option = "[(validate.rules).uint64.lte = 40]";
+
+		ModifyProtoConfiguration configuration = new ModifyProtoConfiguration();
+		configuration.inputDirectory = source;
+		configuration.fieldOptions = Arrays.asList(gte, minLen, lte);
+
+		InvalidProtobufException e = assertThrows(InvalidProtobufException.class, () -> modifyProto(configuration));
+		assertTrue(e.getMessage().contains(minLen.option), e.getMessage());
+
+		minLen.option = "[(validate.rules).string.min_len = 1] [(validate.rules).string.max_len = 10]";
+		e = assertThrows(InvalidProtobufException.class, () -> modifyProto(configuration));
+		assertTrue(e.getMessage().contains(minLen.option), e.getMessage());
+	}
+
 	@Test
 	public void testAddEnumValue() throws IOException, InvalidProtobufException, InvalidConfigurationException {
 
@@ -266,4 +333,33 @@ public class ModifyProtoTest extends AbstractMappingTest {
 		modifyProto(configuration);
 		compareExpectedAndGenerated(expected, "no_langtype.proto", generatedRootFolder, "simple.proto");
 	}
+
+	@Test
+	public void testMultipleConfigurationsSharingSchema() throws IOException, InvalidProtobufException, InvalidConfigurationException {
+
+		File expected = new File("src/test/resources/modify/expected/nopackagename").getCanonicalFile();
+		File source = new File("src/test/resources/modify/input/nopackagename").getCanonicalFile();
+		File mergefrom = new File("src/test/resources/modify/mergefrom/nopackagename").getCanonicalFile();
+
+		FileUtils.deleteDirectory(generatedRootFolder);
+
+		ModifyProtoConfiguration excludeConfiguration = new ModifyProtoConfiguration();
+		excludeConfiguration.inputDirectory = source;
+		excludeConfiguration.excludes = Collections.singletonList("A");
+		excludeConfiguration.outputDirectory = new File(generatedRootFolder, "exclude");
+
+		MergeFrom m = new MergeFrom();
+		m.sourceFolder = mergefrom;
+		m.protoFile = "mergefrom.proto";
+
+		ModifyProtoConfiguration mergeConfiguration = new ModifyProtoConfiguration();
+		mergeConfiguration.inputDirectory = source;
+		mergeConfiguration.mergeFrom = Collections.singletonList(m);
+		mergeConfiguration.outputDirectory = new File(generatedRootFolder, "merge");
+
+		new ModifyProto().modifyProto(Arrays.asList(excludeConfiguration, mergeConfiguration), true);
+
+		compareExpectedAndGenerated(expected, "missing_a.proto", excludeConfiguration.outputDirectory, "simple.proto");
+		compareExpectedAndGenerated(expected, "mergefrom.proto", mergeConfiguration.outputDirectory, "simple.proto");
+	}
 }
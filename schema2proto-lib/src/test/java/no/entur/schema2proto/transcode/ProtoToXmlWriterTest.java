@@ -0,0 +1,159 @@
+/*-
+ * #%L
+ * schema2proto-lib
+ * %%
+ * Copyright (C) 2019 Entur
+ * %%
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl5
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * #L%
+ */
+package no.entur.schema2proto.transcode;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Test;
+
+import com.squareup.wire.schema.Schema;
+import com.squareup.wire.schema.SchemaLoader;
+
+import no.entur.schema2proto.AbstractMappingTest;
+import no.entur.schema2proto.generateproto.Schema2ProtoConfiguration;
+import no.entur.schema2proto.generateproto.TypeAndNameMapper;
+
+public class ProtoToXmlWriterTest extends AbstractMappingTest {
+
+	private static final String XML = "<?xml version=\"1.0\" encoding=\"UTF-8\"?><Stops xmlns=\"http://www.entur.org/stops\" created=\"2020-01-01T00:00:01Z\">"
+			+ "<StopPlace id=\"NSR:StopPlace:1\" version=\"3\"><Name lang=\"no\">Oslo S</Name><version>v3</version><StopPlaceType>railStation</StopPlaceType>"
+			+ "<QuayRef>NSR:Quay:1</QuayRef><Order>1</Order><QuayRef>NSR:Quay:2</QuayRef></StopPlace>"
+			+ "<StopPlace id=\"NSR:StopPlace:2\"><Name>Bergen</Name></StopPlace></Stops>";
+
+	private static final Map<String, String> NAMESPACES = Collections.singletonMap("stops", "http://www.entur.org/stops");
+
+	private static final String EVENTS_XML = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+			+ "<Events xmlns=\"http://www.entur.org/events\" day=\"2020-01-01\" count=\"2\" total=\"18446744073709551615\""
+			+ " checksum=\"CAFEBABE\" signature=\"CAFEBABE\">" + "<Arrival id=\"a1\" delayed=\"true\"><Note>late</Note><Platform>1</Platform></Arrival>"
+			+ "<Logged><Departure id=\"d1\"><Gate>A</Gate></Departure><Arrival id=\"a2\"><Platform>2</Platform></Arrival></Logged></Events>";
+
+	private static final String PERSON_XML = "<?xml version=\"1.0\" encoding=\"UTF-8\"?><person xmlns=\"http://schemas.com/domain/person\"><name>Ada</name>"
+			+ "<domicile iso3=\"NOR\"><description xmlns=\"http://schemas.com/domain/common\">Norway</description></domicile>"
+			+ "<address xmlns=\"http://schemas.com/domain/address\"><addressLines><line>Storgata 1</line><line>2. etasje</line></addressLines>"
+			+ "<city>Oslo</city><postCode>0155</postCode>"
+			+ "<country iso3=\"NOR\"><description xmlns=\"http://schemas.com/domain/common\">Norway</description></country></address></person>";
+
+	private File importFolder = new File("target/xsd-options");
+
+	private Schema generate(boolean includeXsdOptions, Schema2ProtoConfiguration configuration) throws IOException {
+		configuration.forceProtoPackage = "stops";
+		return generate("transcode/stops.xsd", includeXsdOptions, configuration);
+	}
+
+	private Schema generate(String xsdFile, boolean includeXsdOptions, Schema2ProtoConfiguration configuration) throws IOException {
+		try (InputStream xsdProto = getClass().getResourceAsStream("/xsd/xsd.proto")) {
+			FileUtils.copyInputStreamToFile(xsdProto, new File(importFolder, "xsd/xsd.proto"));
+		}
+		configuration.includeXsdOptions = includeXsdOptions;
+		configuration.customImportLocations = Collections.singletonList(importFolder.getPath());
+		generateProtobuf(xsdFile, configuration);
+
+		SchemaLoader schemaLoader = new SchemaLoader();
+		schemaLoader.addSource(importFolder);
+		schemaLoader.addSource(generatedRootFolder);
+		return schemaLoader.load();
+	}
+
+	@Test
+	public void testRoundtrip() throws IOException, XMLStreamException {
+		Schema2ProtoConfiguration configuration = new Schema2ProtoConfiguration();
+		Schema schema = generate(true, configuration);
+
+		ByteArrayOutputStream protobuf = new ByteArrayOutputStream();
+		new XmlToProtoTranscoder(schema, new TypeAndNameMapper(configuration)).transcode(new ByteArrayInputStream(XML.getBytes(StandardCharsets.UTF_8)),
+				"stops.StopsType", protobuf);
+
+		ByteArrayOutputStream xml = new ByteArrayOutputStream();
+		new ProtoToXmlWriter(schema, NAMESPACES).write(new ByteArrayInputStream(protobuf.toByteArray()), "stops.StopsType", "Stops", xml);
+
+		assertEquals(XML, new String(xml.toByteArray(), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void testRoundtripAttributesAfterElements() throws IOException, XMLStreamException {
+		Schema2ProtoConfiguration configuration = new Schema2ProtoConfiguration();
+		configuration.forceProtoPackage = "events";
+		Schema schema = generate("transcode/events.xsd", true, configuration);
+
+		assertEquals(EVENTS_XML,
+				roundtrip(schema, configuration, EVENTS_XML, "events.EventsType", "Events", Collections.singletonMap("events", "http://www.entur.org/events")));
+	}
+
+	@Test
+	public void testRejectInvalidHexBinary() throws IOException {
+		Schema2ProtoConfiguration configuration = new Schema2ProtoConfiguration();
+		configuration.forceProtoPackage = "events";
+		Schema schema = generate("transcode/events.xsd", true, configuration);
+
+		String xml = EVENTS_XML.replace("checksum=\"CAFEBABE\"", "checksum=\"CAFEBABX\"");
+		assertThrows(TranscodingException.class,
+				() -> roundtrip(schema, configuration, xml, "events.EventsType", "Events", Collections.singletonMap("events", "http://www.entur.org/events")));
+	}
+
+	@Test
+	public void testRoundtripMultipleNamespaces() throws IOException, XMLStreamException {
+		Schema2ProtoConfiguration configuration = new Schema2ProtoConfiguration();
+		Schema schema = generate("multinamespace/ns-person.xsd", true, configuration);
+
+		Map<String, String> namespaces = new HashMap<>();
+		namespaces.put("com.schemas.domain.person", "http://schemas.com/domain/person");
+		namespaces.put("com.schemas.domain.address", "http://schemas.com/domain/address");
+		namespaces.put("com.schemas.domain.common", "http://schemas.com/domain/common");
+
+		assertEquals(PERSON_XML, roundtrip(schema, configuration, PERSON_XML, "com.schemas.domain.person.PersonType", "person", namespaces));
+	}
+
+	private static String roundtrip(Schema schema, Schema2ProtoConfiguration configuration, String xml, String rootTypeName, String rootElementName,
+			Map<String, String> namespaces) throws IOException, XMLStreamException {
+		ByteArrayOutputStream protobuf = new ByteArrayOutputStream();
+		new XmlToProtoTranscoder(schema, new TypeAndNameMapper(configuration)).transcode(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)),
+				rootTypeName, protobuf);
+
+		ByteArrayOutputStream written = new ByteArrayOutputStream();
+		new ProtoToXmlWriter(schema, namespaces).write(new ByteArrayInputStream(protobuf.toByteArray()), rootTypeName, rootElementName, written);
+		return new String(written.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	@Test
+	public void testRequiresXsdOptions() throws IOException {
+		Schema schema = generate(false, new Schema2ProtoConfiguration());
+
+		ProtoToXmlWriter writer = new ProtoToXmlWriter(schema, NAMESPACES);
+		assertThrows(TranscodingException.class,
+				() -> writer.write(new ByteArrayInputStream(new byte[0]), "stops.StopsType", "Stops", new ByteArrayOutputStream()));
+	}
+}
@@ -0,0 +1,198 @@
+/*-
+ * #%L
+ * schema2proto-lib
+ * %%
+ * Copyright (C) 2019 Entur
+ * %%
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl5
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * #L%
+ */
+package no.entur.schema2proto.transcode;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.squareup.wire.ProtoAdapter;
+import com.squareup.wire.ProtoReader;
+import com.squareup.wire.schema.Field;
+import com.squareup.wire.schema.MessageType;
+import com.squareup.wire.schema.ProtoType;
+import com.squareup.wire.schema.Schema;
+import com.squareup.wire.schema.SchemaLoader;
+import com.squareup.wire.schema.Type;
+
+import no.entur.schema2proto.AbstractMappingTest;
+import no.entur.schema2proto.generateproto.Schema2ProtoConfiguration;
+import no.entur.schema2proto.generateproto.TypeAndNameMapper;
+import okio.Buffer;
+
+public class XmlToProtoTranscoderTest extends AbstractMappingTest {
+
+	private static final String XML = "<Stops xmlns=\"http://www.entur.org/stops\" created=\"2020-01-01T00:00:01Z\">"
+			+ "<StopPlace id=\"NSR:StopPlace:1\" version=\"3\"><Name lang=\"no\">Oslo S</Name><version>v3</version><StopPlaceType>railStation</StopPlaceType>"
+			+ "<QuayRef>NSR:Quay:1</QuayRef><Order>1</Order><QuayRef>NSR:Quay:2</QuayRef><Unknown><Nested/></Unknown></StopPlace>"
+			+ "<StopPlace id=\"NSR:StopPlace:2\"><Name>Bergen</Name></StopPlace></Stops>";
+
+	private static final String EVENTS_XML = "<Events xmlns=\"http://www.entur.org/events\" day=\"%s\" count=\"%s\" total=\"18446744073709551615\">"
+			+ "<Arrival id=\"a1\"><Platform>1</Platform></Arrival>"
+			+ "<Logged><Departure id=\"d1\"><Gate>A</Gate></Departure><Arrival id=\"a2\"><Note>late</Note><Platform>2</Platform></Arrival></Logged></Events>";
+
+	private static final Map<ProtoType, ProtoAdapter<?>> SCALAR_ADAPTERS = new HashMap<>();
+
+	static {
+		SCALAR_ADAPTERS.put(ProtoType.INT32, ProtoAdapter.INT32);
+		SCALAR_ADAPTERS.put(ProtoType.STRING, ProtoAdapter.STRING);
+		SCALAR_ADAPTERS.put(ProtoType.UINT32, ProtoAdapter.UINT32);
+		SCALAR_ADAPTERS.put(ProtoType.UINT64, ProtoAdapter.UINT64);
+	}
+
+	private Schema schema;
+	private TypeAndNameMapper typeAndNameMapper;
+
+	@BeforeEach
+	public void generate() throws IOException {
+		schema = generate("transcode/stops.xsd", "stops");
+	}
+
+	private Schema generate(String xsdFile, String protoPackage) throws IOException {
+		Schema2ProtoConfiguration configuration = new Schema2ProtoConfiguration();
+		configuration.forceProtoPackage = protoPackage;
+		generateProtobuf(xsdFile, configuration);
+
+		SchemaLoader schemaLoader = new SchemaLoader();
+		schemaLoader.addSource(generatedRootFolder);
+		typeAndNameMapper = new TypeAndNameMapper(configuration);
+		return schemaLoader.load();
+	}
+
+	private byte[] transcode(XmlToProtoTranscoder transcoder, String xml, String rootTypeName) throws IOException, XMLStreamException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		transcoder.transcode(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)), rootTypeName, out);
+		return out.toByteArray();
+	}
+
+	@Test
+	public void testTranscode() throws IOException, XMLStreamException {
+		byte[] protobuf = transcode(new XmlToProtoTranscoder(schema, typeAndNameMapper), XML, "stops.StopsType");
+
+		Object decoded = schema.protoAdapter("stops.StopsType", false).decode(protobuf);
+
+		Map<String, Object> stopPlace1 = new LinkedHashMap<>();
+		stopPlace1.put("id", "NSR:StopPlace:1");
+		stopPlace1.put("attr_version", "3");
+		stopPlace1.put("name", map("lang", "no", "value", "Oslo S"));
+		stopPlace1.put("version", "v3");
+		stopPlace1.put("stop_place_type", "STOP_TYPE_ENUMERATION_RAIL_STATION");
+		stopPlace1.put("sequence_wrapper", Arrays.asList(map("quay_ref", "NSR:Quay:1", "order", 1), map("quay_ref", "NSR:Quay:2")));
+
+		Map<String, Object> stopPlace2 = new LinkedHashMap<>();
+		stopPlace2.put("id", "NSR:StopPlace:2");
+		stopPlace2.put("name", map("value", "Bergen"));
+
+		assertEquals(map("created", 1577836801000L, "stop_place", Arrays.asList(stopPlace1, stopPlace2)), decoded);
+	}
+
+	@Test
+	public void testTranscodeSubstitutionGroups() throws IOException, XMLStreamException {
+		Schema events = generate("transcode/events.xsd", "events");
+		byte[] protobuf = transcode(new XmlToProtoTranscoder(events, typeAndNameMapper), String.format(EVENTS_XML, "2020-01-01", "2"), "events.EventsType");
+
+		Object decoded = decode(events, (MessageType) events.getType("events.EventsType"), new ProtoReader(new Buffer().write(protobuf)));
+
+		Map<String, Object> logged = map("event",
+				Arrays.asList(map("departure", map("id", "d1", "gate", "A")), map("arrival", map("id", "a2", "note", "late", "platform", "2"))));
+		assertEquals(map("day", 18262, "count", 2, "total", -1L, "arrival", map("id", "a1", "platform", "1"), "logged", Collections.singletonList(logged)),
+				decoded);
+	}
+
+	@Test
+	public void testTranscodeDatesWithOffset() throws IOException, XMLStreamException {
+		Schema events = generate("transcode/events.xsd", "events");
+		XmlToProtoTranscoder transcoder = new XmlToProtoTranscoder(events, typeAndNameMapper);
+		byte[] expected = transcode(transcoder, String.format(EVENTS_XML, "2020-01-01", "2"), "events.EventsType");
+
+		for (String day : Arrays.asList("2020-01-01Z", "2020-01-01+01:00", "2020-01-01-05:00")) {
+			assertArrayEquals(expected, transcode(transcoder, String.format(EVENTS_XML, day, "2"), "events.EventsType"), day);
+		}
+	}
+
+	@Test
+	public void testRejectTimeInIntegerField() throws IOException {
+		Schema events = generate("transcode/events.xsd", "events");
+		XmlToProtoTranscoder transcoder = new XmlToProtoTranscoder(events, typeAndNameMapper);
+
+		assertThrows(TranscodingException.class, () -> transcode(transcoder, String.format(EVENTS_XML, "2020-01-01", "12:30"), "events.EventsType"));
+	}
+
+	@Test
+	public void testSpillLargeMessagesToDisk() throws IOException, XMLStreamException {
+		Schema events = generate("transcode/events.xsd", "events");
+		String xml = String.format(EVENTS_XML, "2020-01-01", "2");
+
+		byte[] expected = transcode(new XmlToProtoTranscoder(events, typeAndNameMapper), xml, "events.EventsType");
+		assertArrayEquals(expected, transcode(new XmlToProtoTranscoder(events, typeAndNameMapper, 1), xml, "events.EventsType"));
+	}
+
+	/**
+	 * Decodes messages to maps like the schema adapter does, which skips oneof fields.
+	 */
+	@SuppressWarnings("unchecked")
+	private static Map<String, Object> decode(Schema schema, MessageType messageType, ProtoReader reader) throws IOException {
+		Map<String, Object> decoded = new LinkedHashMap<>();
+		long token = reader.beginMessage();
+		for (int tag; (tag = reader.nextTag()) != -1;) {
+			for (Field field : messageType.fieldsAndOneOfFields()) {
+				if (field.tag() == tag) {
+					Type type = schema.getType(field.type());
+					Object value = type instanceof MessageType ? decode(schema, (MessageType) type, reader) : SCALAR_ADAPTERS.get(field.type()).decode(reader);
+					if (field.isRepeated()) {
+						((List<Object>) decoded.computeIfAbsent(field.name(), k -> new ArrayList<>())).add(value);
+					} else {
+						decoded.put(field.name(), value);
+					}
+				}
+			}
+		}
+		reader.endMessage(token);
+		return decoded;
+	}
+
+	private static Map<String, Object> map(Object... keysAndValues) {
+		Map<String, Object> map = new LinkedHashMap<>();
+		for (int i = 0; i < keysAndValues.length; i += 2) {
+			map.put((String) keysAndValues[i], keysAndValues[i + 1]);
+		}
+		return map;
+	}
+}
@@ -24,6 +24,8 @@ package no.entur;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
@@ -43,9 +45,21 @@ public class ModifyProtoMojo extends AbstractMojo {
 	/**
 	 * Configuration file for schema2proto
 	 */
-	@Parameter(required = true)
+	@Parameter
 	private File configFile;
 
+	/**
+	 * Additional configuration files. Configurations using the same input directory share a single loaded schema
+	 */
+	@Parameter
+	private List<File> configFiles;
+
+	/**
+	 * Run the configurations in parallel
+	 */
+	@Parameter(property = "schema2proto.modify.parallel", defaultValue = "false")
+	private boolean parallel;
+
 	@Parameter(readonly = true, defaultValue = "${project}")
 	private MavenProject project;
 
@@ -57,21 +71,33 @@ public class ModifyProtoMojo extends AbstractMojo {
 
 	public void execute() throws MojoExecutionException {
 
-		if (configFile == null || !configFile.exists()) {
+		List<File> allConfigFiles = new ArrayList<>();
+		if (configFile != null) {
+			allConfigFiles.add(configFile);
+		}
+		if (configFiles != null) {
+			allConfigFiles.addAll(configFiles);
+		}
+
+		if (allConfigFiles.isEmpty() || allConfigFiles.stream().anyMatch(e -> !e.exists())) {
 			throw new MojoExecutionException("Config file not found");
 		}
 
-		getLog().info(String.format("Modifying proto files from using config file %s. Output is defined in config file", configFile));
+		getLog().info(String.format("Modifying proto files from using config files %s. Output is defined in config file", allConfigFiles));
 		try {
 
-			ModifyProtoConfiguration configuration = ModifyProto.parseConfigurationFile(configFile, project.getBasedir());
+			List<ModifyProtoConfiguration> configurations = new ArrayList<>();
+			for (File file : allConfigFiles) {
+				ModifyProtoConfiguration configuration = ModifyProto.parseConfigurationFile(file, project.getBasedir());
 
-			// Override based on maven parameter -DfailIfRemovedFields
-			if (failIfRemovedFields != null) {
-				configuration.failIfRemovedFields = failIfRemovedFields;
+				// Override based on maven parameter -DfailIfRemovedFields
+				if (failIfRemovedFields != null) {
+					configuration.failIfRemovedFields = failIfRemovedFields;
+				}
+				configurations.add(configuration);
 			}
 
-			new ModifyProto().modifyProto(configuration);
+			new ModifyProto().modifyProto(configurations, parallel);
 		} catch (IOException e) {
 			throw new MojoExecutionException("Error modifying proto files", e);
 		} catch (InvalidConfigurationException e) {
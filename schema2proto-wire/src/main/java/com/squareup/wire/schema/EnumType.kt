@@ -105,6 +105,24 @@ class EnumType public constructor(
         }
     }
 
+    /** Reserves the [tags] not reserved already with a single reservation, coalescing consecutive tags into ranges. */
+    fun addReservedTags(documentation: String?, location: Location?, tags: Collection<Int>) {
+        val index = Reserved.Index(reserveds)
+        val values = Reserved.coalesceTags(tags.filter { index.matchingTag(it).isEmpty() })
+        if (values.isNotEmpty()) {
+            reserveds.add(Reserved(location!!, documentation!!, values))
+        }
+    }
+
+    /** Reserves the [fieldNames] not reserved already with a single reservation. */
+    fun addReservedNames(documentation: String?, location: Location?, fieldNames: Collection<String>) {
+        val index = Reserved.Index(reserveds)
+        val values = fieldNames.filter { index.matchingName(it).isEmpty() }.distinct()
+        if (values.isNotEmpty()) {
+            reserveds.add(Reserved(location!!, documentation!!, values))
+        }
+    }
+
 
     internal override fun retainAll(
             schema: Schema,
@@ -119,7 +137,7 @@ class EnumType public constructor(
 
         val result = EnumType(
                 protoType, location, documentation, name,
-                retainedConstants, reserveds,
+                retainedConstants, reserveds.toMutableList(),
                 options.retainAll(schema, markSet)
         )
         result.allowAlias = allowAlias
@@ -293,18 +293,24 @@ public final class Linker {
 	void validateFields(Iterable<Field> fields, List<Reserved> reserveds) {
 		Multimap<Integer, Field> tagToField = LinkedHashMultimap.create();
 		Multimap<String, Field> nameToField = LinkedHashMultimap.create();
+		Reserved.Index reservedIndex = new Reserved.Index(reserveds);
 		for (Field field : fields) {
 			int tag = field.tag();
 			if (!Util.isValidTag(tag)) {
 				withContext(field).addError("tag is out of range: %s", tag);
 			}
 
-			for (Reserved reserved : reserveds) {
-				if (reserved.matchesTag(tag)) {
-					withContext(field).addError("tag %s is reserved (%s)", tag, reserved.getLocation());
-				}
-				if (reserved.matchesName(field.name())) {
-					withContext(field).addError("name '%s' is reserved (%s)", field.name(), reserved.getLocation());
+			List<Reserved> reservedTags = reservedIndex.matchingTag(tag);
+			List<Reserved> reservedNames = reservedIndex.matchingName(field.name());
+			if (!reservedTags.isEmpty() || !reservedNames.isEmpty()) {
+				// Report in declaration order
+				for (Reserved reserved : reserveds) {
+					if (reservedTags.contains(reserved)) {
+						withContext(field).addError("tag %s is reserved (%s)", tag, reserved.getLocation());
+					}
+					if (reservedNames.contains(reserved)) {
+						withContext(field).addError("name '%s' is reserved (%s)", field.name(), reserved.getLocation());
+					}
 				}
 			}
 
@@ -43,10 +43,12 @@ import static com.google.common.base.Preconditions.checkNotNull;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
 
 import com.google.common.collect.ImmutableList;
 import com.squareup.wire.schema.internal.parser.GroupElement;
@@ -130,6 +132,28 @@ public final class MessageType extends Type {
 		}
 	}
 
+	/**
+	 * Reserve the tags not reserved already with a single reservation, coalescing consecutive tags into ranges.
+	 */
+	public void addReservedTags(String documentation, Location location, Collection<Integer> tags) {
+		Reserved.Index index = new Reserved.Index(reserveds);
+		List<Object> values = Reserved.coalesceTags(tags.stream().filter(tag -> index.matchingTag(tag).isEmpty()).collect(Collectors.toList()));
+		if (!values.isEmpty()) {
+			reserveds.add(new Reserved(location, documentation, values));
+		}
+	}
+
+	/**
+	 * Reserve the field names not reserved already with a single reservation.
+	 */
+	public void addReservedNames(String documentation, Location location, Collection<String> fieldNames) {
+		Reserved.Index index = new Reserved.Index(reserveds);
+		List<Object> values = fieldNames.stream().filter(name -> index.matchingName(name).isEmpty()).distinct().collect(Collectors.toList());
+		if (!values.isEmpty()) {
+			reserveds.add(new Reserved(location, documentation, values));
+		}
+	}
+
 	@Override
 	public String toString() {
 		return "MessageType [name=" + name + "]";
@@ -370,8 +394,8 @@ public final class MessageType extends Type {
 		ImmutableList<OneOf> retainedOneOfs = retainedOneOfsBuilder.build();
 
 		return new MessageType(protoType, location, documentation, name, Field.retainAll(schema, markSet, protoType, declaredFields),
-				Field.retainAll(schema, markSet, protoType, extensionFields), retainedOneOfs, retainedNestedTypes, extensionsList, reserveds,
-				options.retainAll(schema, markSet));
+				Field.retainAll(schema, markSet, protoType, extensionFields), retainedOneOfs, retainedNestedTypes, new ArrayList<>(extensionsList),
+				new ArrayList<>(reserveds), options.retainAll(schema, markSet));
 	}
 
 	static MessageType fromElement(String packageName, ProtoType protoType, MessageElement messageElement) {
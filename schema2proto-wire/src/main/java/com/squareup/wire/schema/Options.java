@@ -364,10 +364,12 @@ public final class Options {
 	}
 
 	Options retainAll(Schema schema, MarkSet markSet) {
+		// Always return a copy, the option elements of the pruned schema may be modified independently of this schema
+		Options result = new Options(optionType, optionElements);
 		if (map.isEmpty()) {
-			return this; // Nothing to prune.
+			result.map = map; // Nothing to prune.
+			return result;
 		}
-		Options result = new Options(optionType, optionElements);
 		Object mapOrNull = retainAll(schema, markSet, optionType, map);
 		result.map = mapOrNull != null ? (ImmutableMap<ProtoMember, Object>) mapOrNull : ImmutableMap.<ProtoMember, Object>of();
 		return result;
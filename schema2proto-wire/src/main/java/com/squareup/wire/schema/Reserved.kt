@@ -17,6 +17,8 @@ package com.squareup.wire.schema
 
 import com.google.common.collect.Range
 import com.squareup.wire.schema.internal.parser.ReservedElement
+import java.util.Arrays
+import java.util.TreeSet
 
 class Reserved(
         val location: Location,
@@ -29,7 +31,86 @@ class Reserved(
 
     fun matchesName(name: String) = values.any { it is String && name == it }
 
+    /**
+     * Looks up the reservations matching a tag or name. Tags are found by binary search over the reserved ranges sorted by
+     * their lower end, so validating a message does not scan every reservation for every field.
+     */
+    class Index(private val reserveds: List<Reserved>) {
+        private val starts: IntArray
+        private val ends: IntArray
+        /** Highest end of the ranges up to and including each position, to stop the search for overlapping ranges. */
+        private val maxEnds: IntArray
+        private val positions: IntArray
+        private val names = HashMap<String, MutableList<Reserved>>()
+
+        init {
+            val ranges = ArrayList<IntArray>()
+            reserveds.forEachIndexed { position, reserved ->
+                for (value in reserved.values) {
+                    when (value) {
+                        is Int -> ranges.add(intArrayOf(value, value, position))
+                        is Range<*> -> ranges.add(intArrayOf(value.lowerEndpoint() as Int, value.upperEndpoint() as Int, position))
+                        is String -> names.getOrPut(value) { ArrayList() }.let {
+                            if (it.lastOrNull() !== reserved) it.add(reserved)
+                        }
+                    }
+                }
+            }
+            ranges.sortWith(compareBy({ it[0] }, { it[2] }))
+            starts = IntArray(ranges.size) { ranges[it][0] }
+            ends = IntArray(ranges.size) { ranges[it][1] }
+            positions = IntArray(ranges.size) { ranges[it][2] }
+            maxEnds = IntArray(ranges.size)
+            for (i in ranges.indices) {
+                maxEnds[i] = if (i == 0) ends[i] else maxOf(maxEnds[i - 1], ends[i])
+            }
+        }
+
+        /** Returns the reservations containing [tag], in declaration order. */
+        fun matchingTag(tag: Int): List<Reserved> {
+            var i = Arrays.binarySearch(starts, tag)
+            if (i < 0) {
+                i = -i - 2
+            } else {
+                while (i + 1 < starts.size && starts[i + 1] == tag) i++
+            }
+            val matches = TreeSet<Int>()
+            while (i >= 0 && maxEnds[i] >= tag) {
+                if (ends[i] >= tag) matches.add(positions[i])
+                i--
+            }
+            return matches.map { reserveds[it] }
+        }
+
+        /** Returns the reservations containing [name], in declaration order. */
+        fun matchingName(name: String): List<Reserved> = names[name] ?: emptyList()
+    }
+
     companion object {
+        /**
+         * Returns [tags] sorted and coalesced into ranges: consecutive tags become a [Range<Int>][Range], single tags stay
+         * [Int]s.
+         */
+        @JvmStatic
+        fun coalesceTags(tags: Collection<Int>): List<Any> {
+            val values = ArrayList<Any>()
+            var start = 0
+            var end = 0
+            var first = true
+            for (tag in TreeSet(tags)) {
+                if (!first && tag == end + 1) {
+                    end = tag
+                    continue
+                }
+                if (!first) values.add(if (start == end) start else Range.closed(start, end))
+                start = tag
+                end = tag
+                first = false
+            }
+            if (!first) values.add(if (start == end) start else Range.closed(start, end))
+            return values
+        }
+
         @JvmStatic
         fun fromElements(elements: List<ReservedElement>) =
                 elements.map { Reserved(it.location, it.documentation, it.values) }
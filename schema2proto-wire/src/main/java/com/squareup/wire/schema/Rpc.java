@@ -83,10 +83,20 @@ public final class Rpc {
 		return requestType;
 	}
 
+	/** Returns the request type as written in the source, before linking. */
+	public String requestTypeElement() {
+		return requestTypeElement;
+	}
+
 	public ProtoType responseType() {
 		return responseType;
 	}
 
+	/** Returns the response type as written in the source, before linking. */
+	public String responseTypeElement() {
+		return responseTypeElement;
+	}
+
 	public boolean requestStreaming() {
 		return requestStreaming;
 	}
@@ -38,6 +38,7 @@ package com.squareup.wire.schema;
  * #L%
  */
 
+import java.util.Collection;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
@@ -184,9 +185,38 @@ public final class Schema {
 	 *                       {@linkplain com.squareup.wire.FieldEncoding#LENGTH_DELIMITED LENGTH_DELIMITED} respectively.
 	 */
 	public ProtoAdapter<Object> protoAdapter(String typeName, boolean includeUnknown) {
+		return protoAdapter(typeName, includeUnknown, false);
+	}
+
+	/**
+	 * Like {@link #protoAdapter(String, boolean)}, but when {@code lazyMessages} is true nested message fields are kept as their encoded bytes and only decoded
+	 * when first accessed. Nested messages that were never accessed are written back verbatim when the decoded value is encoded again.
+	 */
+	public ProtoAdapter<Object> protoAdapter(String typeName, boolean includeUnknown, boolean lazyMessages) {
 		Type type = getType(typeName);
 		if (type == null)
 			throw new IllegalArgumentException("unexpected type " + typeName);
-		return new SchemaProtoAdapterFactory(this, includeUnknown).get(type.type());
+		return new SchemaProtoAdapterFactory(this, includeUnknown, lazyMessages).get(type.type());
+	}
+
+	/**
+	 * Returns a decoder that reports the content of messages of type {@code typeName} as events instead of building maps. See {@link SchemaStreamingDecoder}.
+	 */
+	public SchemaStreamingDecoder streamingDecoder(String typeName) {
+		Type type = getType(typeName);
+		if (!(type instanceof MessageType))
+			throw new IllegalArgumentException("unexpected type " + typeName);
+		return new SchemaStreamingDecoder(this, (MessageType) type);
+	}
+
+	/**
+	 * Compiles {@code fieldPaths}, relative to the message type named {@code typeName}, into a projection that decodes only those fields. See
+	 * {@link SchemaProjection}.
+	 */
+	public SchemaProjection projection(String typeName, Collection<String> fieldPaths) {
+		Type type = getType(typeName);
+		if (!(type instanceof MessageType))
+			throw new IllegalArgumentException("unexpected type " + typeName);
+		return new SchemaProjection(this, (MessageType) type, fieldPaths);
 	}
 }
@@ -0,0 +1,163 @@
+package com.squareup.wire.schema;
+
+/*-
+ * #%L
+ * schema2proto-wire
+ * %%
+ * Copyright (C) 2019 - 2020 Entur
+ * %%
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl5
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.squareup.wire.ProtoAdapter;
+import com.squareup.wire.ProtoReader;
+
+import okio.Buffer;
+import okio.BufferedSource;
+
+/**
+ * A set of field paths compiled against a schema, used to partially decode messages. Paths are relative to the root type and use '.' to separate field names,
+ * ie {@code name.value}. Fields not on a projected path are skipped without being decoded, and nested messages are only entered when a projected path continues
+ * into them. A path ending at a message field decodes that message completely.
+ *
+ * <p>
+ * Decoded values use the same representation as {@link Schema#protoAdapter(String, boolean)}: maps keyed by field name, lists for repeated fields.
+ */
+public final class SchemaProjection {
+
+	private final MessageType rootType;
+	private final Node root;
+
+	SchemaProjection(Schema schema, MessageType rootType, Collection<String> fieldPaths) {
+		this.rootType = rootType;
+		this.root = new Node(rootType);
+
+		SchemaProtoAdapterFactory adapterFactory = new SchemaProtoAdapterFactory(schema, false);
+		for (String fieldPath : fieldPaths) {
+			compile(schema, adapterFactory, fieldPath);
+		}
+	}
+
+	private void compile(Schema schema, SchemaProtoAdapterFactory adapterFactory, String fieldPath) {
+		String[] segments = fieldPath.split("\\.");
+		Node node = root;
+		for (int i = 0; i < segments.length; i++) {
+			Field field = node.messageType.field(segments[i]);
+			if (field == null) {
+				throw new IllegalArgumentException("unknown field " + segments[i] + " in " + node.messageType.type() + " (path " + fieldPath + ")");
+			}
+			if (field.type().isMap()) {
+				throw new UnsupportedOperationException("map types not supported");
+			}
+
+			ProjectedField existing = node.fieldsByTag.get(field.tag());
+			if (i == segments.length - 1) {
+				// Path ends here; decode the field completely, replacing any narrower projection of it
+				node.fieldsByTag.put(field.tag(), new ProjectedField(field, adapterFactory.get(field.type()), null));
+				return;
+			}
+			if (existing != null && existing.children == null) {
+				// Field is already decoded completely
+				return;
+			}
+
+			Type type = schema.getType(field.type());
+			if (!(type instanceof MessageType)) {
+				throw new IllegalArgumentException("field " + segments[i] + " in " + node.messageType.type() + " is not a message (path " + fieldPath + ")");
+			}
+			if (existing == null) {
+				existing = new ProjectedField(field, null, new Node((MessageType) type));
+				node.fieldsByTag.put(field.tag(), existing);
+			}
+			node = existing.children;
+		}
+	}
+
+	public MessageType rootType() {
+		return rootType;
+	}
+
+	public Map<String, Object> decode(byte[] bytes) throws IOException {
+		return decode(new Buffer().write(bytes));
+	}
+
+	public Map<String, Object> decode(BufferedSource source) throws IOException {
+		return decode(new ProtoReader(source));
+	}
+
+	public Map<String, Object> decode(ProtoReader reader) throws IOException {
+		return decode(reader, root);
+	}
+
+	@SuppressWarnings("unchecked")
+	private Map<String, Object> decode(ProtoReader reader, Node node) throws IOException {
+		Map<String, Object> result = new LinkedHashMap<>();
+
+		long token = reader.beginMessage();
+		for (int tag; (tag = reader.nextTag()) != -1;) {
+			ProjectedField projectedField = node.fieldsByTag.get(tag);
+			if (projectedField == null) {
+				reader.skip();
+				continue;
+			}
+
+			Object value = projectedField.children != null ? decode(reader, projectedField.children) : projectedField.protoAdapter.decode(reader);
+			String name = projectedField.field.name();
+			if (projectedField.field.isRepeated()) {
+				List<Object> values = (List<Object>) result.get(name);
+				if (values == null) {
+					values = new ArrayList<>();
+					result.put(name, values);
+				}
+				values.add(value);
+			} else {
+				result.put(name, value);
+			}
+		}
+		reader.endMessage(token);
+		return result;
+	}
+
+	private static final class Node {
+		final MessageType messageType;
+		final Map<Integer, ProjectedField> fieldsByTag = new HashMap<>();
+
+		Node(MessageType messageType) {
+			this.messageType = messageType;
+		}
+	}
+
+	private static final class ProjectedField {
+		final Field field;
+		final ProtoAdapter<?> protoAdapter;
+		final Node children;
+
+		ProjectedField(Field field, ProtoAdapter<?> protoAdapter, Node children) {
+			this.field = field;
+			this.protoAdapter = protoAdapter;
+			this.children = children;
+		}
+	}
+}
@@ -39,27 +39,37 @@ package com.squareup.wire.schema;
  */
 
 import java.io.IOException;
+import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import com.squareup.wire.FieldEncoding;
 import com.squareup.wire.ProtoAdapter;
 import com.squareup.wire.ProtoReader;
 import com.squareup.wire.ProtoWriter;
 
+import okio.ByteString;
+
 /**
  * Creates type adapters to read and write protocol buffer data from a schema model. This doesn't require an intermediate code gen step.
  */
 final class SchemaProtoAdapterFactory {
 	final Schema schema;
 	final boolean includeUnknown;
+	final boolean lazyMessages;
 	final Map<ProtoType, ProtoAdapter<?>> adapterMap = new LinkedHashMap<>();
 
 	SchemaProtoAdapterFactory(Schema schema, boolean includeUnknown) {
+		this(schema, includeUnknown, false);
+	}
+
+	SchemaProtoAdapterFactory(Schema schema, boolean includeUnknown, boolean lazyMessages) {
 		this.schema = schema;
 		this.includeUnknown = includeUnknown;
+		this.lazyMessages = lazyMessages;
 
 		adapterMap.put(ProtoType.BOOL, ProtoAdapter.BOOL);
 		adapterMap.put(ProtoType.BYTES, ProtoAdapter.BYTES);
@@ -104,7 +114,11 @@ final class SchemaProtoAdapterFactory {
 			adapterMap.put(protoType, messageAdapter);
 
 			for (com.squareup.wire.schema.Field field : ((MessageType) type).fields()) {
-				Field fieldAdapter = new Field(field.name(), field.tag(), field.isRepeated(), get(field.type()));
+				ProtoAdapter<?> protoAdapter = get(field.type());
+				if (lazyMessages && protoAdapter instanceof MessageAdapter) {
+					protoAdapter = new LazyMessageAdapter((MessageAdapter) protoAdapter);
+				}
+				Field fieldAdapter = new Field(field.name(), field.tag(), field.isRepeated(), protoAdapter);
 				messageAdapter.fieldsByName.put(field.name(), fieldAdapter);
 				messageAdapter.fieldsByTag.put(field.tag(), fieldAdapter);
 			}
@@ -118,7 +132,7 @@ final class SchemaProtoAdapterFactory {
 		final EnumType enumType;
 
 		EnumAdapter(EnumType enumType) {
-			super(FieldEncoding.VARINT, (Class<?>) null); // null == JvmClassMappingKt.getKotlinClass(Object.class)
+			super(FieldEncoding.VARINT, Object.class);
 			this.enumType = enumType;
 		}
 
@@ -158,7 +172,7 @@ final class SchemaProtoAdapterFactory {
 		final boolean includeUnknown;
 
 		MessageAdapter(boolean includeUnknown) {
-			super(FieldEncoding.LENGTH_DELIMITED, (Class<?>) null); // null = JvmClassMappingKt.getKotlinClass(Map.class)
+			super(FieldEncoding.LENGTH_DELIMITED, Map.class);
 			this.includeUnknown = includeUnknown;
 		}
 
@@ -244,6 +258,105 @@ final class SchemaProtoAdapterFactory {
 		}
 	}
 
+	/**
+	 * Decodes nested messages to {@link LazyMessage} instances holding the undecoded bytes. Messages that have not been decoded when they are encoded again are
+	 * written verbatim.
+	 */
+	static final class LazyMessageAdapter extends ProtoAdapter<Map<String, Object>> {
+		final MessageAdapter messageAdapter;
+
+		LazyMessageAdapter(MessageAdapter messageAdapter) {
+			super(FieldEncoding.LENGTH_DELIMITED, Map.class);
+			this.messageAdapter = messageAdapter;
+		}
+
+		@Override
+		public Map<String, Object> redact(Map<String, Object> message) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public int encodedSize(Map<String, Object> value) {
+			if (value instanceof LazyMessage && !((LazyMessage) value).isDecoded()) {
+				return ((LazyMessage) value).bytes.size();
+			}
+			return messageAdapter.encodedSize(value);
+		}
+
+		@Override
+		public void encode(ProtoWriter writer, Map<String, Object> value) throws IOException {
+			if (value instanceof LazyMessage && !((LazyMessage) value).isDecoded()) {
+				writer.writeBytes(((LazyMessage) value).bytes);
+			} else {
+				messageAdapter.encode(writer, value);
+			}
+		}
+
+		@Override
+		public Map<String, Object> decode(ProtoReader reader) throws IOException {
+			return new LazyMessage(messageAdapter, reader.readBytes());
+		}
+
+		@Override
+		public String toString(Map<String, Object> value) {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	/**
+	 * A message map that is decoded from its bytes on first access. Not thread safe.
+	 */
+	static final class LazyMessage extends AbstractMap<String, Object> {
+		final MessageAdapter messageAdapter;
+		final ByteString bytes;
+		private Map<String, Object> decoded;
+
+		LazyMessage(MessageAdapter messageAdapter, ByteString bytes) {
+			this.messageAdapter = messageAdapter;
+			this.bytes = bytes;
+		}
+
+		boolean isDecoded() {
+			return decoded != null;
+		}
+
+		private Map<String, Object> decoded() {
+			if (decoded == null) {
+				try {
+					decoded = messageAdapter.decode(bytes);
+				} catch (IOException e) {
+					throw new IllegalStateException("unable to decode nested message", e);
+				}
+			}
+			return decoded;
+		}
+
+		@Override
+		public Set<Entry<String, Object>> entrySet() {
+			return decoded().entrySet();
+		}
+
+		@Override
+		public Object get(Object key) {
+			return decoded().get(key);
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			return decoded().containsKey(key);
+		}
+
+		@Override
+		public Object put(String key, Object value) {
+			return decoded().put(key, value);
+		}
+
+		@Override
+		public Object remove(Object key) {
+			return decoded().remove(key);
+		}
+	}
+
 	static class Field {
 		final String name;
 		final int tag;
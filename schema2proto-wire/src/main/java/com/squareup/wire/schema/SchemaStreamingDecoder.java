@@ -0,0 +1,168 @@
+package com.squareup.wire.schema;
+
+/*-
+ * #%L
+ * schema2proto-wire
+ * %%
+ * Copyright (C) 2019 - 2020 Entur
+ * %%
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl5
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.squareup.wire.ProtoAdapter;
+import com.squareup.wire.ProtoReader;
+
+import okio.BufferedSource;
+
+/**
+ * Decodes protocol buffer data as a stream of events, driven by a linked schema. Unlike the adapters returned by {@link Schema#protoAdapter(String, boolean)}
+ * no intermediate maps or lists are built; each field value is handed to a {@link Listener} as soon as it has been read, so memory use does not grow with the
+ * size of the payload.
+ *
+ * <p>
+ * Scalar values are reported as {@linkplain String}, {@linkplain Integer}, {@linkplain Long}, {@linkplain Float}, {@linkplain Double}, {@linkplain Boolean} or
+ * {@linkplain okio.ByteString ByteString}. Enum values are reported as the constant name, or as an {@linkplain Integer} if the value is not declared in the
+ * schema. Fields with tags unknown to the schema are skipped.
+ *
+ * <p>
+ * Instances are not thread safe; create one decoder per thread.
+ */
+public final class SchemaStreamingDecoder {
+
+	/**
+	 * Receives decoding events. For the root message {@code field} is null.
+	 */
+	public interface Listener {
+		/**
+		 * Called when a message starts.
+		 *
+		 * @return false to skip the content of this message, including all nested messages. {@link #endMessage} is not called for skipped messages.
+		 */
+		boolean startMessage(MessageType messageType, Field field);
+
+		/** Called for each scalar or enum field value read from {@code messageType}. Repeated fields cause one call per value. */
+		void field(MessageType messageType, Field field, Object value);
+
+		/** Called when all fields of a message that was not skipped have been read. */
+		void endMessage(MessageType messageType, Field field);
+	}
+
+	private final Schema schema;
+	private final MessageType rootType;
+	private final Map<ProtoType, ProtoAdapter<?>> scalarAdapters = new HashMap<>();
+	private final Map<ProtoType, Map<Integer, Field>> fieldsByTagPerType = new HashMap<>();
+
+	SchemaStreamingDecoder(Schema schema, MessageType rootType) {
+		this.schema = schema;
+		this.rootType = rootType;
+
+		scalarAdapters.put(ProtoType.BOOL, ProtoAdapter.BOOL);
+		scalarAdapters.put(ProtoType.BYTES, ProtoAdapter.BYTES);
+		scalarAdapters.put(ProtoType.DOUBLE, ProtoAdapter.DOUBLE);
+		scalarAdapters.put(ProtoType.FLOAT, ProtoAdapter.FLOAT);
+		scalarAdapters.put(ProtoType.FIXED32, ProtoAdapter.FIXED32);
+		scalarAdapters.put(ProtoType.FIXED64, ProtoAdapter.FIXED64);
+		scalarAdapters.put(ProtoType.INT32, ProtoAdapter.INT32);
+		scalarAdapters.put(ProtoType.INT64, ProtoAdapter.INT64);
+		scalarAdapters.put(ProtoType.SFIXED32, ProtoAdapter.SFIXED32);
+		scalarAdapters.put(ProtoType.SFIXED64, ProtoAdapter.SFIXED64);
+		scalarAdapters.put(ProtoType.SINT32, ProtoAdapter.SINT32);
+		scalarAdapters.put(ProtoType.SINT64, ProtoAdapter.SINT64);
+		scalarAdapters.put(ProtoType.STRING, ProtoAdapter.STRING);
+		scalarAdapters.put(ProtoType.UINT32, ProtoAdapter.UINT32);
+		scalarAdapters.put(ProtoType.UINT64, ProtoAdapter.UINT64);
+	}
+
+	public MessageType rootType() {
+		return rootType;
+	}
+
+	/** Decodes a single root message from {@code source}, reporting events to {@code listener}. */
+	public void decode(BufferedSource source, Listener listener) throws IOException {
+		decode(new ProtoReader(source), listener);
+	}
+
+	/** Decodes a single root message from {@code reader}, reporting events to {@code listener}. */
+	public void decode(ProtoReader reader, Listener listener) throws IOException {
+		if (!listener.startMessage(rootType, null)) {
+			return;
+		}
+		long token = reader.beginMessage();
+		decodeFields(reader, rootType, listener);
+		reader.endMessage(token);
+		listener.endMessage(rootType, null);
+	}
+
+	private void decodeMessage(ProtoReader reader, MessageType messageType, Field enclosingField, Listener listener) throws IOException {
+		if (!listener.startMessage(messageType, enclosingField)) {
+			reader.skip();
+			return;
+		}
+		long token = reader.beginMessage();
+		decodeFields(reader, messageType, listener);
+		reader.endMessage(token);
+		listener.endMessage(messageType, enclosingField);
+	}
+
+	private void decodeFields(ProtoReader reader, MessageType messageType, Listener listener) throws IOException {
+		Map<Integer, Field> fieldsByTag = fieldsByTag(messageType);
+		for (int tag; (tag = reader.nextTag()) != -1;) {
+			Field field = fieldsByTag.get(tag);
+			if (field == null) {
+				reader.skip();
+				continue;
+			}
+
+			ProtoAdapter<?> scalarAdapter = scalarAdapters.get(field.type());
+			if (scalarAdapter != null) {
+				listener.field(messageType, field, scalarAdapter.decode(reader));
+				continue;
+			}
+
+			Type type = schema.getType(field.type());
+			if (type instanceof MessageType) {
+				decodeMessage(reader, (MessageType) type, field, listener);
+			} else if (type instanceof EnumType) {
+				int value = reader.readVarint32();
+				EnumConstant constant = ((EnumType) type).constant(value);
+				listener.field(messageType, field, constant != null ? constant.getName() : value);
+			} else {
+				throw new IllegalArgumentException("unexpected type: " + field.type());
+			}
+		}
+	}
+
+	private Map<Integer, Field> fieldsByTag(MessageType messageType) {
+		Map<Integer, Field> fieldsByTag = fieldsByTagPerType.get(messageType.type());
+		if (fieldsByTag == null) {
+			fieldsByTag = new LinkedHashMap<>();
+			for (Field field : messageType.fieldsAndOneOfFields()) {
+				if (field.type().isMap()) {
+					throw new UnsupportedOperationException("map types not supported");
+				}
+				fieldsByTag.put(field.tag(), field);
+			}
+			fieldsByTagPerType.put(messageType.type(), fieldsByTag);
+		}
+		return fieldsByTag;
+	}
+}
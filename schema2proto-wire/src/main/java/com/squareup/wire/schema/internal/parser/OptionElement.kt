@@ -41,7 +41,8 @@ data class OptionElement(
         OPTION
     }
 
-    private val formattedName = if (isParenthesized) "($name)" else name
+    /** The option name as written in a schema, in parentheses if it is an extension. */
+    val formattedName = if (isParenthesized) "($name)" else name
 
     fun toSchema(): String = buildString {
         when (kind) {
@@ -0,0 +1,66 @@
+/*-
+ * #%L
+ * schema2proto-wire
+ * %%
+ * Copyright (C) 2019 - 2020 Entur
+ * %%
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl5
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * #L%
+ */
+package com.squareup.wire.schema
+
+import com.google.common.collect.Range
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.Test
+
+class ReservedTest {
+    private val location = Location.get("test.proto")
+
+    @Test
+    fun coalescesConsecutiveTags() {
+        assertThat(Reserved.coalesceTags(listOf(12, 3, 1, 2, 10, 5, 11, 2))).containsExactly(
+                Range.closed(1, 3), 5, Range.closed(10, 12))
+        assertThat(Reserved.coalesceTags(emptyList())).isEmpty()
+    }
+
+    @Test
+    fun indexFindsOverlappingReservations() {
+        val first = Reserved(location, "", listOf(Range.closed(1, 100), "foo"))
+        val second = Reserved(location, "", listOf(5, Range.closed(50, 60)))
+        val third = Reserved(location, "", listOf(200, "foo"))
+        val index = Reserved.Index(listOf(first, second, third))
+
+        assertThat(index.matchingTag(5)).containsExactly(first, second)
+        assertThat(index.matchingTag(55)).containsExactly(first, second)
+        assertThat(index.matchingTag(70)).containsExactly(first)
+        assertThat(index.matchingTag(150)).isEmpty()
+        assertThat(index.matchingTag(200)).containsExactly(third)
+        assertThat(index.matchingTag(0)).isEmpty()
+        assertThat(index.matchingName("foo")).containsExactly(first, third)
+        assertThat(index.matchingName("bar")).isEmpty()
+    }
+
+    @Test
+    fun addReservedTagsSkipsReservedTags() {
+        val messageType = MessageType(ProtoType.get("Message"), location, "", "Message", Options(Options.MESSAGE_OPTIONS, emptyList()))
+        messageType.addReserved("", location, 4)
+        messageType.addReservedTags("", location, listOf(1, 2, 3, 4, 5, 6, 9))
+        messageType.addReservedNames("", location, listOf("a", "b", "a"))
+
+        assertThat(messageType.reserveds.map { it.values }).containsExactly(
+                listOf(4), listOf(Range.closed(1, 3), Range.closed(5, 6), 9), listOf("a", "b"))
+    }
+}
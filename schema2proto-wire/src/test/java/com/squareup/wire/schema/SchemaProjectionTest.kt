@@ -0,0 +1,88 @@
+/*-
+ * #%L
+ * schema2proto-wire
+ * %%
+ * Copyright (C) 2019 - 2020 Entur
+ * %%
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl5
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * #L%
+ */
+package com.squareup.wire.schema
+
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.Assertions.assertThrows
+import org.junit.jupiter.api.Test
+
+class SchemaProjectionTest {
+    private val schema = RepoBuilder()
+            .add("stops.proto",
+                    """
+            |syntax = "proto3";
+            |package stops;
+            |message StopPlace {
+            |  string id = 1;
+            |  Name name = 2;
+            |  int32 version = 3;
+            |  repeated Quay quays = 4;
+            |}
+            |message Name {
+            |  string value = 1;
+            |  string lang = 2;
+            |}
+            |message Quay {
+            |  string id = 1;
+            |  Name name = 2;
+            |}
+            """.trimMargin()
+            )
+            .schema()
+
+    private val stopPlace = schema.protoAdapter("stops.StopPlace", false).encode(mapOf(
+            "id" to "NSR:StopPlace:1",
+            "name" to mapOf("value" to "Oslo S", "lang" to "nor"),
+            "version" to 3,
+            "quays" to listOf(
+                    mapOf("id" to "NSR:Quay:1", "name" to mapOf("value" to "A")),
+                    mapOf("id" to "NSR:Quay:2", "name" to mapOf("value" to "B"))
+            )
+    ))
+
+    @Test
+    fun decodesOnlyProjectedFields() {
+        val projection = schema.projection("stops.StopPlace", listOf("id", "name.value", "quays.id"))
+
+        assertThat(projection.decode(stopPlace)).isEqualTo(mapOf(
+                "id" to "NSR:StopPlace:1",
+                "name" to mapOf("value" to "Oslo S"),
+                "quays" to listOf(mapOf("id" to "NSR:Quay:1"), mapOf("id" to "NSR:Quay:2"))
+        ))
+    }
+
+    @Test
+    fun pathEndingAtMessageDecodesWholeMessage() {
+        val projection = schema.projection("stops.StopPlace", listOf("name.value", "name"))
+
+        assertThat(projection.decode(stopPlace)).isEqualTo(mapOf(
+                "name" to mapOf("value" to "Oslo S", "lang" to "nor")
+        ))
+    }
+
+    @Test
+    fun rejectsInvalidPaths() {
+        assertThrows(IllegalArgumentException::class.java) { schema.projection("stops.StopPlace", listOf("unknown")) }
+        assertThrows(IllegalArgumentException::class.java) { schema.projection("stops.StopPlace", listOf("id.value")) }
+    }
+}
@@ -0,0 +1,75 @@
+/*-
+ * #%L
+ * schema2proto-wire
+ * %%
+ * Copyright (C) 2019 - 2020 Entur
+ * %%
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl5
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * #L%
+ */
+package com.squareup.wire.schema
+
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.Test
+
+class SchemaProtoAdapterFactoryTest {
+    private fun schema(nameFields: String) = RepoBuilder()
+            .add("stops.proto",
+                    """
+            |syntax = "proto3";
+            |package stops;
+            |message StopPlace {
+            |  string id = 1;
+            |  repeated Name names = 2;
+            |}
+            |message Name {
+            |$nameFields
+            |}
+            """.trimMargin()
+            )
+            .schema()
+
+    private val current = schema("  string value = 1;\n  string lang = 2;")
+    private val old = schema("  string value = 1;")
+
+    private val stopPlace = current.protoAdapter("stops.StopPlace", false).encode(mapOf(
+            "id" to "NSR:StopPlace:1",
+            "names" to listOf(mapOf("value" to "Oslo S", "lang" to "nor"), mapOf("value" to "Oslo", "lang" to "eng"))
+    ))
+
+    @Test
+    fun untouchedLazyMessagesAreCopiedVerbatim() {
+        val adapter = old.protoAdapter("stops.StopPlace", false, true)
+        val decoded = adapter.decode(stopPlace) as Map<*, *>
+
+        assertThat(decoded["id"]).isEqualTo("NSR:StopPlace:1")
+        // Name.lang is unknown to the old schema, but survives since the names were never decoded
+        assertThat(adapter.encode(decoded)).isEqualTo(stopPlace)
+    }
+
+    @Test
+    fun lazyMessagesAreDecodedOnAccess() {
+        val adapter = old.protoAdapter("stops.StopPlace", false, true)
+        val decoded = adapter.decode(stopPlace) as Map<*, *>
+
+        val names = decoded["names"] as List<*>
+        assertThat(names[0]).isEqualTo(mapOf("value" to "Oslo S"))
+        assertThat(old.protoAdapter("stops.StopPlace", false).decode(adapter.encode(decoded))).isEqualTo(mapOf(
+                "id" to "NSR:StopPlace:1",
+                "names" to listOf(mapOf("value" to "Oslo S"), mapOf("value" to "Oslo"))
+        ))
+    }
+}
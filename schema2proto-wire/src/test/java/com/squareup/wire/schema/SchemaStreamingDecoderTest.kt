@@ -0,0 +1,115 @@
+/*-
+ * #%L
+ * schema2proto-wire
+ * %%
+ * Copyright (C) 2019 - 2020 Entur
+ * %%
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl5
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * #L%
+ */
+package com.squareup.wire.schema
+
+import okio.Buffer
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.Test
+
+class SchemaStreamingDecoderTest {
+    private val schema = RepoBuilder()
+            .add("stops.proto",
+                    """
+            |syntax = "proto3";
+            |package stops;
+            |message Delivery {
+            |  repeated StopPlace stop_place = 1;
+            |  string description = 2;
+            |}
+            |message StopPlace {
+            |  string id = 1;
+            |  Name name = 2;
+            |  int32 version = 3;
+            |}
+            |message Name {
+            |  string value = 1;
+            |}
+            """.trimMargin()
+            )
+            .schema()
+
+    private fun encodedDelivery(): ByteArray {
+        val delivery = mapOf(
+                "stop_place" to listOf(
+                        mapOf("id" to "NSR:StopPlace:1", "name" to mapOf("value" to "Oslo S"), "version" to 3),
+                        mapOf("id" to "NSR:StopPlace:2", "name" to mapOf("value" to "Bergen"), "version" to 7)
+                ),
+                "description" to "stops"
+        )
+        return schema.protoAdapter("stops.Delivery", false).encode(delivery)
+    }
+
+    @Test
+    fun emitsEventsInWireOrder() {
+        val events = mutableListOf<String>()
+        schema.streamingDecoder("stops.Delivery").decode(Buffer().write(encodedDelivery()), object : SchemaStreamingDecoder.Listener {
+            override fun startMessage(messageType: MessageType, field: Field?): Boolean {
+                events.add("start ${messageType.name}")
+                return true
+            }
+
+            override fun field(messageType: MessageType, field: Field, value: Any) {
+                events.add("${field.name()}=$value")
+            }
+
+            override fun endMessage(messageType: MessageType, field: Field?) {
+                events.add("end ${messageType.name}")
+            }
+        })
+
+        assertThat(events).containsExactly(
+                "start Delivery",
+                "start StopPlace", "id=NSR:StopPlace:1", "start Name", "value=Oslo S", "end Name", "version=3", "end StopPlace",
+                "start StopPlace", "id=NSR:StopPlace:2", "start Name", "value=Bergen", "end Name", "version=7", "end StopPlace",
+                "description=stops",
+                "end Delivery")
+    }
+
+    @Test
+    fun skipsSubtrees() {
+        val ids = mutableListOf<Any>()
+        var stopPlaces = 0
+        schema.streamingDecoder("stops.Delivery").decode(Buffer().write(encodedDelivery()), object : SchemaStreamingDecoder.Listener {
+            override fun startMessage(messageType: MessageType, field: Field?): Boolean {
+                if (messageType.name == "StopPlace") {
+                    stopPlaces++
+                }
+                return messageType.name != "Name"
+            }
+
+            override fun field(messageType: MessageType, field: Field, value: Any) {
+                assertThat(field.name()).isNotEqualTo("value")
+                if (field.name() == "id") {
+                    ids.add(value)
+                }
+            }
+
+            override fun endMessage(messageType: MessageType, field: Field?) {
+                assertThat(messageType.name).isNotEqualTo("Name")
+            }
+        })
+
+        assertThat(stopPlaces).isEqualTo(2)
+        assertThat(ids).containsExactly("NSR:StopPlace:1", "NSR:StopPlace:2")
+    }
+}